@@ -0,0 +1,124 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.MediaType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jelena.eshopping.BatchResult;
+import jelena.eshopping.CustomerService;
+import jelena.eshopping.OrderLineOperation;
+import jelena.eshopping.Precondition;
+import jelena.eshopping.Product;
+
+/**
+ * Compares the batch endpoints with the same work done through the single-entity endpoints. Scores are per entity or
+ * per order line operation, so the two variants can be compared directly.
+ * <p/>
+ * Product creation grows the catalog, so the store is rebuilt for every iteration. The order line batches add every
+ * product once and delete it again, so the orders keep their size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class BatchBenchmark {
+
+	static final int BATCH = 1000;
+
+	@Param({ "1000", "100000" })
+	int size;
+
+	CustomerService service;
+	List<OrderLineOperation> orderLines;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		service = BenchmarkSupport.populatedService(size, size);
+		orderLines = new ArrayList<OrderLineOperation>(BATCH);
+		for (int i = 0; i < BATCH; i++) {
+			OrderLineOperation op = new OrderLineOperation();
+			op.setCustomerId(CustomerServiceBenchmark.FIRST_CUSTOMER_ID + i / 2 % size);
+			op.setOrderId(CustomerServiceBenchmark.FIRST_ORDER_ID + i / 2 % size);
+			op.setProductId(CustomerServiceBenchmark.FIRST_PRODUCT_ID + i / 2 % size);
+			op.setAction(i % 2 == 0 ? OrderLineOperation.Action.ADD : OrderLineOperation.Action.DELETE);
+			orderLines.add(op);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void addProductsSingle(Blackhole bh) {
+		for (int i = 0; i < BATCH; i++) {
+			Product p = new Product();
+			p.setPrice(i);
+			bh.consume(service.addProduct(p, MediaType.APPLICATION_JSON_TYPE));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public BatchResult addProductsBatch() {
+		List<Product> batch = new ArrayList<Product>(BATCH);
+		for (int i = 0; i < BATCH; i++) {
+			Product p = new Product();
+			p.setPrice(i);
+			batch.add(p);
+		}
+		return service.addProducts(batch);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void orderLinesSingle(Blackhole bh) {
+		for (OrderLineOperation op : orderLines) {
+			String customerId = Long.toString(op.getCustomerId());
+			String orderId = Long.toString(op.getOrderId());
+			String productId = Long.toString(op.getProductId());
+			if (op.getAction() == OrderLineOperation.Action.ADD) {
+				bh.consume(service.addOrderProduct(customerId, orderId, productId, (Precondition) null));
+			} else {
+				bh.consume(service.deleteOrderProducts(customerId, orderId, productId));
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public BatchResult orderLinesBatch() {
+		return service.applyOrderLines(orderLines);
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count and writes a JSON result file for every run, so that the results of two
+ * releases can be compared.
+ * <p/>
+ * Usage: java -jar benchmarks.jar [-threads 1,4,16] [-results dir] [JMH options and benchmark regexps]
+ * <p/>
+ * The results end up in 'dir/jmh-t{threads}.json', 'jmh-results' by default. All other arguments are handed to JMH,
+ * e.g. '-p size=1000,1000000' to pick the dataset sizes or '-prof gc' for allocation rates.
+ */
+public final class BenchmarkRunner {
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		String threads = Integer.toString(Runtime.getRuntime().availableProcessors());
+		String results = "jmh-results";
+		List<String> jmhArgs = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if ("-threads".equals(args[i]) && i + 1 < args.length) {
+				threads = args[++i];
+			} else if ("-results".equals(args[i]) && i + 1 < args.length) {
+				results = args[++i];
+			} else {
+				jmhArgs.add(args[i]);
+			}
+		}
+
+		File dir = new File(results);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IllegalStateException("Cannot create result directory " + dir);
+		}
+		CommandLineOptions parent = new CommandLineOptions(jmhArgs.toArray(new String[jmhArgs.size()]));
+		for (String t : threads.split(",")) {
+			int count = Integer.parseInt(t.trim());
+			Options options = new OptionsBuilder()
+					.parent(parent)
+					.threads(count)
+					.resultFormat(ResultFormatType.JSON)
+					.result(new File(dir, "jmh-t" + count + ".json").getPath())
+					.build();
+			new Runner(options).run();
+		}
+	}
+}
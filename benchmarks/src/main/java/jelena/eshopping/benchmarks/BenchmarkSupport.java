@@ -0,0 +1,100 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Locale;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Variant;
+
+import org.apache.cxf.jaxrs.ext.MessageContext;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.CustomerService;
+import jelena.eshopping.EntityStore;
+import jelena.eshopping.Order;
+import jelena.eshopping.Product;
+
+/**
+ * Helpers shared by the benchmarks: a populated CustomerService and a MessageContext that is good enough for the
+ * resource methods outside of a CXF request.
+ */
+final class BenchmarkSupport {
+
+	private BenchmarkSupport() {
+	}
+
+	/**
+	 * Creates a service holding the given number of customers and products. The ids are contiguous, starting at
+	 * CustomerServiceBenchmark.FIRST_CUSTOMER_ID and FIRST_PRODUCT_ID, and customer FIRST_CUSTOMER_ID + i has one
+	 * empty order with the id FIRST_ORDER_ID + i.
+	 */
+	static CustomerService populatedService(int customers, int products) {
+		EntityStore store = new EntityStore();
+		CustomerService service = new CustomerService(store);
+		service.setMessageContext(messageContext(MediaType.APPLICATION_JSON_TYPE));
+		for (int i = 0; i < customers; i++) {
+			Customer c = new Customer();
+			c.setName("customer " + i);
+			store.addCustomer(c);
+			Order o = new Order();
+			o.setDescription("order of customer " + i);
+			store.addOrder(c.getId(), o);
+		}
+		for (int i = 0; i < products; i++) {
+			Product p = new Product();
+			p.setPrice(100 + i % 1000);
+			store.addProduct(p);
+		}
+		return service;
+	}
+
+	/**
+	 * Returns a MessageContext whose request headers report the given content type. The request carries no
+	 * conditional headers, so every precondition holds, and accepts the given type only.
+	 */
+	static MessageContext messageContext(final MediaType mediaType) {
+		final HttpHeaders headers = proxy(HttpHeaders.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return "getMediaType".equals(method.getName()) ? mediaType : null;
+			}
+		});
+		final Variant variant = new Variant(mediaType, (Locale) null, null);
+		final Request request = proxy(Request.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return "selectVariant".equals(method.getName()) ? variant : null;
+			}
+		});
+		return proxy(MessageContext.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if ("getRequest".equals(method.getName())) {
+					return request;
+				}
+				return "getHttpHeaders".equals(method.getName()) ? headers : null;
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(BenchmarkSupport.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+}
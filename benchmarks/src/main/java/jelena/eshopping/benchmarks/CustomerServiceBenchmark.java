@@ -0,0 +1,141 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.CustomerService;
+import jelena.eshopping.Order;
+import jelena.eshopping.Precondition;
+
+/**
+ * Benchmarks the CustomerService resource methods directly, without the HTTP transport.
+ * <p/>
+ * Writes are paired with the matching delete, or limited to a small set of hot products, so that the dataset keeps
+ * its size for the whole run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class CustomerServiceBenchmark {
+
+	static final long FIRST_CUSTOMER_ID = 124;
+	static final long FIRST_PRODUCT_ID = 324;
+	static final long FIRST_ORDER_ID = 224;
+	static final int HOT_PRODUCTS = 16;
+	static final byte[] CUSTOMER_JSON = "{\"name\":\"benchmark customer\"}".getBytes(StandardCharsets.UTF_8);
+
+	@Param({ "1000", "100000", "1000000", "10000000" })
+	int size;
+
+	CustomerService service;
+	ObjectMapper mapper;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		service = BenchmarkSupport.populatedService(size, size);
+		mapper = new ObjectMapper();
+	}
+
+	@Benchmark
+	public Response getCustomer() {
+		return service.getCustomer(Long.toString(randomCustomerId()));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Response getCustomers() {
+		return service.getCustomers(0, 0, false);
+	}
+
+	/**
+	 * The POST /customers/ path: the body is read by Jackson, as the JAX-RS provider does, and the customer added.
+	 */
+	@Benchmark
+	public Response addCustomer() throws IOException {
+		Customer customer = mapper.readValue(CUSTOMER_JSON, Customer.class);
+		Response r = service.addCustomer(customer, MediaType.APPLICATION_JSON_TYPE);
+		service.deleteCustomer(Long.toString(customer.getId()));
+		return r;
+	}
+
+	@Benchmark
+	public Response addOrder() {
+		String customerId = Long.toString(randomCustomerId());
+		Order order = new Order();
+		order.setDescription("benchmark order");
+		Response r = service.addOrder(customerId, order, MediaType.APPLICATION_JSON_TYPE);
+		service.deleteOrder(customerId, Long.toString(order.getId()));
+		return r;
+	}
+
+	@Benchmark
+	public Response addOrderProduct() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long productId = FIRST_PRODUCT_ID + random.nextInt(Math.min(size, HOT_PRODUCTS));
+		long customerId = randomCustomerId();
+		return service.addOrderProduct(Long.toString(customerId), Long.toString(orderIdOf(customerId)),
+				Long.toString(productId), (Precondition) null);
+	}
+
+	@Benchmark
+	public Response getOrder() {
+		long customerId = randomCustomerId();
+		return service.getOrder(Long.toString(customerId), Long.toString(orderIdOf(customerId)));
+	}
+
+	/**
+	 * The same order as getOrder, looked up by its id alone.
+	 */
+	@Benchmark
+	public Response getOrderById() {
+		return service.getOrder(Long.toString(orderIdOf(randomCustomerId())));
+	}
+
+	private static long orderIdOf(long customerId) {
+		return FIRST_ORDER_ID + customerId - FIRST_CUSTOMER_ID;
+	}
+
+	private long randomCustomerId() {
+		return FIRST_CUSTOMER_ID + ThreadLocalRandom.current().nextInt(size);
+	}
+}
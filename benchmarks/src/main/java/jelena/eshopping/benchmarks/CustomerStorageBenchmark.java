@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.CustomerStorage;
+import jelena.eshopping.CustomerStorages;
+import jelena.eshopping.EntityStore;
+import jelena.eshopping.Order;
+import jelena.eshopping.ProductCatalogs;
+
+/**
+ * Benchmarks reads of customers and adding orders through EntityStore on the heap storage and on the file storage
+ * behind caches of different sizes. Nine in ten operations go to the first tenth of the customers, which a cache of
+ * 64 MB holds for a million customers. The storage parameter is the storage type, followed by the cache size in MB
+ * for the file storage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(4)
+public class CustomerStorageBenchmark {
+
+	@Param({ "1000000" })
+	int customers;
+
+	@Param({ "heap", "file:0", "file:8", "file:64" })
+	String storage;
+
+	EntityStore store;
+	CustomerStorage customerStorage;
+	long firstId;
+
+	@Setup
+	public void setUp() throws IOException {
+		int colon = storage.indexOf(':');
+		String type = colon < 0 ? storage : storage.substring(0, colon);
+		long cacheBytes = colon < 0 ? 0 : Long.parseLong(storage.substring(colon + 1)) << 20;
+		customerStorage = CustomerStorages.create(type, System.getProperty("java.io.tmpdir") + "/ebasket-storage",
+				cacheBytes);
+		store = new EntityStore(ProductCatalogs.create("heap"), customerStorage);
+		for (int i = 0; i < customers; i++) {
+			Customer c = new Customer();
+			c.setName("customer " + i);
+			Order o = new Order();
+			o.setDescription("order of customer " + i);
+			c.setOrders(Collections.singletonList(o));
+			store.addCustomer(c);
+			if (i == 0) {
+				firstId = c.getId();
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		customerStorage.close();
+	}
+
+	@Benchmark
+	public Customer getCustomer() {
+		return store.getCustomer(nextId());
+	}
+
+	@Benchmark
+	public Order addOrder() {
+		Order o = new Order();
+		o.setDescription("benchmark order");
+		long id = nextId();
+		Order added = store.addOrder(id, o);
+		store.deleteOrder(id, added.getId());
+		return added;
+	}
+
+	/**
+	 * Picks a customer from the first tenth nine times in ten.
+	 */
+	private long nextId() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int bound = random.nextInt(10) == 0 ? customers : Math.max(1, customers / 10);
+		return firstId + random.nextInt(bound);
+	}
+}
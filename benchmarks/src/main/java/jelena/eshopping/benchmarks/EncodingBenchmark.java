@@ -0,0 +1,185 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import jelena.eshopping.Order;
+import jelena.eshopping.Product;
+
+/**
+ * Benchmarks writing and reading a list of orders, as getOrders answers it, in JSON, CBOR, Smile and XML. The
+ * mappers are configured the way JacksonJsonProvider, JacksonCBORProvider and JacksonSmileProvider use them; XML is
+ * written and read one order at a time inside a wrapper element, as EntityStream and the CXF JAXB provider do.
+ * <p/>
+ * The orders parameter is the length of the list, every order carrying five lines. The payload size of every
+ * format is printed at setup. Note that the XML representation of an order has no lines, so its size and times
+ * are not directly comparable with the other three.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodingBenchmark {
+
+	private static final TypeReference<List<Order>> ORDER_LIST = new TypeReference<List<Order>>() {
+	};
+
+	@Param({ "100", "10000" })
+	int orders;
+
+	ObjectMapper json;
+	ObjectMapper cbor;
+	ObjectMapper smile;
+	Marshaller marshaller;
+	Unmarshaller unmarshaller;
+	XMLInputFactory xmlInput;
+	ByteArrayOutputStream out;
+
+	List<Order> list;
+	byte[] jsonBytes;
+	byte[] cborBytes;
+	byte[] smileBytes;
+	byte[] xmlBytes;
+
+	@Setup
+	public void setUp() throws Exception {
+		json = new ObjectMapper(new JsonFactory());
+		cbor = new ObjectMapper(new CBORFactory());
+		smile = new ObjectMapper(new SmileFactory());
+		JAXBContext context = JAXBContext.newInstance(Order.class, Product.class);
+		marshaller = context.createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+		unmarshaller = context.createUnmarshaller();
+		xmlInput = XMLInputFactory.newInstance();
+		out = new ByteArrayOutputStream(1024 * 1024);
+
+		list = new ArrayList<Order>(orders);
+		for (int i = 0; i < orders; i++) {
+			Order o = new Order();
+			o.setId(223 + i);
+			o.setDescription("order " + (223 + i));
+			for (int j = 0; j < 5; j++) {
+				Product p = new Product();
+				p.setId(323 + (i * 5 + j) % 1000);
+				p.setPrice(1000 + j);
+				o.addProduct(p);
+			}
+			list.add(o);
+		}
+		jsonBytes = json.writeValueAsBytes(list);
+		cborBytes = cbor.writeValueAsBytes(list);
+		smileBytes = smile.writeValueAsBytes(list);
+		writeXml();
+		xmlBytes = out.toByteArray();
+		System.out.printf("%n%d orders: json %d bytes, cbor %d bytes, smile %d bytes, xml %d bytes (without lines)%n",
+				orders, jsonBytes.length, cborBytes.length, smileBytes.length, xmlBytes.length);
+	}
+
+	@Benchmark
+	public int writeJson() throws IOException {
+		return write(json);
+	}
+
+	@Benchmark
+	public int writeCbor() throws IOException {
+		return write(cbor);
+	}
+
+	@Benchmark
+	public int writeSmile() throws IOException {
+		return write(smile);
+	}
+
+	@Benchmark
+	public int writeXml() throws JAXBException, IOException {
+		out.reset();
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><Orders>".getBytes(StandardCharsets.UTF_8));
+		for (Order o : list) {
+			marshaller.marshal(o, out);
+		}
+		out.write("</Orders>".getBytes(StandardCharsets.UTF_8));
+		return out.size();
+	}
+
+	@Benchmark
+	public List<Order> readJson() throws IOException {
+		return json.readValue(jsonBytes, ORDER_LIST);
+	}
+
+	@Benchmark
+	public List<Order> readCbor() throws IOException {
+		return cbor.readValue(cborBytes, ORDER_LIST);
+	}
+
+	@Benchmark
+	public List<Order> readSmile() throws IOException {
+		return smile.readValue(smileBytes, ORDER_LIST);
+	}
+
+	@Benchmark
+	public List<Order> readXml() throws JAXBException, XMLStreamException {
+		XMLStreamReader reader = xmlInput.createXMLStreamReader(new ByteArrayInputStream(xmlBytes));
+		List<Order> read = new ArrayList<Order>(orders);
+		reader.nextTag();
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			read.add(unmarshaller.unmarshal(reader, Order.class).getValue());
+		}
+		reader.close();
+		return read;
+	}
+
+	private int write(ObjectMapper mapper) throws IOException {
+		out.reset();
+		mapper.writeValue(out, list);
+		return out.size();
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.EntityStore;
+import jelena.eshopping.Order;
+import jelena.eshopping.Product;
+
+/**
+ * Measures the heap retained by an EntityStore per customer. Heap footprint is not something JMH measures, so this is
+ * a plain main class in the benchmarks jar.
+ * <p/>
+ * Usage: java -Xmx8g -cp benchmarks.jar jelena.eshopping.benchmarks.HeapFootprint [customers...]
+ * <p/>
+ * Every customer gets one order with two products from a catalog of 1000 products. The default sizes are 1M and 10M
+ * customers; 10M needs a heap of about 8 GB.
+ */
+public final class HeapFootprint {
+
+	private static final int PRODUCTS = 1000;
+
+	private HeapFootprint() {
+	}
+
+	public static void main(String[] args) {
+		String[] sizes = args.length > 0 ? args : new String[] { "1000000", "10000000" };
+		for (String size : sizes) {
+			int customers = Integer.parseInt(size);
+			long before = usedHeap();
+			EntityStore store = populate(customers);
+			long after = usedHeap();
+			System.out.printf("%,d customers: %,d bytes retained, %.1f bytes per customer%n", customers,
+					after - before, (after - before) / (double) customers);
+			if (store.getCustomer(store.getCurrentId()) == null) {
+				throw new IllegalStateException("Store lost its customers");
+			}
+		}
+	}
+
+	static EntityStore populate(int customers) {
+		EntityStore store = new EntityStore();
+		long firstProduct = 0;
+		for (int i = 0; i < PRODUCTS; i++) {
+			Product p = new Product();
+			p.setPrice(100 + i);
+			long id = store.addProduct(p).getId();
+			firstProduct = i == 0 ? id : firstProduct;
+		}
+		for (int i = 0; i < customers; i++) {
+			Customer c = new Customer();
+			c.setName("customer " + i);
+			long id = store.addCustomer(c).getId();
+			Order o = new Order();
+			o.setDescription("order of customer " + i);
+			long orderId = store.addOrder(id, o).getId();
+			store.addOrderProduct(id, orderId, firstProduct + i % PRODUCTS);
+			store.addOrderProduct(id, orderId, firstProduct + (i + 1) % PRODUCTS);
+		}
+		return store;
+	}
+
+	private static long usedHeap() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+		}
+		return used;
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.MediaType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.EntityStore;
+import jelena.eshopping.IdempotencyCache;
+
+/**
+ * Benchmarks what an Idempotency-Key adds to a POST of a customer: addCustomer runs the write alone, addCustomerWithKey
+ * claims a new key before it and stores a 64 byte answer under the key after it, and replay looks up one of the keys
+ * stored during setup, as a retry does. The cache has the default 16 MB and is filled with KEYS keys, so claims also
+ * evict. Serializing the answer is left out, as the POST serializes it either way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdempotencyBenchmark {
+
+	static final int KEYS = 50000;
+	static final byte[] BODY = "{\"id\":124,\"name\":\"benchmark customer\",\"orders\":[],\"version\":0}"
+			.getBytes(StandardCharsets.UTF_8);
+
+	EntityStore store;
+	IdempotencyCache cache;
+	AtomicLong nextKey = new AtomicLong();
+
+	@Setup
+	public void setUp() {
+		store = new EntityStore();
+		cache = new IdempotencyCache(16 << 20, 86400);
+		for (int i = 0; i < KEYS; i++) {
+			String key = key(i);
+			cache.claim(key);
+			cache.complete(key, 200, MediaType.APPLICATION_JSON_TYPE, BODY);
+		}
+		nextKey.set(KEYS);
+	}
+
+	@Benchmark
+	public Customer addCustomer() {
+		Customer c = new Customer();
+		c.setName("benchmark customer");
+		return store.addCustomer(c);
+	}
+
+	@Benchmark
+	public Customer addCustomerWithKey() {
+		String key = key(nextKey.getAndIncrement());
+		if (cache.claim(key) != null) {
+			return null;
+		}
+		Customer c = new Customer();
+		c.setName("benchmark customer");
+		store.addCustomer(c);
+		cache.complete(key, 200, MediaType.APPLICATION_JSON_TYPE, BODY);
+		return c;
+	}
+
+	@Benchmark
+	public IdempotencyCache.Entry replay() {
+		return cache.claim(key(ThreadLocalRandom.current().nextInt(KEYS)));
+	}
+
+	private static String key(long i) {
+		return "/customers/ 7f6c1a1e-5b7d-4c1a-9d3e-" + i;
+	}
+}
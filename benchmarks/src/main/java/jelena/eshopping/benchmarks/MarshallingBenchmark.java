@@ -0,0 +1,156 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.Order;
+import jelena.eshopping.OrderLine;
+import jelena.eshopping.Product;
+
+/**
+ * Benchmarks the Jackson and JAXB marshalling of the entities, configured the way JacksonJsonProvider and the CXF
+ * JAXB provider use them. The lines parameter is the number of orders on the customer and of lines on each order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarshallingBenchmark {
+
+	@Param({ "1", "10", "100" })
+	int lines;
+
+	ObjectMapper mapper;
+	Marshaller marshaller;
+	Unmarshaller unmarshaller;
+	ByteArrayOutputStream out;
+
+	Customer customer;
+	Order order;
+	Product product;
+	byte[] customerJson;
+	byte[] customerXml;
+
+	@Setup
+	public void setUp() throws Exception {
+		mapper = new ObjectMapper();
+		JAXBContext context = JAXBContext.newInstance(Customer.class, Order.class, OrderLine.class, Product.class);
+		marshaller = context.createMarshaller();
+		unmarshaller = context.createUnmarshaller();
+		out = new ByteArrayOutputStream(64 * 1024);
+
+		customer = new Customer();
+		customer.setId(123);
+		customer.setName("Jelena Katusic");
+		for (int i = 0; i < lines; i++) {
+			Order o = new Order();
+			o.setId(223 + i);
+			o.setDescription("order " + i);
+			for (int j = 0; j < lines; j++) {
+				Product p = new Product();
+				p.setId(323 + j);
+				p.setPrice(1000 + j);
+				o.addProduct(p);
+				product = p;
+			}
+			customer.addOrder(o);
+			order = o;
+		}
+
+		customerJson = mapper.writeValueAsBytes(customer);
+		out.reset();
+		marshaller.marshal(customer, out);
+		customerXml = out.toByteArray();
+	}
+
+	@Benchmark
+	public int jacksonWriteCustomer() throws IOException {
+		return jackson(customer);
+	}
+
+	@Benchmark
+	public int jacksonWriteOrder() throws IOException {
+		return jackson(order);
+	}
+
+	@Benchmark
+	public int jacksonWriteProduct() throws IOException {
+		return jackson(product);
+	}
+
+	@Benchmark
+	public Customer jacksonReadCustomer() throws IOException {
+		return mapper.readValue(customerJson, Customer.class);
+	}
+
+	@Benchmark
+	public int jaxbWriteCustomer() throws JAXBException {
+		return jaxb(customer);
+	}
+
+	@Benchmark
+	public int jaxbWriteOrder() throws JAXBException {
+		return jaxb(order);
+	}
+
+	@Benchmark
+	public int jaxbWriteProduct() throws JAXBException {
+		return jaxb(product);
+	}
+
+	@Benchmark
+	public Object jaxbReadCustomer() throws JAXBException {
+		return unmarshaller.unmarshal(new ByteArrayInputStream(customerXml));
+	}
+
+	private int jackson(Object value) throws IOException {
+		out.reset();
+		mapper.writeValue(out, value);
+		return out.size();
+	}
+
+	private int jaxb(Object value) throws JAXBException {
+		out.reset();
+		marshaller.marshal(value, out);
+		return out.size();
+	}
+}
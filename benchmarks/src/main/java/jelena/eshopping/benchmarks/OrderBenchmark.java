@@ -0,0 +1,90 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jelena.eshopping.Order;
+import jelena.eshopping.Product;
+
+/**
+ * Benchmarks Order.addProduct and Order.deleteProduct on an order holding a line for each of the given number of
+ * products. Adding a product that is already on the order raises the quantity of its line.
+ * Every thread works on its own order, as it would under the customer lock in EntityStore.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderBenchmark {
+
+	@Param({ "1000", "100000", "1000000", "10000000" })
+	int size;
+
+	Order order;
+	Product[] products;
+	int next;
+
+	@Setup
+	public void setUp() {
+		order = new Order();
+		products = new Product[size];
+		for (int i = 0; i < size; i++) {
+			Product p = new Product();
+			p.setId(i);
+			p.setPrice(100 + i % 1000);
+			products[i] = p;
+			order.addProduct(p);
+		}
+	}
+
+	@Benchmark
+	public long addProduct() {
+		order.addProduct(nextProduct());
+		return order.getTotal();
+	}
+
+	/**
+	 * Deletes a product and adds it back, so the order keeps its size.
+	 */
+	@Benchmark
+	public long deleteProduct() {
+		Product p = nextProduct();
+		order.deleteProduct(p.getId());
+		order.addProduct(p);
+		return order.getTotal();
+	}
+
+	private Product nextProduct() {
+		Product p = products[next];
+		next = next + 1 == products.length ? 0 : next + 1;
+		return p;
+	}
+}
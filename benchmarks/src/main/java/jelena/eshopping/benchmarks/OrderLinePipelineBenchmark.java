@@ -0,0 +1,150 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.EntityStore;
+import jelena.eshopping.Order;
+import jelena.eshopping.OrderLineOperation;
+import jelena.eshopping.OrderLinePipeline;
+import jelena.eshopping.Product;
+import jelena.eshopping.journal.FsyncPolicy;
+import jelena.eshopping.journal.Journal;
+
+/**
+ * Benchmarks order line writes from 32 request threads at once, each waiting until its write is durable, with the
+ * journal in GROUP mode. direct calls EntityStore.addOrderProduct on the request thread, as the one-at-a-time path
+ * does; pipelined hands the write to an OrderLinePipeline and waits for its completion. Nine in ten writes go to one
+ * of 16 hot customers. Run with -bm sample for the latency percentiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class OrderLinePipelineBenchmark {
+
+	static final int CUSTOMERS = 10000;
+	static final int HOT = 16;
+
+	@Param({ "256" })
+	int batchSize;
+
+	@Param({ "0", "100" })
+	long lingerMicros;
+
+	EntityStore store;
+	Journal journal;
+	OrderLinePipeline pipeline;
+	File directory;
+	long firstCustomerId;
+	long firstOrderId;
+	long productId;
+
+	@Setup
+	public void setUp() throws IOException {
+		store = new EntityStore();
+		Product p = new Product();
+		p.setPrice(100);
+		productId = store.addProduct(p).getId();
+		for (int i = 0; i < CUSTOMERS; i++) {
+			Customer c = new Customer();
+			c.setName("customer " + i);
+			store.addCustomer(c);
+			Order o = store.addOrder(c.getId(), new Order());
+			if (i == 0) {
+				firstCustomerId = c.getId();
+				firstOrderId = o.getId();
+			}
+		}
+		directory = File.createTempFile("ebasket-journal", "");
+		directory.delete();
+		journal = new Journal(store);
+		journal.setDirectory(directory.getPath());
+		journal.setFsyncPolicy(FsyncPolicy.GROUP);
+		journal.open();
+		pipeline = new OrderLinePipeline(store);
+		pipeline.setEnabled(true);
+		pipeline.setBatchSize(batchSize);
+		pipeline.setLingerMicros(lingerMicros);
+		pipeline.start();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		pipeline.close();
+		journal.close();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public boolean direct() {
+		int customer = nextCustomer();
+		return store.addOrderProduct(firstCustomerId + customer, firstOrderId + customer, productId);
+	}
+
+	@Benchmark
+	public boolean pipelined() throws InterruptedException {
+		int customer = nextCustomer();
+		OrderLineOperation op = new OrderLineOperation();
+		op.setCustomerId(firstCustomerId + customer);
+		op.setOrderId(firstOrderId + customer);
+		op.setProductId(productId);
+		final CountDownLatch done = new CountDownLatch(1);
+		final boolean[] applied = new boolean[1];
+		pipeline.submit(op, null, new OrderLinePipeline.Completion() {
+			public void complete(boolean ok, RuntimeException error) {
+				applied[0] = ok;
+				done.countDown();
+			}
+		});
+		done.await();
+		return applied[0];
+	}
+
+	private static int nextCustomer() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return random.nextInt(10) == 0 ? random.nextInt(CUSTOMERS) : random.nextInt(HOT);
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.CustomerSpend;
+import jelena.eshopping.EntityStore;
+import jelena.eshopping.Order;
+import jelena.eshopping.Product;
+
+/**
+ * Benchmarks the queries by amount. ordersByTotal asks the index of order totals for the first 100 orders in a band of
+ * totals and topCustomers asks the index of customer spend for the 100 customers that spent most; the scan variants
+ * answer the same by walking every customer, as a client had to before. The orders parameter is the number of
+ * customers, each with one order of one to five random products. addAndDeleteOrderProduct measures what keeping the
+ * indexes costs a write, on a store of 10,000 customers with indexed queries on or off.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QueryBenchmark {
+
+	static final int PRODUCTS = 100;
+	static final int LIMIT = 100;
+
+	@Param({ "10000", "1000000" })
+	int orders;
+
+	EntityStore store;
+	long min;
+	long max;
+
+	@Setup
+	public void setUp() {
+		store = new EntityStore();
+		fill(store, orders);
+		// a band holding about one in a hundred orders
+		min = 10000;
+		max = 10200;
+	}
+
+	@Benchmark
+	public List<Order> ordersByTotal() {
+		return store.getOrdersByTotal(min, max, LIMIT, false);
+	}
+
+	@Benchmark
+	public List<Order> ordersByTotalScan() {
+		List<Order> found = new ArrayList<Order>();
+		for (Customer c : store.getCustomers()) {
+			for (Order o : c.getOrders()) {
+				if (o.getTotal() >= min && o.getTotal() <= max) {
+					found.add(o);
+				}
+			}
+		}
+		Collections.sort(found, new Comparator<Order>() {
+			public int compare(Order a, Order b) {
+				int c = Long.compare(a.getTotal(), b.getTotal());
+				return c != 0 ? c : Long.compare(a.getId(), b.getId());
+			}
+		});
+		return found.size() > LIMIT ? found.subList(0, LIMIT) : found;
+	}
+
+	@Benchmark
+	public List<CustomerSpend> topCustomers() {
+		return store.getTopCustomers(LIMIT);
+	}
+
+	@Benchmark
+	public List<CustomerSpend> topCustomersScan() {
+		PriorityQueue<CustomerSpend> top = new PriorityQueue<CustomerSpend>(LIMIT + 1, new Comparator<CustomerSpend>() {
+			public int compare(CustomerSpend a, CustomerSpend b) {
+				return Long.compare(a.getSpend(), b.getSpend());
+			}
+		});
+		for (Customer c : store.getCustomers()) {
+			long spend = 0;
+			for (Order o : c.getOrders()) {
+				spend += o.getTotal();
+			}
+			if (top.size() < LIMIT || spend > top.peek().getSpend()) {
+				top.add(new CustomerSpend(c, spend));
+				if (top.size() > LIMIT) {
+					top.poll();
+				}
+			}
+		}
+		List<CustomerSpend> sorted = new ArrayList<CustomerSpend>(top);
+		Collections.sort(sorted, Collections.reverseOrder(top.comparator()));
+		return sorted;
+	}
+
+	@Benchmark
+	public boolean addAndDeleteOrderProduct(Writes writes) {
+		return writes.store.addOrderProduct(writes.customerId, writes.orderId, writes.productId)
+				& writes.store.deleteOrderProduct(writes.customerId, writes.orderId, writes.productId);
+	}
+
+	@State(Scope.Benchmark)
+	public static class Writes {
+
+		@Param({ "true", "false" })
+		boolean indexed;
+
+		EntityStore store;
+		long customerId;
+		long orderId;
+		long productId;
+
+		@Setup
+		public void setUp() {
+			store = new EntityStore();
+			store.setIndexedQueries(indexed);
+			fill(store, 10000);
+			Customer c = store.getCustomers(0).next();
+			customerId = c.getId();
+			orderId = c.getOrders().get(0).getId();
+			productId = store.getProducts(0).next().getId();
+		}
+	}
+
+	static void fill(EntityStore store, int orders) {
+		Random random = new Random(42);
+		long[] products = new long[PRODUCTS];
+		for (int i = 0; i < PRODUCTS; i++) {
+			Product p = new Product();
+			p.setPrice(100 + random.nextInt(10000));
+			products[i] = store.addProduct(p).getId();
+		}
+		for (int i = 0; i < orders; i++) {
+			Customer c = new Customer();
+			c.setName("customer " + i);
+			store.addCustomer(c);
+			Order o = store.addOrder(c.getId(), new Order());
+			for (int n = 1 + random.nextInt(5); n > 0; n--) {
+				store.addOrderProduct(c.getId(), o.getId(), products[random.nextInt(PRODUCTS)]);
+			}
+		}
+	}
+}
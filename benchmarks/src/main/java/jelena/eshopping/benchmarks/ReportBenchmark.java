@@ -0,0 +1,106 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.EntityStore;
+import jelena.eshopping.Order;
+import jelena.eshopping.OrderLine;
+import jelena.eshopping.Product;
+import jelena.eshopping.Reports;
+
+/**
+ * Benchmarks computing a sales report from scratch. The orders parameter is the number of orders, ten per customer
+ * with two lines each out of 10,000 products, and parallelism the number of threads computing the report, 0 for the
+ * common pool, which has one thread per core. The store takes about 80 bytes of heap per order, so 10M orders fit the
+ * default heap of the fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReportBenchmark {
+
+	static final int PRODUCTS = 10000;
+	static final int ORDERS_PER_CUSTOMER = 10;
+
+	@Param({ "1000000", "10000000" })
+	int orders;
+
+	@Param({ "1", "4", "0" })
+	int parallelism;
+
+	Reports reports;
+
+	@Setup
+	public void setUp() {
+		EntityStore store = new EntityStore();
+		Random random = new Random(42);
+		long[] products = new long[PRODUCTS];
+		for (int i = 0; i < PRODUCTS; i++) {
+			Product p = new Product();
+			p.setPrice(100 + random.nextInt(10000));
+			products[i] = store.addProduct(p).getId();
+		}
+		List<Customer> batch = new ArrayList<Customer>();
+		for (int i = 0; i < orders / ORDERS_PER_CUSTOMER; i++) {
+			Customer c = new Customer();
+			c.setName("customer " + i);
+			List<Order> list = new ArrayList<Order>(ORDERS_PER_CUSTOMER);
+			for (int n = 0; n < ORDERS_PER_CUSTOMER; n++) {
+				Order o = new Order();
+				List<OrderLine> lines = new ArrayList<OrderLine>(2);
+				lines.add(new OrderLine(products[random.nextInt(PRODUCTS / 2)], 1 + random.nextInt(3), 0));
+				lines.add(new OrderLine(products[PRODUCTS / 2 + random.nextInt(PRODUCTS / 2)], 1, 0));
+				o.setLines(lines);
+				list.add(o);
+			}
+			c.setOrders(list);
+			batch.add(c);
+			if (batch.size() == 1000) {
+				store.addCustomers(batch);
+				batch.clear();
+			}
+		}
+		store.addCustomers(batch);
+		reports = new Reports(store);
+		reports.setParallelism(parallelism);
+	}
+
+	@Benchmark
+	public Reports.Report compute() {
+		return reports.compute();
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.EntityStore;
+import jelena.eshopping.Order;
+import jelena.eshopping.Product;
+
+/**
+ * Benchmarks a change of price of a product that one in ten orders has a line for. updatePrice goes through
+ * EntityStore.updateProduct, which reprices the orders the index knows of; repriceAll walks every order the way a
+ * store without the index would have to. The orders parameter is the number of customers, each with one order, and
+ * parallelism the number of threads repricing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RepricingBenchmark {
+
+	@Param({ "10000", "1000000" })
+	int orders;
+
+	@Param({ "1", "4" })
+	int parallelism;
+
+	EntityStore store;
+	Product hot;
+	long price;
+
+	@Setup
+	public void setUp() {
+		store = new EntityStore();
+		store.setRepricingParallelism(parallelism);
+		Product filler = new Product();
+		filler.setPrice(100);
+		store.addProduct(filler);
+		hot = new Product();
+		hot.setPrice(1000);
+		store.addProduct(hot);
+		price = hot.getPrice();
+		for (int i = 0; i < orders; i++) {
+			Customer c = new Customer();
+			c.setName("customer " + i);
+			store.addCustomer(c);
+			Order o = store.addOrder(c.getId(), new Order());
+			store.addOrderProduct(c.getId(), o.getId(), filler.getId());
+			if (i % 10 == 0) {
+				store.addOrderProduct(c.getId(), o.getId(), hot.getId());
+			}
+		}
+	}
+
+	@Benchmark
+	public boolean updatePrice() {
+		Product p = new Product();
+		p.setId(hot.getId());
+		p.setPrice(++price);
+		return store.updateProduct(p);
+	}
+
+	@Benchmark
+	public int repriceAll() {
+		Product p = new Product();
+		p.setId(hot.getId());
+		p.setPrice(++price);
+		store.putProduct(p);
+		return store.repriceAll();
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.Response;
+
+import org.apache.cxf.jaxrs.impl.ResponseImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.CustomerService;
+import jelena.eshopping.EntityStore;
+import jelena.eshopping.Order;
+import jelena.eshopping.Product;
+import jelena.eshopping.ResponseCache;
+
+/**
+ * Benchmarks a GET of a customer as JSON with and without the ResponseCache, including the writing of the body that
+ * CXF does after the resource method returns: a cached body is copied as it is, anything else is written by
+ * JacksonJsonProvider. The entity is taken with getActualEntity, as getEntity needs more of CXF than the benchmarks jar
+ * carries. The lines parameter is the number of orders of every customer and of products on each order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseCacheBenchmark {
+
+	static final int CUSTOMERS = 100;
+	static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+	@Param({ "false", "true" })
+	boolean cached;
+
+	@Param({ "1", "10", "100" })
+	int lines;
+
+	CustomerService service;
+	JacksonJsonProvider provider;
+	ByteArrayOutputStream out;
+	long firstCustomerId;
+
+	@Setup
+	public void setUp() {
+		EntityStore store = new EntityStore();
+		service = new CustomerService(store);
+		service.setMessageContext(BenchmarkSupport.messageContext(MediaType.APPLICATION_JSON_TYPE));
+		if (cached) {
+			service.setResponseCache(new ResponseCache(256L << 20));
+		}
+		provider = new JacksonJsonProvider();
+		out = new ByteArrayOutputStream(64 * 1024);
+		long firstProductId = 0;
+		for (int i = 0; i < lines; i++) {
+			Product p = new Product();
+			p.setPrice(100 + i);
+			long id = store.addProduct(p).getId();
+			firstProductId = i == 0 ? id : firstProductId;
+		}
+		for (int i = 0; i < CUSTOMERS; i++) {
+			Customer c = new Customer();
+			c.setName("customer " + i);
+			long id = store.addCustomer(c).getId();
+			firstCustomerId = i == 0 ? id : firstCustomerId;
+			for (int j = 0; j < lines; j++) {
+				Order o = new Order();
+				o.setDescription("order " + j + " of customer " + i);
+				long orderId = store.addOrder(id, o).getId();
+				for (int k = 0; k < lines; k++) {
+					store.addOrderProduct(id, orderId, firstProductId + k);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public int getCustomer() throws IOException {
+		long id = firstCustomerId + ThreadLocalRandom.current().nextInt(CUSTOMERS);
+		Response r = service.getCustomer(Long.toString(id));
+		out.reset();
+		Object entity = ((ResponseImpl) r).getActualEntity();
+		if (entity instanceof byte[]) {
+			out.write((byte[]) entity);
+		} else {
+			provider.writeTo(entity, Customer.class, Customer.class, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE,
+					new MultivaluedHashMap<String, Object>(), out);
+		}
+		return out.size();
+	}
+}
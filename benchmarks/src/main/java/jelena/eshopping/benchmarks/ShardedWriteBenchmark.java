@@ -0,0 +1,142 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.EntityStore;
+import jelena.eshopping.Order;
+import jelena.eshopping.Product;
+import jelena.eshopping.RequestExecutor;
+import jelena.eshopping.journal.FsyncPolicy;
+import jelena.eshopping.journal.Journal;
+
+/**
+ * Benchmarks order line writes through the RequestExecutor, on a pool of threads sharing the customer locks and on
+ * single writer shards, with the journal in GROUP mode. Nine in ten writes go to one of 64 hot customers, the rest to
+ * one of 10000. The writers parameter is the number of pool threads or of shards; one invocation submits WRITES
+ * writes and waits until all of them are durable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardedWriteBenchmark {
+
+	static final int WRITES = 1000;
+	static final int CUSTOMERS = 10000;
+	static final int HOT = 64;
+
+	@Param({ "pool", "sharded" })
+	String executorType;
+
+	@Param({ "1", "2", "4", "8" })
+	int writers;
+
+	EntityStore store;
+	Journal journal;
+	RequestExecutor executor;
+	File directory;
+	long firstCustomerId;
+	long firstOrderId;
+	long productId;
+
+	@Setup
+	public void setUp() throws IOException {
+		store = new EntityStore();
+		Product p = new Product();
+		p.setPrice(100);
+		productId = store.addProduct(p).getId();
+		for (int i = 0; i < CUSTOMERS; i++) {
+			Customer c = new Customer();
+			c.setName("customer " + i);
+			store.addCustomer(c);
+			Order o = store.addOrder(c.getId(), new Order());
+			if (i == 0) {
+				firstCustomerId = c.getId();
+				firstOrderId = o.getId();
+			}
+		}
+		directory = File.createTempFile("ebasket-journal", "");
+		directory.delete();
+		journal = new Journal(store);
+		journal.setDirectory(directory.getPath());
+		journal.setFsyncPolicy(FsyncPolicy.GROUP);
+		journal.open();
+		executor = new RequestExecutor();
+		executor.setType(executorType);
+		executor.setThreads(writers);
+		executor.setShards(writers);
+		executor.setEntityStore(store);
+		executor.start();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		executor.close();
+		journal.close();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WRITES)
+	public void addOrderProduct() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(WRITES);
+		final RequestExecutor.Completion countDown = new RequestExecutor.Completion() {
+			public void complete(RuntimeException failure) {
+				done.countDown();
+			}
+		};
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < WRITES; i++) {
+			final int customer = random.nextInt(10) == 0 ? random.nextInt(CUSTOMERS) : random.nextInt(HOT);
+			executor.execute(firstCustomerId + customer, new Runnable() {
+				public void run() {
+					store.addOrderProduct(firstCustomerId + customer, firstOrderId + customer, productId);
+					RequestExecutor.whenDurable(countDown);
+				}
+			});
+		}
+		done.await();
+	}
+}
@@ -0,0 +1,218 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cxf.endpoint.Server;
+import org.apache.cxf.jaxrs.JAXRSServerFactoryBean;
+import org.apache.cxf.jaxrs.lifecycle.SingletonResourceProvider;
+import org.apache.cxf.transport.http_jetty.JettyHTTPServerEngineFactory;
+import org.apache.cxf.transport.http_jetty.ThreadingParameters;
+
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.CustomerService;
+import jelena.eshopping.EntityStore;
+import jelena.eshopping.Metrics;
+import jelena.eshopping.MetricsFilter;
+import jelena.eshopping.Order;
+import jelena.eshopping.OrderLinePipeline;
+import jelena.eshopping.Product;
+import jelena.eshopping.RequestExecutor;
+import jelena.eshopping.ResponseCache;
+import jelena.eshopping.journal.FsyncPolicy;
+import jelena.eshopping.journal.Journal;
+
+/**
+ * The CustomerService on a Jetty engine of its own, wired as blueprint.xml does with its default settings: a heap
+ * store with the indexed queries, the journal with group commit, the response cache, the metrics filter and the
+ * pool executor. The access log, the change feed and the demo data are left out.
+ * <p/>
+ * The store is filled before the first request: every customer has one empty order, and a tenth as many customers
+ * without orders are kept apart for the updates, which replace a customer with all its orders.
+ */
+final class EmbeddedServer {
+
+	static final String PATH = "/cxf/crm";
+
+	private final int port;
+	private final int jettyThreads;
+	private final String executorType;
+	private final boolean pipelined;
+	private final File journalDirectory;
+
+	private EntityStore store;
+	private Journal journal;
+	private RequestExecutor executor;
+	private OrderLinePipeline pipeline;
+	private Server server;
+
+	private long[] customerIds;
+	private long[] orderIds;
+	private long[] profileIds;
+	private long[] productIds;
+
+	/**
+	 * @param journalDirectory
+	 *            the directory of the journal, which is emptied first, or null to run without one
+	 */
+	EmbeddedServer(int port, int jettyThreads, String executorType, boolean pipelined, File journalDirectory) {
+		this.port = port;
+		this.jettyThreads = jettyThreads;
+		this.executorType = executorType;
+		this.pipelined = pipelined;
+		this.journalDirectory = journalDirectory;
+	}
+
+	void start(int customers, int products) throws IOException, GeneralSecurityException {
+		store = new EntityStore();
+		store.setIndexedQueries(true);
+		journal = new Journal(store);
+		journal.setEnabled(journalDirectory != null);
+		if (journalDirectory != null) {
+			delete(journalDirectory);
+			journal.setDirectory(journalDirectory.getPath());
+			journal.setFsyncPolicy(FsyncPolicy.GROUP);
+			journal.setSnapshotThresholdBytes(256L << 20);
+		}
+		journal.open();
+		populate(customers, products);
+
+		CustomerService service = new CustomerService(store);
+		service.setResponseCache(new ResponseCache(64L << 20));
+		executor = new RequestExecutor();
+		executor.setType(executorType);
+		executor.setEntityStore(store);
+		executor.start();
+		service.setRequestExecutor(executor);
+		pipeline = new OrderLinePipeline(store);
+		pipeline.setEnabled(pipelined);
+		pipeline.start();
+		service.setOrderLinePipeline(pipeline);
+		Metrics metrics = new Metrics(store);
+		service.setMetrics(metrics);
+
+		ThreadingParameters threading = new ThreadingParameters();
+		threading.setMinThreads(Math.min(16, jettyThreads));
+		threading.setMaxThreads(jettyThreads);
+		new JettyHTTPServerEngineFactory().createJettyHTTPServerEngine(port, "http").setThreadingParameters(threading);
+
+		JAXRSServerFactoryBean factory = new JAXRSServerFactoryBean();
+		factory.setResourceClasses(CustomerService.class);
+		factory.setResourceProvider(CustomerService.class, new SingletonResourceProvider(service));
+		List<Object> providers = new ArrayList<Object>();
+		providers.add(new JacksonJsonProvider());
+		providers.add(new MetricsFilter(metrics));
+		factory.setProviders(providers);
+		factory.setAddress("http://localhost:" + port + PATH);
+		server = factory.create();
+	}
+
+	void stop() throws InterruptedException {
+		if (server != null) {
+			server.destroy();
+		}
+		if (pipeline != null) {
+			pipeline.close();
+		}
+		if (executor != null) {
+			executor.close();
+		}
+		if (journal != null) {
+			journal.close();
+		}
+	}
+
+	String getAddress() {
+		return "http://localhost:" + port + PATH + "/customerservice";
+	}
+
+	/**
+	 * @return the ids of the customers with an order, the order of customerIds[i] is orderIds[i]
+	 */
+	long[] getCustomerIds() {
+		return customerIds;
+	}
+
+	long[] getOrderIds() {
+		return orderIds;
+	}
+
+	/**
+	 * @return the ids of the customers without orders
+	 */
+	long[] getProfileIds() {
+		return profileIds;
+	}
+
+	long[] getProductIds() {
+		return productIds;
+	}
+
+	private void populate(int customers, int products) {
+		customerIds = new long[customers];
+		orderIds = new long[customers];
+		profileIds = new long[Math.max(1, customers / 10)];
+		productIds = new long[products];
+		EntityStore.deferDurability(true);
+		try {
+			for (int i = 0; i < products; i++) {
+				Product p = new Product();
+				p.setPrice(100 + i % 1000);
+				store.addProduct(p);
+				productIds[i] = p.getId();
+			}
+			for (int i = 0; i < customers; i++) {
+				Customer c = new Customer();
+				c.setName("customer " + i);
+				Order o = new Order();
+				o.setDescription("order of customer " + i);
+				c.setOrders(Collections.singletonList(o));
+				store.addCustomer(c);
+				customerIds[i] = c.getId();
+				orderIds[i] = c.getOrders().get(0).getId();
+			}
+			for (int i = 0; i < profileIds.length; i++) {
+				Customer c = new Customer();
+				c.setName("profile " + i);
+				store.addCustomer(c);
+				profileIds[i] = c.getId();
+			}
+		} finally {
+			store.awaitDurable(EntityStore.takeDeferredDurability());
+			EntityStore.deferDurability(false);
+		}
+	}
+
+	private static void delete(File file) throws IOException {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot delete " + file.getAbsolutePath());
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.loadtest;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.sun.management.GcInfo;
+
+/**
+ * Samples the heap and the garbage collectors of this JVM, which runs the server and the clients alike. The live
+ * heap is what the heap held right after the latest collection; rising from one interval to the next in a soak
+ * test, it points at a leak.
+ */
+final class JvmMonitor {
+
+	private final Set<String> heapPools = new HashSet<String>();
+
+	JvmMonitor() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heapPools.add(pool.getName());
+			}
+		}
+	}
+
+	Sample sample() {
+		Sample s = new Sample();
+		s.nanos = System.nanoTime();
+		s.heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		GcInfo latest = null;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			s.collections += Math.max(0, gc.getCollectionCount());
+			s.collectionMillis += Math.max(0, gc.getCollectionTime());
+			GcInfo info = gc instanceof com.sun.management.GarbageCollectorMXBean
+					? ((com.sun.management.GarbageCollectorMXBean) gc).getLastGcInfo()
+					: null;
+			if (info != null && (latest == null || info.getEndTime() > latest.getEndTime())) {
+				latest = info;
+			}
+		}
+		if (latest != null) {
+			for (Map.Entry<String, MemoryUsage> pool : latest.getMemoryUsageAfterGc().entrySet()) {
+				if (heapPools.contains(pool.getKey())) {
+					s.heapLive += pool.getValue().getUsed();
+				}
+			}
+		}
+		return s;
+	}
+
+	static final class Sample {
+		long nanos;
+		long heapUsed;
+		long heapLive;
+		long collections;
+		long collectionMillis;
+
+		/**
+		 * @return the share of the time since the earlier sample spent collecting garbage
+		 */
+		double gcShare(Sample earlier) {
+			long elapsedMillis = (nanos - earlier.nanos) / 1000000;
+			return elapsedMillis <= 0 ? 0 : (double) (collectionMillis - earlier.collectionMillis) / elapsedMillis;
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.loadtest;
+
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.apache.cxf.jaxrs.client.WebClient;
+import org.apache.cxf.transport.http.HTTPConduit;
+import org.apache.cxf.transports.http.configuration.HTTPClientPolicy;
+
+/**
+ * Sends calls at a fixed rate, whether or not the earlier ones have been answered (an open loop). One scheduler
+ * thread works out when every call is due, evenly spaced or as a Poisson process, and hands it to a pool of client
+ * threads with a CXF WebClient each; a call waiting for a free client thread keeps its due time, so a stalled
+ * server shows in the latencies instead of slowing the load down. Calls beyond maxBacklog waiting are dropped and
+ * counted as failed rather than queued without limit.
+ */
+final class LoadGenerator {
+
+	private final String address;
+	private final Workload workload;
+	private final Mix mix;
+	private final double rate;
+	private final boolean poisson;
+	private final int maxBacklog;
+	private final long timeoutMillis;
+	private final Random random;
+	private final ThreadPoolExecutor clients;
+	private final AtomicInteger backlog = new AtomicInteger();
+	private final ThreadLocal<WebClient> webClient = new ThreadLocal<WebClient>();
+
+	private volatile Stats total = new Stats();
+	private volatile Stats interval = new Stats();
+	private volatile boolean running;
+	private Thread scheduler;
+
+	/**
+	 * @param rate
+	 *            the calls per second
+	 * @param poisson
+	 *            true for exponentially distributed gaps between the calls, false for even ones
+	 * @param threads
+	 *            the client threads, which bound the calls in flight
+	 */
+	LoadGenerator(String address, Workload workload, Mix mix, double rate, boolean poisson, int threads,
+			int maxBacklog, long timeoutMillis, long seed) {
+		this.address = address;
+		this.workload = workload;
+		this.mix = mix;
+		this.rate = rate;
+		this.poisson = poisson;
+		this.maxBacklog = maxBacklog;
+		this.timeoutMillis = timeoutMillis;
+		this.random = new Random(seed);
+		clients = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "loadtest-client-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		clients.prestartAllCoreThreads();
+	}
+
+	void start() {
+		running = true;
+		scheduler = new Thread(new Runnable() {
+			public void run() {
+				schedule();
+			}
+		}, "loadtest-scheduler");
+		scheduler.setDaemon(true);
+		scheduler.start();
+	}
+
+	/**
+	 * Stops sending and waits for the calls sent to be answered.
+	 *
+	 * @return the stats since the last reset
+	 */
+	Stats stop() throws InterruptedException {
+		running = false;
+		if (scheduler != null) {
+			scheduler.join();
+		}
+		clients.shutdown();
+		clients.awaitTermination(timeoutMillis + 1000, TimeUnit.MILLISECONDS);
+		return total;
+	}
+
+	/**
+	 * Starts counting anew, e.g. at the end of the warm-up; calls due before are left out of the new totals.
+	 *
+	 * @return the stats counted so far
+	 */
+	Stats reset() {
+		Stats before = total;
+		interval = new Stats();
+		total = new Stats();
+		return before;
+	}
+
+	/**
+	 * @return the stats since the last call, or the last reset
+	 */
+	Stats takeInterval() {
+		Stats before = interval;
+		interval = new Stats();
+		return before;
+	}
+
+	/**
+	 * @return the calls that are due but wait for a client thread
+	 */
+	int getBacklog() {
+		return backlog.get();
+	}
+
+	private void schedule() {
+		double gapNanos = 1e9 / rate;
+		long start = System.nanoTime();
+		double due = 0;
+		while (running) {
+			long dueNanos = start + (long) due;
+			long wait = dueNanos - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+				continue;
+			}
+			final Operation operation = mix.next(random);
+			if (backlog.get() >= maxBacklog) {
+				total.dropped(operation);
+				interval.dropped(operation);
+			} else {
+				send(operation, operation.path(workload, random), operation.body(workload, random), dueNanos);
+			}
+			due += poisson ? -Math.log(1 - random.nextDouble()) * gapNanos : gapNanos;
+		}
+	}
+
+	private void send(final Operation operation, final String path, final String body, final long dueNanos) {
+		backlog.incrementAndGet();
+		clients.execute(new Runnable() {
+			public void run() {
+				backlog.decrementAndGet();
+				long sent = System.nanoTime();
+				int status = call(operation.method, path, body);
+				long done = System.nanoTime();
+				Stats t = total;
+				if (dueNanos >= t.startNanos) {
+					t.record(operation, status, dueNanos, sent, done);
+				}
+				interval.record(operation, status, dueNanos, sent, done);
+			}
+		});
+	}
+
+	/**
+	 * @return the HTTP status, or 0 if the call failed without one
+	 */
+	private int call(String method, String path, String body) {
+		try {
+			WebClient client = client();
+			Response response = client.back(true).path(path).invoke(method, body);
+			try {
+				if (response.hasEntity()) {
+					response.readEntity(String.class);
+				}
+				return response.getStatus();
+			} finally {
+				response.close();
+			}
+		} catch (RuntimeException e) {
+			webClient.remove();
+			return 0;
+		}
+	}
+
+	private WebClient client() {
+		WebClient client = webClient.get();
+		if (client == null) {
+			client = WebClient.create(address).type(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON);
+			HTTPClientPolicy policy = new HTTPClientPolicy();
+			policy.setConnectionTimeout(timeoutMillis);
+			policy.setReceiveTimeout(timeoutMillis);
+			HTTPConduit conduit = WebClient.getConfig(client).getHttpConduit();
+			conduit.setClient(policy);
+			webClient.set(client);
+		}
+		return client;
+	}
+}
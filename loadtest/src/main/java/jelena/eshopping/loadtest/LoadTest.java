@@ -0,0 +1,312 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.loadtest;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import jelena.eshopping.Histogram;
+
+/**
+ * Starts the CustomerService on an embedded Jetty, drives it with an open-loop mix of customer, order and order
+ * line calls and reports the throughput, latency percentiles, failures and the heap and GC activity. Everything
+ * runs in this one JVM, so no network or Karaf is needed; the clients take their share of the CPU.
+ * <p/>
+ * Usage: java -jar loadtest.jar [-rate 1000] [-duration 60] [-warmup 10] [-interval 10] [-clients 64]
+ * [-customers 10000] [-products 1000] [-mix getCustomer=30,...] [-arrivals fixed|poisson] [-port 8383]
+ * [-jettyThreads 200] [-executor pool] [-pipelined] [-journal dir|off] [-maxBacklog 100000] [-timeout 30]
+ * [-seed 1] [-results file.json] [-minThroughput calls/s] [-maxP99 ms] [-maxErrorRate share]
+ * <p/>
+ * Times are in seconds unless noted. A line is printed per interval and a table per operation at the end; with
+ * -results the summary is also written as JSON, so that two builds can be compared. If one of the -min/-max limits
+ * is not met the exit status is 1, which lets a build stop on a throughput or latency regression.
+ */
+public final class LoadTest {
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private final PrintStream out = System.out;
+
+	private double rate = 1000;
+	private long duration = 60;
+	private long warmup = 10;
+	private long interval = 10;
+	private int clients = 64;
+	private int customers = 10000;
+	private int products = 1000;
+	private String mix = Mix.DEFAULT;
+	private boolean poisson;
+	private int port = 8383;
+	private int jettyThreads = 200;
+	private String executor = "pool";
+	private boolean pipelined;
+	private String journal = "target/loadtest-journal";
+	private int maxBacklog = 100000;
+	private long timeout = 30;
+	private long seed = 1;
+	private String results;
+	private double minThroughput;
+	private double maxP99;
+	private double maxErrorRate = -1;
+
+	private LoadTest() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadTest test = new LoadTest();
+		test.parse(args);
+		System.exit(test.run() ? 0 : 1);
+	}
+
+	private void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String name = args[i];
+			if ("-pipelined".equals(name)) {
+				pipelined = true;
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("No value for " + name);
+			}
+			String value = args[++i];
+			if ("-rate".equals(name)) {
+				rate = Double.parseDouble(value);
+			} else if ("-duration".equals(name)) {
+				duration = Long.parseLong(value);
+			} else if ("-warmup".equals(name)) {
+				warmup = Long.parseLong(value);
+			} else if ("-interval".equals(name)) {
+				interval = Long.parseLong(value);
+			} else if ("-clients".equals(name)) {
+				clients = Integer.parseInt(value);
+			} else if ("-customers".equals(name)) {
+				customers = Integer.parseInt(value);
+			} else if ("-products".equals(name)) {
+				products = Integer.parseInt(value);
+			} else if ("-mix".equals(name)) {
+				mix = value;
+			} else if ("-arrivals".equals(name)) {
+				if (!"fixed".equals(value) && !"poisson".equals(value)) {
+					throw new IllegalArgumentException("-arrivals is fixed or poisson, not " + value);
+				}
+				poisson = "poisson".equals(value);
+			} else if ("-port".equals(name)) {
+				port = Integer.parseInt(value);
+			} else if ("-jettyThreads".equals(name)) {
+				jettyThreads = Integer.parseInt(value);
+			} else if ("-executor".equals(name)) {
+				executor = value;
+			} else if ("-journal".equals(name)) {
+				journal = value;
+			} else if ("-maxBacklog".equals(name)) {
+				maxBacklog = Integer.parseInt(value);
+			} else if ("-timeout".equals(name)) {
+				timeout = Long.parseLong(value);
+			} else if ("-seed".equals(name)) {
+				seed = Long.parseLong(value);
+			} else if ("-results".equals(name)) {
+				results = value;
+			} else if ("-minThroughput".equals(name)) {
+				minThroughput = Double.parseDouble(value);
+			} else if ("-maxP99".equals(name)) {
+				maxP99 = Double.parseDouble(value);
+			} else if ("-maxErrorRate".equals(name)) {
+				maxErrorRate = Double.parseDouble(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + name);
+			}
+		}
+		if (rate <= 0 || duration <= 0 || interval <= 0 || clients <= 0 || customers <= 0 || products <= 0) {
+			throw new IllegalArgumentException("-rate, -duration, -interval, -clients, -customers and -products "
+					+ "must be positive");
+		}
+	}
+
+	/**
+	 * @return false if a limit was not met
+	 */
+	private boolean run() throws Exception {
+		Mix operations = new Mix(mix);
+		File journalDirectory = "off".equals(journal) ? null : new File(journal);
+		EmbeddedServer server = new EmbeddedServer(port, jettyThreads, executor, pipelined, journalDirectory);
+		long started = System.nanoTime();
+		server.start(customers, products);
+		out.printf(Locale.ROOT, "Started %s with %d customers and %d products in %.1f s%n", server.getAddress(),
+				customers, products, (System.nanoTime() - started) / 1e9);
+		out.printf(Locale.ROOT, "%s calls at %.0f/s (%s), %d clients, warm-up %d s, %d s measured%n", mix, rate,
+				poisson ? "poisson" : "fixed", clients, warmup, duration);
+
+		JvmMonitor jvm = new JvmMonitor();
+		LoadGenerator generator = new LoadGenerator(server.getAddress(), new Workload(server), operations, rate,
+				poisson, clients, maxBacklog, timeout * 1000, seed);
+		generator.start();
+		Thread.sleep(warmup * 1000);
+		generator.reset();
+		JvmMonitor.Sample first = jvm.sample();
+		JvmMonitor.Sample last = first;
+		long maxHeapLive = first.heapLive;
+		long elapsed = 0;
+		while (elapsed < duration) {
+			long next = Math.min(interval, duration - elapsed);
+			Thread.sleep(next * 1000);
+			elapsed += next;
+			Stats s = generator.takeInterval();
+			JvmMonitor.Sample now = jvm.sample();
+			maxHeapLive = Math.max(maxHeapLive, now.heapLive);
+			printInterval(elapsed, s, now, last, generator.getBacklog());
+			last = now;
+		}
+		Stats total = generator.stop();
+		JvmMonitor.Sample after = jvm.sample();
+		double seconds = (after.nanos - total.startNanos) / 1e9;
+		server.stop();
+
+		printSummary(operations, total, seconds);
+		out.printf(Locale.ROOT, "Heap: live %s after the warm-up, %s at the end, at most %s; %d collections taking "
+				+ "%d ms, %.1f%% of the time%n", mb(first.heapLive), mb(after.heapLive), mb(maxHeapLive),
+				after.collections - first.collections, after.collectionMillis - first.collectionMillis,
+				100 * after.gcShare(first));
+		if (results != null) {
+			writeResults(operations, total, seconds, first, after, maxHeapLive);
+		}
+		return check(total.getAll(), seconds);
+	}
+
+	private void printInterval(long elapsed, Stats s, JvmMonitor.Sample now, JvmMonitor.Sample before, int backlog) {
+		Stats.Counts c = s.getAll();
+		double seconds = (now.nanos - before.nanos) / 1e9;
+		out.printf(Locale.ROOT, "%5d s %9.1f calls/s  p50 %8.3f  p99 %8.3f  max %8.3f ms  failed %d  404 %d  "
+				+ "backlog %d  heap %s live %s  gc %d in %d ms%n", elapsed, c.latency.getCount() / seconds,
+				ms(c.latency.valueAt(0.5)), ms(c.latency.valueAt(0.99)), ms(c.latency.getMax()), c.getFailures(),
+				c.notFound.sum(), backlog, mb(now.heapUsed), mb(now.heapLive), now.collections - before.collections,
+				now.collectionMillis - before.collectionMillis);
+	}
+
+	private void printSummary(Mix operations, Stats total, double seconds) {
+		out.println();
+		out.printf(Locale.ROOT, "%-20s %10s %10s %8s %8s %9s %9s %9s %9s %9s %9s%n", "operation", "calls", "calls/s",
+				"failed", "404", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "p99 svc");
+		for (Operation o : operations.getOperations()) {
+			printRow(o.name, total.get(o), seconds);
+		}
+		printRow("all", total.getAll(), seconds);
+		out.println();
+	}
+
+	private void printRow(String name, Stats.Counts c, double seconds) {
+		Histogram h = c.latency;
+		out.printf(Locale.ROOT, "%-20s %10d %10.1f %8d %8d %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n", name,
+				c.getCalls(), h.getCount() / seconds, c.getFailures(), c.notFound.sum(), ms(h.valueAt(0.5)),
+				ms(h.valueAt(0.9)), ms(h.valueAt(0.99)), ms(h.valueAt(0.999)), ms(h.getMax()),
+				ms(c.service.valueAt(0.99)));
+	}
+
+	private boolean check(Stats.Counts all, double seconds) {
+		List<String> failures = new ArrayList<String>();
+		double throughput = all.latency.getCount() / seconds;
+		double p99 = ms(all.latency.valueAt(0.99));
+		double errorRate = all.getCalls() == 0 ? 0 : (double) all.getFailures() / all.getCalls();
+		if (minThroughput > 0 && throughput < minThroughput) {
+			failures.add(String.format(Locale.ROOT, "throughput %.1f/s below %.1f/s", throughput, minThroughput));
+		}
+		if (maxP99 > 0 && p99 > maxP99) {
+			failures.add(String.format(Locale.ROOT, "p99 %.3f ms above %.3f ms", p99, maxP99));
+		}
+		if (maxErrorRate >= 0 && errorRate > maxErrorRate) {
+			failures.add(String.format(Locale.ROOT, "error rate %.5f above %.5f", errorRate, maxErrorRate));
+		}
+		for (String f : failures) {
+			out.println("FAILED: " + f);
+		}
+		return failures.isEmpty();
+	}
+
+	private void writeResults(Mix operations, Stats total, double seconds, JvmMonitor.Sample first,
+			JvmMonitor.Sample after, long maxHeapLive) throws Exception {
+		Map<String, Object> settings = new LinkedHashMap<String, Object>();
+		settings.put("rate", rate);
+		settings.put("arrivals", poisson ? "poisson" : "fixed");
+		settings.put("durationSeconds", duration);
+		settings.put("warmupSeconds", warmup);
+		settings.put("clients", clients);
+		settings.put("customers", customers);
+		settings.put("products", products);
+		settings.put("mix", mix);
+		settings.put("executor", executor);
+		settings.put("pipelined", pipelined);
+		settings.put("journal", !"off".equals(journal));
+		settings.put("processors", Runtime.getRuntime().availableProcessors());
+
+		Map<String, Object> ops = new LinkedHashMap<String, Object>();
+		for (Operation o : operations.getOperations()) {
+			ops.put(o.name, counts(total.get(o), seconds));
+		}
+		ops.put("all", counts(total.getAll(), seconds));
+
+		Map<String, Object> heap = new LinkedHashMap<String, Object>();
+		heap.put("liveBytesAfterWarmup", first.heapLive);
+		heap.put("liveBytesAtEnd", after.heapLive);
+		heap.put("maxLiveBytes", maxHeapLive);
+		heap.put("collections", after.collections - first.collections);
+		heap.put("collectionMillis", after.collectionMillis - first.collectionMillis);
+		heap.put("collectionShare", after.gcShare(first));
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("settings", settings);
+		result.put("seconds", seconds);
+		result.put("operations", ops);
+		result.put("heap", heap);
+		new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(new File(results), result);
+		out.println("Results written to " + results);
+	}
+
+	private static Map<String, Object> counts(Stats.Counts c, double seconds) {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("calls", c.getCalls());
+		m.put("callsPerSecond", c.latency.getCount() / seconds);
+		m.put("failed", c.getFailures());
+		m.put("dropped", c.dropped.sum());
+		m.put("notFound", c.notFound.sum());
+		Map<String, Object> latency = new LinkedHashMap<String, Object>();
+		Map<String, Object> service = new LinkedHashMap<String, Object>();
+		for (double q : QUANTILES) {
+			String key = "p" + String.valueOf(q * 100).replaceAll("\\.0$", "");
+			latency.put(key, ms(c.latency.valueAt(q)));
+			service.put(key, ms(c.service.valueAt(q)));
+		}
+		latency.put("max", ms(c.latency.getMax()));
+		service.put("max", ms(c.service.getMax()));
+		m.put("latencyMillis", latency);
+		m.put("serviceMillis", service);
+		return m;
+	}
+
+	private static double ms(long nanos) {
+		return nanos / 1e6;
+	}
+
+	private static String mb(long bytes) {
+		return (bytes >> 20) + " MB";
+	}
+}
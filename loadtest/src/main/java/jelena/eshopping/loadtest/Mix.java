@@ -0,0 +1,80 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The share of every operation in the load, given as 'getCustomer=30,addOrderProduct=15,...' with weights that need
+ * not add up to 100. Operations left out are not called.
+ */
+final class Mix {
+
+	static final String DEFAULT = "getCustomer=30,getOrder=25,getOrderProducts=10,addOrderProduct=15,"
+			+ "deleteOrderProduct=10,updateCustomer=4,addOrder=3,addCustomer=3";
+
+	private final Operation[] operations;
+	private final double[] cumulative;
+
+	Mix(String spec) {
+		List<Operation> ops = new ArrayList<Operation>();
+		List<Double> weights = new ArrayList<Double>();
+		double total = 0;
+		for (String part : spec.split(",")) {
+			part = part.trim();
+			if (part.isEmpty()) {
+				continue;
+			}
+			int eq = part.indexOf('=');
+			if (eq < 0) {
+				throw new IllegalArgumentException("Expected operation=weight, got " + part);
+			}
+			double weight = Double.parseDouble(part.substring(eq + 1).trim());
+			if (weight < 0) {
+				throw new IllegalArgumentException("Negative weight in " + part);
+			}
+			if (weight > 0) {
+				ops.add(Operation.named(part.substring(0, eq).trim()));
+				total += weight;
+				weights.add(Double.valueOf(total));
+			}
+		}
+		if (ops.isEmpty()) {
+			throw new IllegalArgumentException("No operation in the mix " + spec);
+		}
+		operations = ops.toArray(new Operation[ops.size()]);
+		cumulative = new double[weights.size()];
+		for (int i = 0; i < cumulative.length; i++) {
+			cumulative[i] = weights.get(i).doubleValue() / total;
+		}
+	}
+
+	Operation next(Random random) {
+		double r = random.nextDouble();
+		for (int i = 0; i < cumulative.length - 1; i++) {
+			if (r < cumulative[i]) {
+				return operations[i];
+			}
+		}
+		return operations[operations.length - 1];
+	}
+
+	Operation[] getOperations() {
+		return operations.clone();
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.loadtest;
+
+import java.util.Random;
+
+/**
+ * The calls of the load mix. Each one builds its request from the ids of the populated store; the names are those
+ * of the resource methods, as in the metrics and the access log.
+ */
+enum Operation {
+
+	GET_CUSTOMER("getCustomer", "GET") {
+		String path(Workload w, Random random) {
+			return "/customers/" + w.customer(random) + "/";
+		}
+	},
+	ADD_CUSTOMER("addCustomer", "POST") {
+		String path(Workload w, Random random) {
+			return "/customers/";
+		}
+
+		String body(Workload w, Random random) {
+			return "{\"name\":\"load " + random.nextInt(1000000) + "\"}";
+		}
+	},
+	UPDATE_CUSTOMER("updateCustomer", "PUT") {
+		String path(Workload w, Random random) {
+			return "/customers/";
+		}
+
+		String body(Workload w, Random random) {
+			return "{\"id\":" + w.profile(random) + ",\"name\":\"load " + random.nextInt(1000000) + "\"}";
+		}
+	},
+	GET_ORDER("getOrder", "GET") {
+		String path(Workload w, Random random) {
+			int i = w.order(random);
+			return "/customers/" + w.customerIds[i] + "/orders/" + w.orderIds[i] + "/";
+		}
+	},
+	ADD_ORDER("addOrder", "POST") {
+		String path(Workload w, Random random) {
+			return "/customers/" + w.customer(random) + "/orders/";
+		}
+
+		String body(Workload w, Random random) {
+			return "{\"description\":\"load " + random.nextInt(1000000) + "\"}";
+		}
+	},
+	GET_ORDER_PRODUCTS("getOrderProducts", "GET") {
+		String path(Workload w, Random random) {
+			int i = w.order(random);
+			return "/customers/" + w.customerIds[i] + "/orders/" + w.orderIds[i] + "/products/";
+		}
+	},
+	ADD_ORDER_PRODUCT("addOrderProduct", "PUT") {
+		String path(Workload w, Random random) {
+			int i = w.order(random);
+			int product = w.product(random);
+			w.added(i, product);
+			return "/customers/" + w.customerIds[i] + "/orders/" + w.orderIds[i] + "/products/" + w.productIds[product]
+					+ "/";
+		}
+	},
+	DELETE_ORDER_PRODUCT("deleteOrderProduct", "DELETE") {
+		String path(Workload w, Random random) {
+			long line = w.takeAdded();
+			int i = line < 0 ? w.order(random) : (int) (line >>> 32);
+			int product = line < 0 ? w.product(random) : (int) line;
+			return "/customers/" + w.customerIds[i] + "/orders/" + w.orderIds[i] + "/products/" + w.productIds[product]
+					+ "/";
+		}
+	};
+
+	final String name;
+	final String method;
+
+	Operation(String name, String method) {
+		this.name = name;
+		this.method = method;
+	}
+
+	abstract String path(Workload w, Random random);
+
+	/**
+	 * @return the JSON body of the request, or null if it has none
+	 */
+	String body(Workload w, Random random) {
+		return null;
+	}
+
+	static Operation named(String name) {
+		for (Operation o : values()) {
+			if (o.name.equals(name)) {
+				return o;
+			}
+		}
+		StringBuilder names = new StringBuilder();
+		for (Operation o : values()) {
+			names.append(names.length() == 0 ? "" : ", ").append(o.name);
+		}
+		throw new IllegalArgumentException("Unknown operation " + name + ", expected one of " + names);
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.loadtest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import jelena.eshopping.Histogram;
+
+/**
+ * The outcome of the calls sent in one period, per operation and over all of them. The latency of a call is counted
+ * from the time it was due by the schedule, not from the time it was sent, so that calls held up behind slow ones
+ * count the time they waited (coordinated omission); the service time from sending to the answer is kept apart.
+ */
+final class Stats {
+
+	final long startNanos = System.nanoTime();
+
+	private final Counts[] operations = new Counts[Operation.values().length];
+	private final Counts all = new Counts();
+
+	Stats() {
+		for (int i = 0; i < operations.length; i++) {
+			operations[i] = new Counts();
+		}
+	}
+
+	/**
+	 * @param status
+	 *            the HTTP status of the answer, or 0 if there was none
+	 */
+	void record(Operation operation, int status, long dueNanos, long sentNanos, long doneNanos) {
+		operations[operation.ordinal()].record(status, doneNanos - dueNanos, doneNanos - sentNanos);
+		all.record(status, doneNanos - dueNanos, doneNanos - sentNanos);
+	}
+
+	/**
+	 * Counts a call that was not sent because too many were waiting for a client thread.
+	 */
+	void dropped(Operation operation) {
+		operations[operation.ordinal()].dropped.increment();
+		all.dropped.increment();
+	}
+
+	Counts get(Operation operation) {
+		return operations[operation.ordinal()];
+	}
+
+	Counts getAll() {
+		return all;
+	}
+
+	static final class Counts {
+		/** Nanoseconds from the time the call was due to the answer. */
+		final Histogram latency = new Histogram();
+		/** Nanoseconds from sending the call to the answer. */
+		final Histogram service = new Histogram();
+		final LongAdder ok = new LongAdder();
+		final LongAdder notFound = new LongAdder();
+		final LongAdder errors = new LongAdder();
+		final LongAdder dropped = new LongAdder();
+
+		void record(int status, long latencyNanos, long serviceNanos) {
+			latency.record(latencyNanos);
+			service.record(serviceNanos);
+			if (status >= 200 && status < 300) {
+				ok.increment();
+			} else if (status == 404) {
+				notFound.increment();
+			} else {
+				errors.increment();
+			}
+		}
+
+		long getCalls() {
+			return latency.getCount() + dropped.sum();
+		}
+
+		/**
+		 * @return the failed and dropped calls, 404/Not Found does not count as failed
+		 */
+		long getFailures() {
+			return errors.sum() + dropped.sum();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.loadtest;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * The ids the calls pick from, all uniformly at random, and the order lines added so far that the deletes remove
+ * again. A delete finding no added line picks one at random, which is then mostly answered with 404/Not Found.
+ */
+final class Workload {
+
+	private static final int ADDED_LINES = 65536;
+
+	final long[] customerIds;
+	final long[] orderIds;
+	final long[] profileIds;
+	final long[] productIds;
+
+	private final ArrayBlockingQueue<Long> added = new ArrayBlockingQueue<Long>(ADDED_LINES);
+
+	Workload(EmbeddedServer server) {
+		customerIds = server.getCustomerIds();
+		orderIds = server.getOrderIds();
+		profileIds = server.getProfileIds();
+		productIds = server.getProductIds();
+	}
+
+	long customer(Random random) {
+		return customerIds[random.nextInt(customerIds.length)];
+	}
+
+	long profile(Random random) {
+		return profileIds[random.nextInt(profileIds.length)];
+	}
+
+	/**
+	 * @return the index of an order and of its customer
+	 */
+	int order(Random random) {
+		return random.nextInt(orderIds.length);
+	}
+
+	/**
+	 * @return the index of a product
+	 */
+	int product(Random random) {
+		return random.nextInt(productIds.length);
+	}
+
+	void added(int order, int product) {
+		added.offer(Long.valueOf((long) order << 32 | product));
+	}
+
+	/**
+	 * @return the order index in the upper and the product index in the lower half of an added line, or -1 if
+	 *         there is none
+	 */
+	long takeAdded() {
+		Long line = added.poll();
+		return line == null ? -1 : line.longValue();
+	}
+}
@@ -0,0 +1,302 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The AccessLog class writes one line per logged request to the 'jelena.eshopping.access' logger, from a thread of
+ * its own, so that requests never wait for the log.
+ * <p/>
+ * Requests are sampled per operation: sampleRates gives the share of the requests of an operation to log, as in
+ * "getCustomer=0.001,addOrderProduct=1", and sampleRate that of the others. Requests answered with a 4xx or 5xx
+ * status are always logged. With payloads switched on, the lines also carry the first payloadLimit characters of
+ * the request and response bodies. All of these can be changed while the service runs, through the
+ * 'jelena.eshopping.accesslog' configuration.
+ * <p/>
+ * A logged request takes a slot of a ring buffer of bufferSize entries: request threads claim slots with a
+ * compare-and-set on the tail, the writer frees them by advancing the head, and the sequence number of every slot
+ * tells each side when it may use it. No thread ever blocks on another: when the writer falls behind and the ring is
+ * full, the line is dropped and counted, and the writer reports how many were lost. A line looks like this:
+ * <pre>
+ * ts=2026-10-17T08:26:49.123Z op=getCustomer method="GET" path="customerservice/customers/123" status=200 us=944 in=-1 out=131
+ * </pre>
+ */
+public class AccessLog {
+	private static final Logger LOG = LoggerFactory.getLogger(AccessLog.class);
+	private static final Logger ACCESS = LoggerFactory.getLogger("jelena.eshopping.access");
+
+	private volatile boolean enabled = true;
+	private volatile double sampleRate = 0.01;
+	private volatile Map<String, Double> sampleRates = Collections.emptyMap();
+	private volatile boolean payloads;
+	private volatile int payloadLimit = 4096;
+	private int bufferSize = 8192;
+
+	private Entry[] ring;
+	private AtomicLongArray sequences;
+	private int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+	private final LongAdder dropped = new LongAdder();
+	private volatile Thread writer;
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @param sampleRate the share of requests to log, from 0 to 1, for operations without a rate of their own
+	 */
+	public void setSampleRate(double sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * @param sampleRates rates by operation, as "getCustomer=0.001,addOrderProduct=1"
+	 */
+	public void setSampleRates(String sampleRates) {
+		Map<String, Double> rates = new HashMap<String, Double>();
+		if (sampleRates != null) {
+			for (String rate : sampleRates.split(",")) {
+				int eq = rate.indexOf('=');
+				if (eq > 0) {
+					rates.put(rate.substring(0, eq).trim(), Double.valueOf(rate.substring(eq + 1).trim()));
+				}
+			}
+		}
+		this.sampleRates = rates;
+	}
+
+	public void setPayloads(boolean payloads) {
+		this.payloads = payloads;
+	}
+
+	public boolean isPayloads() {
+		return payloads;
+	}
+
+	public void setPayloadLimit(int payloadLimit) {
+		this.payloadLimit = payloadLimit;
+	}
+
+	public int getPayloadLimit() {
+		return payloadLimit;
+	}
+
+	/**
+	 * Takes effect at start; rounded up to a power of two.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	public void start() {
+		int size = Integer.highestOneBit(Math.max(1, bufferSize - 1)) << 1;
+		ring = new Entry[size];
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			ring[i] = new Entry();
+			sequences.set(i, i);
+		}
+		mask = size - 1;
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "ebasket-access-log");
+		t.setDaemon(true);
+		writer = t;
+		t.start();
+	}
+
+	/**
+	 * Writes the lines still in the ring and stops the writer.
+	 */
+	public void close() throws InterruptedException {
+		Thread t = writer;
+		writer = null;
+		if (t != null) {
+			LockSupport.unpark(t);
+			t.join(TimeUnit.SECONDS.toMillis(10));
+		}
+	}
+
+	/**
+	 * @return whether a request of the operation, answered with the given status, is to be logged
+	 */
+	public boolean isSampled(String operation, int status) {
+		if (!enabled || writer == null) {
+			return false;
+		}
+		if (status >= 400) {
+			return true;
+		}
+		Double own = sampleRates.get(operation);
+		double rate = own != null ? own.doubleValue() : sampleRate;
+		return rate >= 1 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+	}
+
+	/**
+	 * Queues a line for the writer, or drops it if the ring is full.
+	 *
+	 * @param requestBody the start of the request body, or null
+	 * @param responseBody the start of the response body, or null
+	 */
+	public void log(String operation, String method, String path, int status, long nanos, long requestBytes,
+			long responseBytes, String requestBody, String responseBody) {
+		Entry[] r = ring;
+		if (r == null) {
+			return;
+		}
+		long t;
+		int slot;
+		while (true) {
+			t = tail.get();
+			slot = (int) t & mask;
+			long s = sequences.get(slot);
+			if (s < t) {
+				dropped.increment();
+				return;
+			}
+			if (s == t && tail.compareAndSet(t, t + 1)) {
+				break;
+			}
+		}
+		Entry e = r[slot];
+		e.millis = System.currentTimeMillis();
+		e.operation = operation;
+		e.method = method;
+		e.path = path;
+		e.status = status;
+		e.nanos = nanos;
+		e.requestBytes = requestBytes;
+		e.responseBytes = responseBytes;
+		e.requestBody = requestBody;
+		e.responseBody = responseBody;
+		sequences.set(slot, t + 1);
+	}
+
+	private void drain() {
+		StringBuilder line = new StringBuilder(256);
+		long reported = 0;
+		while (true) {
+			boolean running = writer != null;
+			long h = head;
+			int slot = (int) h & mask;
+			if (sequences.get(slot) == h + 1) {
+				Entry e = ring[slot];
+				line.setLength(0);
+				format(line, e);
+				e.clear();
+				sequences.set(slot, h + ring.length);
+				head = h + 1;
+				ACCESS.info(line.toString());
+				continue;
+			}
+			long lost = dropped.sum();
+			if (lost > reported) {
+				LOG.warn("The access log fell behind, {} lines dropped since the start", lost);
+				reported = lost;
+			}
+			if (!running) {
+				return;
+			}
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+	}
+
+	private static void format(StringBuilder b, Entry e) {
+		b.append("ts=").append(Instant.ofEpochMilli(e.millis));
+		b.append(" op=").append(e.operation);
+		b.append(" method=");
+		quote(b, e.method);
+		b.append(" path=");
+		quote(b, e.path);
+		b.append(" status=").append(e.status);
+		b.append(" us=").append(e.nanos / 1000);
+		b.append(" in=").append(e.requestBytes);
+		b.append(" out=").append(e.responseBytes);
+		if (e.requestBody != null) {
+			b.append(" req=");
+			quote(b, e.requestBody);
+		}
+		if (e.responseBody != null) {
+			b.append(" resp=");
+			quote(b, e.responseBody);
+		}
+	}
+
+	private static void quote(StringBuilder b, String s) {
+		if (s == null) {
+			b.append('-');
+			return;
+		}
+		b.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				b.append('\\').append(c);
+			} else if (c == '\n') {
+				b.append("\\n");
+			} else if (c == '\r') {
+				b.append("\\r");
+			} else if (c < ' ') {
+				b.append(' ');
+			} else {
+				b.append(c);
+			}
+		}
+		b.append('"');
+	}
+
+	private static final class Entry {
+		long millis;
+		String operation;
+		String method;
+		String path;
+		int status;
+		long nanos;
+		long requestBytes;
+		long responseBytes;
+		String requestBody;
+		String responseBody;
+
+		void clear() {
+			operation = null;
+			method = null;
+			path = null;
+			requestBody = null;
+			responseBody = null;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The BatchResult class reports the outcome of a batch request, with one item per entity or operation in the batch,
+ * in the order they were sent.
+ * <p/>
+ * Every item carries the HTTP status the single-entity endpoint would have answered with, and the id of the entity.
+ * <p/>
+ * The XML representation of a BatchResult will look like this:
+ * <BatchResult>
+ * <item><id>124</id><index>0</index><status>200</status></item>
+ * </BatchResult>
+ */
+@XmlRootElement(name = "BatchResult")
+public class BatchResult {
+
+	private List<Item> items;
+
+	public BatchResult() {
+		this(0);
+	}
+
+	public BatchResult(int size) {
+		items = new ArrayList<Item>(size);
+	}
+
+	@XmlElement(name = "item")
+	public List<Item> getItems() {
+		return items;
+	}
+
+	public void setItems(List<Item> items) {
+		this.items = items;
+	}
+
+	public void add(long id, int status) {
+		items.add(new Item(items.size(), id, status));
+	}
+
+	public static class Item {
+		private int index;
+		private long id;
+		private int status;
+
+		public Item() {
+		}
+
+		Item(int index, long id, int status) {
+			this.index = index;
+			this.id = id;
+			this.status = status;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public void setIndex(int index) {
+			this.index = index;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public void setStatus(int status) {
+			this.status = status;
+		}
+	}
+}
@@ -0,0 +1,467 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.MediaType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * The BulkImport class adds customers or products read from newline-delimited JSON, one entity per line, as
+ * EntityStream writes them for an export.
+ * <p/>
+ * The thread reading the request only cuts the input into chunks of up to chunkLines lines; a pool of 'threads'
+ * threads parses the lines of a chunk and adds its entities to the store in one batch. The journal entries are made
+ * durable once, with a single wait for the last of them before the import answers. Each import has at most two
+ * chunks per thread in flight, and the reader waits for one of them to be done before it reads on, so an import of
+ * any size holds the same amount of memory. Chunks are added in whatever order their threads finish, so without
+ * keepIds the ids handed out do not follow the order of the lines.
+ * <p/>
+ * A line that is not a valid entity, or longer than maxLineBytes, is skipped and reported with its number, up to
+ * maxErrors of them; the other lines are added all the same. With keepIds the entities are stored under the ids they
+ * carry, replacing any with the same id as an update would, so that a store exported with its orders can be loaded
+ * into another one and the order lines still refer to the same products. Ids more than maxIdGap above the highest
+ * one stored are refused, as are order ids that have to be given, and an order whose id another customer has gets
+ * a new one.
+ */
+public class BulkImport {
+	private static final Logger LOG = LoggerFactory.getLogger(BulkImport.class);
+
+	/**
+	 * The most bytes of lines in a chunk, whatever the number of lines.
+	 */
+	private static final int CHUNK_BYTES = 1 << 20;
+
+	private final EntityStore store;
+	private int threads;
+	private int chunkLines = 1000;
+	private int maxLineBytes = 1 << 20;
+	private int maxErrors = 1000;
+	private long maxIdGap = 1000000;
+	private volatile ResponseCache cache;
+
+	private volatile ExecutorService executor;
+
+	public BulkImport(EntityStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Sets the number of threads parsing and adding chunks, zero for one per core.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setChunkLines(int chunkLines) {
+		this.chunkLines = Math.max(1, chunkLines);
+	}
+
+	public void setMaxLineBytes(int maxLineBytes) {
+		this.maxLineBytes = maxLineBytes;
+	}
+
+	/**
+	 * Sets the most errors reported per import; further errors are only counted.
+	 */
+	public void setMaxErrors(int maxErrors) {
+		this.maxErrors = maxErrors;
+	}
+
+	/**
+	 * Sets how far above the highest id stored an id kept by an import may be. Each id kept raises the id counter,
+	 * and walks over all ids go up to it, so a line with a far larger id is reported as an error instead.
+	 */
+	public void setMaxIdGap(long maxIdGap) {
+		this.maxIdGap = maxIdGap;
+	}
+
+	/**
+	 * Sets the cache whose bodies of the entities that an import keeping ids replaces are removed.
+	 */
+	public void setResponseCache(ResponseCache cache) {
+		this.cache = cache;
+	}
+
+	public void start() {
+		int count = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		executor = new ThreadPoolExecutor(count, count, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger n = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "ebasket-import-" + n.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		threads = count;
+		LOG.info("Imports run on {} threads in chunks of {} lines", count, chunkLines);
+	}
+
+	public void close() throws InterruptedException {
+		ExecutorService e = executor;
+		executor = null;
+		if (e != null) {
+			e.shutdown();
+			if (!e.awaitTermination(10, TimeUnit.SECONDS)) {
+				LOG.warn("Imports still running after 10 seconds, interrupting them");
+				e.shutdownNow();
+			}
+		}
+	}
+
+	public ImportResult importCustomers(InputStream in, final boolean keepIds) throws IOException {
+		return run(in, new Loader<Customer>(Customer.class, keepIds) {
+			String check(Customer customer) {
+				if (!keepIds) {
+					return null;
+				}
+				String problem = checkId(customer.getId(), store.getCurrentId());
+				for (Order o : customer.getOrders()) {
+					if (problem != null) {
+						break;
+					}
+					problem = o.getId() <= 0 ? "No order id to keep" : checkId(o.getId(), store.getCurrentOrderId());
+				}
+				return problem;
+			}
+
+			void add(List<Customer> batch) {
+				if (keepIds) {
+					for (Customer c : batch) {
+						Customer replaced = store.importCustomer(c);
+						if (replaced != null) {
+							invalidate(ResponseCache.CUSTOMER, 0, c.getId());
+							for (Order o : replaced.getOrders()) {
+								invalidate(ResponseCache.ORDER, c.getId(), o.getId());
+							}
+						}
+					}
+				} else {
+					store.addCustomers(batch);
+				}
+			}
+		});
+	}
+
+	public ImportResult importProducts(InputStream in, final boolean keepIds) throws IOException {
+		return run(in, new Loader<Product>(Product.class, keepIds) {
+			String check(Product product) {
+				return keepIds ? checkId(product.getId(), store.getCurrentProductId()) : null;
+			}
+
+			void add(List<Product> batch) {
+				if (keepIds) {
+					for (Product p : batch) {
+						if (store.importProduct(p)) {
+							invalidate(ResponseCache.PRODUCT, 0, p.getId());
+						}
+					}
+				} else {
+					store.addProducts(batch);
+				}
+			}
+		});
+	}
+
+	private String checkId(long id, long highest) {
+		return id - highest > maxIdGap ? "Id " + id + " is more than " + maxIdGap + " above the highest one, " + highest
+				: null;
+	}
+
+	private void invalidate(int kind, long owner, long id) {
+		ResponseCache c = cache;
+		if (c != null) {
+			c.invalidate(kind, owner, id);
+		}
+	}
+
+	private <T extends Entity> ImportResult run(InputStream in, final Loader<T> loader) throws IOException {
+		long started = System.nanoTime();
+		final ImportResult result = new ImportResult();
+		final Progress progress = new Progress(maxErrors);
+		ExecutorService e = executor;
+		int permits = e == null ? 1 : 2 * threads;
+		final Semaphore inFlight = new Semaphore(permits);
+		byte[] buffer = new byte[64 * 1024];
+		Chunk chunk = new Chunk(1, chunkLines);
+		long line = 1;
+		boolean skipping = false;
+		try {
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				int from = 0;
+				for (int i = 0; i < n; i++) {
+					if (buffer[i] != '\n') {
+						continue;
+					}
+					if (!skipping) {
+						chunk.append(buffer, from, i - from);
+					}
+					if (skipping || chunk.lineLength() > maxLineBytes) {
+						chunk.dropLine();
+						progress.tooLong(line, maxLineBytes);
+					}
+					chunk.endLine();
+					skipping = false;
+					line++;
+					from = i + 1;
+					if (chunk.lines == chunkLines || chunk.length >= CHUNK_BYTES) {
+						submit(e, inFlight, loader, chunk, progress);
+						chunk = new Chunk(line, chunkLines);
+					}
+				}
+				if (!skipping) {
+					chunk.append(buffer, from, n - from);
+					if (chunk.lineLength() > maxLineBytes) {
+						chunk.dropLine();
+						skipping = true;
+					}
+				}
+			}
+			if (skipping) {
+				progress.tooLong(line, maxLineBytes);
+			} else if (chunk.lineLength() > 0) {
+				chunk.endLine();
+			}
+			submit(e, inFlight, loader, chunk, progress);
+		} finally {
+			inFlight.acquireUninterruptibly(permits);
+		}
+		store.awaitDurable(progress.lsn.get());
+		result.setLines(progress.lines.get());
+		result.setImported(progress.imported.get());
+		result.setFailed(progress.failed.get());
+		result.setErrors(progress.errors());
+		result.setElapsedMillis((System.nanoTime() - started) / 1000000);
+		return result;
+	}
+
+	private <T extends Entity> void submit(ExecutorService e, final Semaphore inFlight, final Loader<T> loader,
+			final Chunk chunk, final Progress progress) {
+		if (chunk.lines == 0) {
+			return;
+		}
+		if (e == null) {
+			loader.load(chunk, progress);
+			return;
+		}
+		inFlight.acquireUninterruptibly();
+		try {
+			e.execute(new Runnable() {
+				public void run() {
+					try {
+						loader.load(chunk, progress);
+					} finally {
+						inFlight.release();
+					}
+				}
+			});
+		} catch (RuntimeException rejected) {
+			inFlight.release();
+			throw rejected;
+		}
+	}
+
+	/**
+	 * Parses the lines of a chunk into entities of one type and adds them to the store.
+	 */
+	private abstract class Loader<T extends Entity> {
+		private final ObjectReader reader;
+		private final boolean keepIds;
+
+		Loader(Class<T> type, boolean keepIds) {
+			reader = EntityStream.mapperFor(MediaType.APPLICATION_JSON_TYPE).readerFor(type);
+			this.keepIds = keepIds;
+		}
+
+		abstract void add(List<T> batch);
+
+		/**
+		 * @return why the entity cannot be added, or null if it can
+		 */
+		String check(T entity) {
+			return null;
+		}
+
+		void load(Chunk chunk, Progress progress) {
+			List<T> batch = new ArrayList<T>(chunk.lines);
+			for (int i = 0; i < chunk.lines; i++) {
+				int start = i == 0 ? 0 : chunk.ends[i - 1];
+				int end = chunk.ends[i];
+				while (end > start && chunk.data[end - 1] <= ' ') {
+					end--;
+				}
+				while (start < end && chunk.data[start] <= ' ') {
+					start++;
+				}
+				if (start == end) {
+					continue;
+				}
+				progress.lines.incrementAndGet();
+				long line = chunk.firstLine + i;
+				try {
+					T entity = reader.readValue(chunk.data, start, end - start);
+					String problem = entity == null ? "Not an entity"
+							: keepIds && entity.getId() <= 0 ? "No id to keep" : check(entity);
+					if (problem == null) {
+						batch.add(entity);
+					} else {
+						progress.error(line, problem);
+					}
+				} catch (JsonProcessingException e) {
+					progress.error(line, e.getOriginalMessage());
+				} catch (IOException e) {
+					progress.error(line, e.getMessage());
+				}
+			}
+			if (batch.isEmpty()) {
+				return;
+			}
+			EntityStore.deferDurability(true);
+			try {
+				add(batch);
+			} catch (RuntimeException e) {
+				LOG.warn("Adding lines {} to {} failed", chunk.firstLine, chunk.firstLine + chunk.lines - 1, e);
+				progress.error(chunk.firstLine, "Adding lines " + chunk.firstLine + " to "
+						+ (chunk.firstLine + chunk.lines - 1) + " failed: " + e.getMessage());
+				progress.failed.addAndGet(batch.size() - 1);
+				return;
+			} finally {
+				progress.journaled(EntityStore.takeDeferredDurability());
+				EntityStore.deferDurability(false);
+			}
+			progress.imported.addAndGet(batch.size());
+		}
+	}
+
+	/**
+	 * The lines of a chunk, copied one after the other without their line feeds; ends has the end of every line.
+	 */
+	private static final class Chunk {
+		final long firstLine;
+		byte[] data = new byte[8192];
+		int length;
+		int lineStart;
+		int[] ends;
+		int lines;
+
+		Chunk(long firstLine, int maxLines) {
+			this.firstLine = firstLine;
+			ends = new int[Math.min(maxLines, 1024)];
+		}
+
+		void append(byte[] b, int from, int count) {
+			if (length + count > data.length) {
+				data = Arrays.copyOf(data, Math.max(length + count, 2 * data.length));
+			}
+			System.arraycopy(b, from, data, length, count);
+			length += count;
+		}
+
+		int lineLength() {
+			return length - lineStart;
+		}
+
+		void dropLine() {
+			length = lineStart;
+		}
+
+		void endLine() {
+			if (lines == ends.length) {
+				ends = Arrays.copyOf(ends, 2 * lines);
+			}
+			ends[lines++] = length;
+			lineStart = length;
+		}
+	}
+
+	/**
+	 * The counters and the first errors of one import, shared by its threads.
+	 */
+	private static final class Progress {
+		final AtomicLong lines = new AtomicLong();
+		final AtomicLong imported = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicLong lsn = new AtomicLong();
+		private final int maxErrors;
+		private final List<ImportResult.Failure> errors = new ArrayList<ImportResult.Failure>();
+
+		Progress(int maxErrors) {
+			this.maxErrors = maxErrors;
+		}
+
+		/**
+		 * Raises the journal position the import waits for before it answers.
+		 */
+		void journaled(long position) {
+			long current;
+			while ((current = lsn.get()) < position && !lsn.compareAndSet(current, position)) {
+				// retry
+			}
+		}
+
+		/**
+		 * Counts a line that is too long to be read at all.
+		 */
+		void tooLong(long line, int maxLineBytes) {
+			lines.incrementAndGet();
+			error(line, "Line longer than " + maxLineBytes + " bytes");
+		}
+
+		void error(long line, String message) {
+			failed.incrementAndGet();
+			synchronized (errors) {
+				if (errors.size() < maxErrors) {
+					errors.add(new ImportResult.Failure(line, message));
+				}
+			}
+		}
+
+		List<ImportResult.Failure> errors() {
+			synchronized (errors) {
+				List<ImportResult.Failure> sorted = new ArrayList<ImportResult.Failure>(errors);
+				Collections.sort(sorted, new Comparator<ImportResult.Failure>() {
+					public int compare(ImportResult.Failure a, ImportResult.Failure b) {
+						return Long.compare(a.getLine(), b.getLine());
+					}
+				});
+				return sorted;
+			}
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The CacheStats class reports the counters of the ResponseCache since the service started.
+ * <p/>
+ * The XML representation of a CacheStats will look like this:
+ * <CacheStats>
+ * <bytes>52480</bytes><entries>160</entries><evictions>0</evictions><hitRate>0.97</hitRate><hits>5120</hits>
+ * <maxBytes>67108864</maxBytes><misses>160</misses>
+ * </CacheStats>
+ */
+@XmlRootElement(name = "CacheStats")
+public class CacheStats {
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private int entries;
+	private long bytes;
+	private long maxBytes;
+
+	public CacheStats() {
+	}
+
+	public CacheStats(ResponseCache cache) {
+		hits = cache.getHits();
+		misses = cache.getMisses();
+		evictions = cache.getEvictions();
+		entries = cache.getEntries();
+		bytes = cache.getBytes();
+		maxBytes = cache.getMaxBytes();
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+
+	/**
+	 * The share of lookups answered from the cache, zero before the first lookup.
+	 */
+	public double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : hits / (double) lookups;
+	}
+
+	public void setHitRate(double hitRate) {
+		// derived from hits and misses
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public void setEvictions(long evictions) {
+		this.evictions = evictions;
+	}
+
+	public int getEntries() {
+		return entries;
+	}
+
+	public void setEntries(int entries) {
+		this.entries = entries;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+}
@@ -0,0 +1,252 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The CachedCustomerStorage class keeps the customers in use on the heap in front of another CustomerStorage, usually
+ * a FileCustomerStorage. A get that misses reads the customer through from the storage behind and keeps it; a write
+ * goes through to that storage and keeps the customer written. Customers that are not used for a while are evicted,
+ * so cold customers and their orders only take up space in the storage behind until they are asked for again.
+ * <p/>
+ * Memory is bounded by maxBytes, counting the serialized size of every customer and a fixed overhead per entry. Like
+ * the ResponseCache, the cache is split into segments, each an LRU LinkedHashMap with its own lock and an equal share
+ * of the bytes.
+ * <p/>
+ * A customer read through is only kept if no write reached its segment while it was being read, so a slow read never
+ * puts back a customer older than the one a concurrent write left. Walks over many customers, the pages of
+ * getCustomers, use the cached customers but do not keep the ones they read through, so that a walk does not push
+ * out the customers in use.
+ */
+public class CachedCustomerStorage implements CustomerStorage {
+
+	/**
+	 * The bytes counted for an entry besides the serialized customer: the boxed key, the entry and the map node.
+	 */
+	static final int ENTRY_OVERHEAD = 96;
+
+	private final CustomerStorage storage;
+	private final Segment[] segments;
+	private final long maxBytes;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public CachedCustomerStorage(CustomerStorage storage, long maxBytes) {
+		this(storage, maxBytes, 4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	public CachedCustomerStorage(CustomerStorage storage, long maxBytes, int segments) {
+		int size = Integer.highestOneBit(Math.max(1, segments - 1)) << 1;
+		this.storage = storage;
+		this.maxBytes = maxBytes;
+		this.segments = new Segment[size];
+		for (int i = 0; i < size; i++) {
+			this.segments[i] = new Segment(maxBytes / size);
+		}
+	}
+
+	public Customer get(long id) {
+		Segment s = segmentFor(id);
+		Customer c = s.get(id);
+		if (c != null) {
+			hits.increment();
+			return c;
+		}
+		misses.increment();
+		long writes = s.writes();
+		c = storage.get(id);
+		if (c != null) {
+			s.load(c, writes);
+		}
+		return c;
+	}
+
+	public Customer put(Customer customer) {
+		Customer replaced = storage.put(customer);
+		segmentFor(customer.getId()).put(customer);
+		return replaced;
+	}
+
+	public boolean replace(Customer customer) {
+		Segment s = segmentFor(customer.getId());
+		if (!storage.replace(customer)) {
+			s.remove(customer.getId());
+			return false;
+		}
+		s.put(customer);
+		return true;
+	}
+
+	public Customer remove(long id) {
+		Customer removed = storage.remove(id);
+		segmentFor(id).remove(id);
+		return removed;
+	}
+
+	public boolean isEmpty() {
+		return storage.isEmpty();
+	}
+
+	public Collection<Customer> values() {
+		return storage.values();
+	}
+
+	public Iterator<Customer> iterator(long after, long last) {
+		return new Pages.IdRange<Customer>(after, last) {
+			Customer lookup(long id) {
+				Customer c = segmentFor(id).get(id);
+				return c != null ? c : storage.get(id);
+			}
+		};
+	}
+
+	public void close() {
+		for (Segment s : segments) {
+			s.clear();
+		}
+		storage.close();
+	}
+
+	public CustomerStorage getStorage() {
+		return storage;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getBytes() {
+		long bytes = 0;
+		for (Segment s : segments) {
+			bytes += s.bytes();
+		}
+		return bytes;
+	}
+
+	public int getEntries() {
+		int entries = 0;
+		for (Segment s : segments) {
+			entries += s.size();
+		}
+		return entries;
+	}
+
+	private Segment segmentFor(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return segments[(int) (h >>> 32) & (segments.length - 1)];
+	}
+
+	private final class Segment {
+		private final long maxBytes;
+		private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+		private long bytes;
+		private long writes;
+
+		Segment(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		synchronized Customer get(long id) {
+			Entry e = entries.get(Long.valueOf(id));
+			return e == null ? null : e.customer;
+		}
+
+		synchronized long writes() {
+			return writes;
+		}
+
+		/**
+		 * Keeps a customer read through, unless a write reached the segment since 'writes' was taken.
+		 */
+		synchronized void load(Customer customer, long writes) {
+			if (this.writes == writes && !entries.containsKey(Long.valueOf(customer.getId()))) {
+				store(customer);
+			}
+		}
+
+		synchronized void put(Customer customer) {
+			writes++;
+			store(customer);
+		}
+
+		synchronized void remove(long id) {
+			writes++;
+			Entry old = entries.remove(Long.valueOf(id));
+			if (old != null) {
+				bytes -= old.size;
+			}
+		}
+
+		synchronized void clear() {
+			entries.clear();
+			bytes = 0;
+		}
+
+		synchronized long bytes() {
+			return bytes;
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+
+		private void store(Customer customer) {
+			Entry entry = new Entry(customer, EntityCodec.sizeOf(customer) + ENTRY_OVERHEAD);
+			Entry old = entries.remove(Long.valueOf(customer.getId()));
+			if (old != null) {
+				bytes -= old.size;
+			}
+			if (entry.size > maxBytes) {
+				return;
+			}
+			entries.put(Long.valueOf(customer.getId()), entry);
+			bytes += entry.size;
+			Iterator<Entry> eldest = entries.values().iterator();
+			while (bytes > maxBytes) {
+				bytes -= eldest.next().size;
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+	}
+
+	private static final class Entry {
+		final Customer customer;
+		final long size;
+
+		Entry(Customer customer, long size) {
+			this.customer = customer;
+			this.size = size;
+		}
+	}
+}
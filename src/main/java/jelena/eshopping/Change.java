@@ -0,0 +1,108 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The Change class is one entry of the ChangeFeed: which customer, order or product was changed, how, and the
+ * version it was left at. It does not carry the entity itself; a subscriber that needs it GETs it, and can compare
+ * the version with the ETag.
+ * <p/>
+ * Ids that do not apply to the type of change are zero. The JSON representation of a Change will look like this:
+ * {"seq":1760689609123001,"type":"ORDER_PRODUCT_ADDED","customerId":123,"orderId":223,"productId":323,"version":4}
+ */
+@XmlRootElement(name = "Change")
+public class Change {
+
+	public enum Type {
+		CUSTOMER_CREATED, CUSTOMER_UPDATED, CUSTOMER_DELETED,
+		ORDER_CREATED, ORDER_DELETED, ORDER_PRODUCT_ADDED, ORDER_PRODUCT_DELETED,
+		PRODUCT_CREATED, PRODUCT_UPDATED, PRODUCT_DELETED
+	}
+
+	private long seq;
+	private Type type;
+	private long customerId;
+	private long orderId;
+	private long productId;
+	private long version;
+
+	public Change() {
+	}
+
+	public Change(Type type, long customerId, long orderId, long productId, long version) {
+		this.type = type;
+		this.customerId = customerId;
+		this.orderId = orderId;
+		this.productId = productId;
+		this.version = version;
+	}
+
+	/**
+	 * The position of the change in the feed, the SSE event id.
+	 */
+	public long getSeq() {
+		return seq;
+	}
+
+	public void setSeq(long seq) {
+		this.seq = seq;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public void setType(Type type) {
+		this.type = type;
+	}
+
+	public long getCustomerId() {
+		return customerId;
+	}
+
+	public void setCustomerId(long customerId) {
+		this.customerId = customerId;
+	}
+
+	public long getOrderId() {
+		return orderId;
+	}
+
+	public void setOrderId(long orderId) {
+		this.orderId = orderId;
+	}
+
+	public long getProductId() {
+		return productId;
+	}
+
+	public void setProductId(long productId) {
+		this.productId = productId;
+	}
+
+	/**
+	 * The version of the changed entity after the change, zero once it is deleted.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ChangeFeed class keeps the latest changes made to the EntityStore, in the order they were made, for
+ * subscribers of the /changes SSE endpoint to read at their own pace.
+ * <p/>
+ * Every change gets the next sequence number. The first one is the time the feed was started at in microseconds, so
+ * the numbers keep growing across restarts and a subscriber resuming after a restart is told to resynchronize
+ * instead of silently missing changes.
+ * <p/>
+ * The changes are kept in one ring of bufferSize entries shared by all subscribers, each of which only keeps the
+ * sequence number it has read up to. Publishing a change takes the next number from an atomic counter and stores the
+ * change in its slot, without a lock shared by the writers; only when a subscriber waits for changes does it take
+ * the lock to wake it. It never waits for a subscriber: one that falls bufferSize changes behind finds its next
+ * change overwritten and is dropped. A slot whose change is not yet stored still holds an older one, whose
+ * sequence number tells a reader to wait for it. The same
+ * ring lets a subscriber that reconnects with the id of the last change it saw resume from there, as long as that
+ * change is still in it.
+ * <p/>
+ * Like the Journal, the feed attaches itself to the store when it is opened, after the store has been recovered, so
+ * that only changes made from then on are published.
+ */
+public class ChangeFeed {
+	private static final Logger LOG = LoggerFactory.getLogger(ChangeFeed.class);
+
+	/**
+	 * Returned by read when the changes after the given one are no longer in the ring.
+	 */
+	static final int LOST = -1;
+
+	/**
+	 * Returned by read once the feed is closed.
+	 */
+	static final int CLOSED = -2;
+
+	private final EntityStore store;
+	private int bufferSize = 65536;
+	private int maxSubscribers = 32;
+	private int heartbeatSeconds = 15;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition published = lock.newCondition();
+	private final AtomicLong next = new AtomicLong();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private volatile AtomicReferenceArray<Change> ring;
+	private volatile long first;
+	private volatile boolean closed = true;
+
+	private final AtomicInteger subscribers = new AtomicInteger();
+	private final LongAdder dropped = new LongAdder();
+
+	public ChangeFeed(EntityStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Takes effect at open; rounded up to a power of two.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public void setMaxSubscribers(int maxSubscribers) {
+		this.maxSubscribers = maxSubscribers;
+	}
+
+	public void setHeartbeatSeconds(int heartbeatSeconds) {
+		this.heartbeatSeconds = heartbeatSeconds;
+	}
+
+	long getHeartbeatNanos() {
+		return TimeUnit.SECONDS.toNanos(Math.max(1, heartbeatSeconds));
+	}
+
+	public int getSubscribers() {
+		return subscribers.get();
+	}
+
+	/**
+	 * @return the subscribers dropped for falling too far behind since the start
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	public void open() {
+		int size = Integer.highestOneBit(Math.max(1, bufferSize - 1)) << 1;
+		long start = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+		first = start;
+		next.set(start);
+		ring = new AtomicReferenceArray<Change>(size);
+		closed = false;
+		store.setChangeFeed(this);
+		LOG.info("Change feed started at {}, keeping the last {} changes", first, size);
+	}
+
+	/**
+	 * Detaches the feed from the store and ends every subscription.
+	 */
+	public void close() {
+		store.setChangeFeed(null);
+		closed = true;
+		lock.lock();
+		try {
+			published.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Appends a change, giving it the next sequence number. Called by the store while the lock of the changed entity
+	 * is held, so the changes of an entity are numbered in the order they were made.
+	 */
+	public void publish(Change change) {
+		if (closed) {
+			return;
+		}
+		AtomicReferenceArray<Change> r = ring;
+		long seq = next.getAndIncrement();
+		change.setSeq(seq);
+		r.set((int) seq & (r.length() - 1), change);
+		if (waiting.get() > 0) {
+			lock.lock();
+			try {
+				published.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return the sequence number of the latest change, for a new subscriber to read on from
+	 */
+	long last() {
+		return next.get() - 1;
+	}
+
+	/**
+	 * Copies the changes after the given one into the array, waiting up to timeoutNanos for one to be published.
+	 *
+	 * @param after the sequence number of the last change read
+	 * @return the number of changes copied, zero if none was published in time, LOST if the changes after 'after' are
+	 *         no longer in the ring, or CLOSED
+	 */
+	int read(long after, Change[] into, long timeoutNanos) throws InterruptedException {
+		long from = after + 1;
+		int n = copy(from, into);
+		if (n != 0 || timeoutNanos <= 0) {
+			return n;
+		}
+		long nanos = timeoutNanos;
+		lock.lock();
+		try {
+			waiting.incrementAndGet();
+			try {
+				while (true) {
+					n = copy(from, into);
+					if (n != 0 || nanos <= 0) {
+						return n;
+					}
+					nanos = published.awaitNanos(nanos);
+				}
+			} finally {
+				waiting.decrementAndGet();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Copies the changes from the given one on that are stored already, stopping at the first that is not.
+	 */
+	private int copy(long from, Change[] into) {
+		if (closed) {
+			return CLOSED;
+		}
+		AtomicReferenceArray<Change> r = ring;
+		int mask = r.length() - 1;
+		if (from < first || from > next.get()) {
+			return LOST;
+		}
+		int n = 0;
+		while (n < into.length) {
+			Change c = r.get((int) (from + n) & mask);
+			long seq = c == null ? -1 : c.getSeq();
+			if (seq > from + n) {
+				return n == 0 ? LOST : n;
+			}
+			if (seq < from + n) {
+				break;
+			}
+			into[n++] = c;
+		}
+		return n;
+	}
+
+	/**
+	 * @return false if there are maxSubscribers already
+	 */
+	boolean subscribe() {
+		while (true) {
+			int n = subscribers.get();
+			if (n >= maxSubscribers) {
+				return false;
+			}
+			if (subscribers.compareAndSet(n, n + 1)) {
+				return true;
+			}
+		}
+	}
+
+	void unsubscribe(boolean wasDropped) {
+		subscribers.decrementAndGet();
+		if (wasDropped) {
+			dropped.increment();
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The ChangeStream class writes the changes of a ChangeFeed to one subscriber as Server-Sent Events, for as long as
+ * the subscriber stays connected. Each change is an event with the sequence number as its id, the type of change as
+ * its name and the Change as JSON data:
+ * <pre>
+ * id: 1760689609123001
+ * event: ORDER_PRODUCT_ADDED
+ * data: {"seq":1760689609123001,"type":"ORDER_PRODUCT_ADDED","customerId":123,"orderId":223,"productId":323,"version":4}
+ * </pre>
+ * Two more events have no id: 'reset' when the subscriber asked to resume after a change that is no longer kept,
+ * after which the stream goes on with new changes and the subscriber should reload what it holds, and 'dropped'
+ * before the stream is closed because the subscriber fell too far behind. A comment line is written whenever no
+ * change came for a while, so that idle connections are not timed out.
+ * <p/>
+ * The stream takes its subscription of the feed when it starts writing and gives it up when it stops, so a response
+ * that is never written holds no subscription. If the feed has as many subscribers as it allows, nothing is written
+ * and the request is answered with 503/Service Unavailable.
+ */
+class ChangeStream implements StreamingOutput {
+
+	static final MediaType SSE_TYPE = MediaType.valueOf("text/event-stream");
+
+	private static final ObjectMapper MAPPER = EntityStream.mapperFor(MediaType.APPLICATION_JSON_TYPE);
+	private static final int BATCH = 256;
+
+	private final ChangeFeed feed;
+	private long after;
+
+	/**
+	 * @param after the sequence number of the last change the subscriber has, or -1 for changes from now on
+	 */
+	ChangeStream(ChangeFeed feed, long after) {
+		this.feed = feed;
+		this.after = after;
+	}
+
+	public void write(OutputStream out) throws IOException {
+		if (!feed.subscribe()) {
+			throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
+		}
+		boolean dropped = false;
+		try {
+			if (after < 0) {
+				after = feed.last();
+			}
+			out.write(": subscribed\n\n".getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			Change[] batch = new Change[BATCH];
+			boolean resumed = true;
+			while (true) {
+				int n = feed.read(after, batch, feed.getHeartbeatNanos());
+				if (n == ChangeFeed.CLOSED) {
+					return;
+				}
+				if (n == ChangeFeed.LOST) {
+					if (!resumed) {
+						dropped = true;
+						out.write("event: dropped\ndata: {}\n\n".getBytes(StandardCharsets.UTF_8));
+						out.flush();
+						return;
+					}
+					after = feed.last();
+					out.write("event: reset\ndata: {}\n\n".getBytes(StandardCharsets.UTF_8));
+				} else if (n == 0) {
+					out.write(":\n\n".getBytes(StandardCharsets.UTF_8));
+				}
+				for (int i = 0; i < n; i++) {
+					Change c = batch[i];
+					batch[i] = null;
+					out.write(("id: " + c.getSeq() + "\nevent: " + c.getType() + "\ndata: ")
+							.getBytes(StandardCharsets.UTF_8));
+					MAPPER.writeValue(out, c);
+					out.write("\n\n".getBytes(StandardCharsets.UTF_8));
+					after = c.getSeq();
+				}
+				out.flush();
+				resumed = false;
+			}
+		} catch (IOException e) {
+			// the subscriber has gone, which is how a subscription normally ends
+			return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			feed.unsubscribe(dropped);
+		}
+	}
+}
@@ -23,16 +23,21 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Response;
+import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
 /**
  * The Customer class is just a plain old java object, with a few properties and getters and setters.
  * <p/>
@@ -44,20 +49,25 @@ import org.slf4j.LoggerFactory;
  * <id>123</id>
  * <name>National Aquarium</name>
  * </Customer>
+ * <p/>
+ * A Customer is created for every customer that JAXB or Jackson read from a request, so construction is cheap: the
+ * order map is only created when the first order is added.
+ * <p/>
+ * The version is written but never read from a request; EntityStore hands it out.
  */
 @XmlRootElement(name = "Customer")
-public class Customer {
+@JsonIgnoreProperties(value = "version", allowGetters = true)
+public class Customer implements Entity {
 	
 	private static final Logger LOG = LoggerFactory.getLogger(Order.class);
 	
     private long id;
     private String name;
-    Map<Long, Order> orders = new HashMap<Long, Order>();
-    long currentOrderId = 223;
+    private volatile LongMap<Order> orders;
+    private volatile long version;
     
     
     public Customer() {
-        init();
     }
 
     public long getId() {
@@ -68,6 +78,18 @@ public class Customer {
         this.id = id;
     }
 
+	/**
+	 * Bumped by adding or deleting an order; EntityStore sets it on the customer that replaces this one.
+	 */
+	@XmlElement
+	public long getVersion() {
+		return version;
+	}
+
+	void version(long version) {
+		this.version = version;
+	}
+
     public String getName() {
         return name;
     }
@@ -77,32 +99,87 @@ public class Customer {
     }
 	public Order getOrder(@PathParam("orderId") String orderId) {
 		long idNumber = Long.parseLong(orderId);
-		Order o = orders.get(idNumber);
-		return o;
+		return getOrder(idNumber);
+	}
+
+	public Order getOrder(long orderId) {
+		LongMap<Order> o = orders;
+		return o == null ? null : o.get(orderId);
 	}
 
 	public List<Order> getOrders() {
-		return new ArrayList<Order>(orders.values());
+		return new ArrayList<Order>(orderValues());
+	}
+
+	/**
+	 * Replaces the orders, for Jackson reading a customer with its orders from a request; the XML representation has
+	 * no orders. Orders sent without an id are kept apart under keys below zero until EntityStore gives them theirs.
+	 * Callers must be the only thread that knows the customer.
+	 */
+	@XmlTransient
+	public void setOrders(List<Order> list) {
+		LongMap<Order> o = new LongMap<Order>();
+		long unassigned = 0;
+		for (Order order : list) {
+			o.put(order.getId() != 0 ? order.getId() : --unassigned, order);
+		}
+		orders = o;
+	}
+
+	/**
+	 * Returns up to 'limit' orders with an id greater than 'after', in id order.
+	 */
+	public List<Order> getOrders(long after, int limit) {
+		return Pages.select(orderValues(), after, limit);
+	}
+
+	/**
+	 * Iterates the orders with an id greater than 'after' in id order, without collecting them.
+	 */
+	Iterator<Order> ordersAfter(long after) {
+		LongMap<Order> o = orders;
+		return o == null ? Collections.<Order>emptyIterator() : o.iterator(after);
 	}
 	
 	
+	/**
+	 * Adds the order under the id it carries, which EntityStore hands out. Callers must hold the customer's lock in
+	 * EntityStore, or be the only thread that knows the customer.
+	 */
 	public void addOrder(Order order) {
-		order.setId(++currentOrderId);
-		orders.put(order.getId(), order);		
+		orders().put(order.getId(), order);
+		version++;
 	}
 	
 	public void deleteOrder(long orderID) {
-		orders.remove(orderID);		
+		LongMap<Order> o = orders;
+		if (o != null && o.remove(orderID) != null) {
+			version++;
+		}
 	}
 
+	/**
+	 * Returns the order map, creating it if needed. Callers must hold the customer's lock in EntityStore, or be the
+	 * only thread that knows the customer.
+	 */
+	LongMap<Order> orders() {
+		LongMap<Order> o = orders;
+		if (o == null) {
+			o = new LongMap<Order>();
+			orders = o;
+		}
+		return o;
+	}
 
-	final void init() {
-		Order o = new Order();
-		o.setDescription("order 223");
-		o.setId(currentOrderId);
-		
-        orders.put(o.getId(), o);
-    }
+	Collection<Order> orderValues() {
+		LongMap<Order> o = orders;
+		return o == null ? Collections.<Order>emptyList() : o.values();
+	}
+
+	int orderCount() {
+		LongMap<Order> o = orders;
+		return o == null ? 0 : o.size();
+	}
 
 
 }
@@ -15,26 +15,43 @@
  */
 package jelena.eshopping;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Variant;
 
 import org.apache.cxf.jaxrs.ext.MessageContext;
 import org.osgi.service.component.annotations.Component;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.jaxrs.cbor.CBORMediaTypes;
+import com.fasterxml.jackson.jaxrs.smile.SmileMediaTypes;
 
 /**
  * This Java class with be hosted in the URI path defined by the @Path
@@ -46,21 +63,52 @@ import org.slf4j.LoggerFactory;
  * 'http://localhost:8181/cxf/crm/customerservice'. An @Path("/customers")
  * annotation on one of the methods would result in
  * 'http://localhost:8181/cxf/crm/customerservice/customers'.
+ * <p/>
+ * The methods that change data suspend their request and run on the
+ * RequestExecutor, so that a write waiting for the journal does not hold on to
+ * a transport thread. Each has a synchronous form of the same name, without
+ * the AsyncResponse. Writes of a single customer and its orders pass the
+ * customer id along, so that a sharded executor runs them on the customer's
+ * shard. Reads only touch memory and answer right away.
+ * <p/>
+ * A POST that adds a customer, order or product may carry an Idempotency-Key
+ * header. A retry with the same key is answered with the answer to the first
+ * request, marked with an Idempotent-Replayed header, instead of adding the
+ * entity again; see IdempotencyCache.
  */
 @Path("/customerservice/")
 @Component(service = CustomerService.class, property = { "osgi.jaxrs.resource=true" })
 public class CustomerService {
-	private static final Logger LOG = LoggerFactory.getLogger(CustomerService.class);
 
-	long currentId = 123;
+	static final String CBOR = CBORMediaTypes.APPLICATION_JACKSON_CBOR;
+	static final String SMILE = SmileMediaTypes.APPLICATION_JACKSON_SMILE;
+	static final String NDJSON = EntityStream.NDJSON;
+	static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+	static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+
+	private static final List<Variant> VARIANTS = Arrays.asList(
+			new Variant(MediaType.APPLICATION_XML_TYPE, (Locale) null, null),
+			new Variant(MediaType.APPLICATION_JSON_TYPE, (Locale) null, null),
+			new Variant(EntityStream.CBOR_TYPE, (Locale) null, null),
+			new Variant(EntityStream.SMILE_TYPE, (Locale) null, null));
 
-	Map<Long, Customer> customers = new HashMap<Long, Customer>();
-	Map<Long, Product> products = new HashMap<Long, Product>();
-	long currentProductId = 323;
+	private final EntityStore store;
 	private MessageContext jaxrsContext;
+	private volatile ResponseCache cache;
+	private volatile RequestExecutor executor = new RequestExecutor();
+	private volatile OrderLinePipeline pipeline;
+	private volatile IdempotencyCache idempotency;
+	private volatile Reports reports;
+	private volatile BulkImport bulkImport;
+	private volatile Metrics metrics;
+	private volatile ChangeFeed changeFeed;
 
 	public CustomerService() {
-		init();
+		this(new EntityStore());
+	}
+
+	public CustomerService(EntityStore store) {
+		this.store = store;
 	}
 
 	/**
@@ -75,16 +123,19 @@ public class CustomerService {
 	 * For example: surfing to
 	 * 'http://localhost:8181/cxf/crm/customerservice/customers/123' will show you
 	 * the information of customer 123 in XML format.
+	 * <p/>
+	 * The response carries a strong ETag. A client sending that tag back in
+	 * If-None-Match gets 304/Not Modified without a body while the customer is
+	 * unchanged, and 404/Not Found is answered if there is no such customer.
 	 */
 	@GET
 	@Path("/customers/{id}/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Customer getCustomer(@PathParam("id") String id) {
-		LOG.info("Invoking getCustomer, Customer id is: {}", id);
-		long idNumber = Long.parseLong(id);
-		Customer c = customers.get(idNumber);
-		return c;
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public Response getCustomer(@PathParam("id") String id) {
+		long idNumber = id(id);
+		Customer c = store.getCustomer(idNumber);
+		return tagged(ResponseCache.CUSTOMER, 0, c);
 	}
 
 	/**
@@ -97,14 +148,49 @@ public class CustomerService {
 	 * For example: surfing to
 	 * 'http://localhost:8181/cxf/crm/customerservice/customers/' will show you the
 	 * information of customer list in XML format.
+	 * <p/>
+	 * The list is ordered by id and can be paged with the 'limit' and 'after'
+	 * query parameters, e.g. '/customers/?limit=100&after=223'. A full page
+	 * carries a 'next' Link header. With 'stream=true' the customers are written
+	 * to the response one at a time instead of being collected into a list.
+	 * Ids start at 1, so an 'after' below zero lists from the start like 0 does
+	 * rather than walking the negative ids.
 	 */
 	@GET
 	@Path("/customers/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public List<Customer> getCustomers() {
-		LOG.info("Invoking getCustomers");
-		return new ArrayList<Customer>(customers.values());
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public Response getCustomers(@QueryParam("after") long after, @QueryParam("limit") int limit,
+			@QueryParam("stream") boolean stream) {
+		Iterator<Customer> customers = store.getCustomers(Math.max(after, 0));
+		if (stream) {
+			return stream(customers, limit, "Customers");
+		}
+		List<Customer> page = Pages.take(customers, limit);
+		return page(new GenericEntity<List<Customer>>(page) {
+		}, page, limit);
+	}
+
+	/**
+	 * This method is mapped to an HTTP GET of
+	 * 'http://localhost:8181/cxf/crm/customerservice/customers/top/'.
+	 * <p/>
+	 * The answer lists the customers that spent most, the sum of the totals of
+	 * all their orders, highest first, e.g. '/customers/top/?limit=100' for the
+	 * top 100. The customers are read from an index kept up to date with every
+	 * order, so the query does not walk the customers. The answer is 404/Not
+	 * Found if indexed queries are switched off.
+	 */
+	@GET
+	@Path("/customers/top/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	public Response getTopCustomers(@QueryParam("limit") int limit) {
+		List<CustomerSpend> top = store.getTopCustomers(limit);
+		if (top == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.ok(new GenericEntity<List<CustomerSpend>>(top) {
+		}).build();
 	}
 
 	/**
@@ -115,25 +201,38 @@ public class CustomerService {
 	 * The method itself just updates the customer object in our local data map and
 	 * afterwards uses the Reponse class to build the appropriate HTTP response:
 	 * either OK if the update succeeded (translates to HTTP Status 200/OK) or not
-	 * modified if the method failed to update a customer object (translates to HTTP
-	 * Status 304/Not Modified).
+	 * found if there is no such object to update (translates to HTTP Status
+	 * 404/Not Found).
+	 * <p/>
+	 * With an If-Match header the object is only replaced while its entity tag
+	 * still matches, otherwise the answer is 412/Precondition Failed.
 	 * <p/>
 	 * Note how this method is using the same @Path value as our next method - the
 	 * HTTP method used will determine which method is being invoked.
 	 */
 	@PUT
 	@Path("/customers/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Response updateCustomer(Customer customer) {
-		LOG.info("Invoking updateCustomer, Customer name is: {}", customer.getName());
-		Customer c = customers.get(customer.getId());
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public void updateCustomer(final Customer customer, @Suspended final AsyncResponse async) {
+		final Precondition condition = precondition();
+		dispatch(async, customer == null ? 0 : customer.getId(), new Callable<Object>() {
+			public Object call() {
+				return updateCustomer(customer, condition);
+			}
+		});
+	}
+
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public Response updateCustomer(Customer customer, Precondition condition) {
 		Response r;
-		if (c != null) {
-			customers.put(customer.getId(), customer);
+		if (store.updateCustomer(customer, condition)) {
+			invalidate(ResponseCache.CUSTOMER, 0, customer.getId());
 			r = Response.ok().build();
 		} else {
-			r = Response.notModified().build();
+			r = Response.status(Response.Status.NOT_FOUND).build();
 		}
 
 		return r;
@@ -156,18 +255,27 @@ public class CustomerService {
 	 */
 	@POST
 	@Path("/customers/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Response addCustomer(Customer customer) {
-		LOG.info("Invoking addCustomer, Customer name is: {}", customer.getName());
-		customer.setId(++currentId);
-
-		customers.put(customer.getId(), customer);
-		if (jaxrsContext.getHttpHeaders().getMediaType().getSubtype().equals("json")) {
-			return Response.ok().type("application/json").entity(customer).build();
-		} else {
-			return Response.ok().type("application/xml").entity(customer).build();
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public void addCustomer(final Customer customer, @Suspended final AsyncResponse async) {
+		final MediaType type = jaxrsContext.getHttpHeaders().getMediaType();
+		final String key = idempotencyKey("/customers/");
+		if (replayed(async, key)) {
+			return;
 		}
+		dispatch(async, idempotent(key, new Callable<Object>() {
+			public Object call() {
+				return addCustomer(customer, type);
+			}
+		}));
+	}
+
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public Response addCustomer(Customer customer, MediaType type) {
+		store.addCustomer(customer);
+		return Response.ok().type(answerType(type)).entity(customer).build();
 	}
 
 	/**
@@ -178,23 +286,32 @@ public class CustomerService {
 	 * <p/>
 	 * The method uses the Response class to create the HTTP response: either HTTP
 	 * Status 200/OK if the customer object was successfully removed from the local
-	 * data map or a HTTP Status 304/Not Modified if it failed to remove the object.
+	 * data map or a HTTP Status 404/Not Found if there was no such object.
 	 */
 	@DELETE
 	@Path("/customers/{id}/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Response deleteCustomer(@PathParam("id") String id) {
-		LOG.info("Invoking deleteCustomer, Customer id is: {}", id);
-		long idNumber = Long.parseLong(id);
-		Customer c = customers.get(idNumber);
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public void deleteCustomer(@PathParam("id") final String id, @Suspended final AsyncResponse async) {
+		dispatch(async, id(id), new Callable<Object>() {
+			public Object call() {
+				return deleteCustomer(id);
+			}
+		});
+	}
+
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public Response deleteCustomer(String id) {
+		long idNumber = id(id);
 
 		Response r;
-		if (c != null) {
+		if (store.deleteCustomer(idNumber)) {
+			invalidate(ResponseCache.CUSTOMER, 0, idNumber);
 			r = Response.ok().build();
-			customers.remove(idNumber);
 		} else {
-			r = Response.notModified().build();
+			r = Response.status(Response.Status.NOT_FOUND).build();
 		}
 
 		return r;
@@ -212,38 +329,46 @@ public class CustomerService {
 	 * depending on the actual URI path being used: - display the order information
 	 * itself in XML format - display details about a product in the order in XML
 	 * format in a path relative to the URI defined here
+	 * <p/>
+	 * The response carries a strong ETag. A client sending that tag back in
+	 * If-None-Match gets 304/Not Modified without a body while the order is
+	 * unchanged, and 404/Not Found is answered if there is no such order.
 	 */
 	@GET
 	@Path("/customers/{id}/orders/{orderId}/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Order getOrder(@PathParam("id") String id, @PathParam("orderId") String orderId) {
-		LOG.info("Invoking orderId, Order id is: {}", orderId);
-		long idNumber = Long.parseLong(id);
-		customers.get(idNumber);
-		return customers.get(idNumber).getOrder(orderId);
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public Response getOrder(@PathParam("id") String id, @PathParam("orderId") String orderId) {
+		long idNumber = id(id);
+		return tagged(ResponseCache.ORDER, idNumber, store.getOrder(idNumber, id(orderId)));
 	}
 
 	/**
 	 * This method is mapped to an HTTP GET of
-	 * 'http://localhost:8181/cxf/crm/customerservice/customers/'.
+	 * 'http://localhost:8181/cxf/crm/customerservice/customers/{id}/orders/'.
 	 * <p/>
-	 * The method returns a Customer list - for creating the HTTP response, this
+	 * The method returns an Order list - for creating the HTTP response, this
 	 * object is marshaled into XML using JAXB.
 	 * <p/>
-	 * For example: surfing to
-	 * 'http://localhost:8181/cxf/crm/customerservice/customers/' will show you the
-	 * information of customer list in XML format.
+	 * Paging and streaming work as for the customer list. 404/Not Found is
+	 * answered if there is no such customer.
 	 */
 	@GET
 	@Path("/customers/{id}/orders/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public List<Order> getOrders(@PathParam("id") String id) {
-		LOG.info("Invoking getOrders, Customer id is: {}", id);
-		long idNumber = Long.parseLong(id);
-		Customer c = customers.get(idNumber);
-		return new ArrayList<Order>(customers.get(idNumber).getOrders());
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public Response getOrders(@PathParam("id") String id, @QueryParam("after") long after,
+			@QueryParam("limit") int limit, @QueryParam("stream") boolean stream) {
+		Customer c = store.getCustomer(id(id));
+		if (c == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		if (stream) {
+			return stream(c.ordersAfter(after), limit, "Orders");
+		}
+		List<Order> page = c.getOrders(after, limit);
+		return page(new GenericEntity<List<Order>>(page) {
+		}, page, limit);
 	}
 
 	/**
@@ -260,21 +385,38 @@ public class CustomerService {
 	 * <p/>
 	 * Note how this method is using the same @Path value as our previous method -
 	 * the HTTP method used will determine which method is being invoked.
+	 * <p/>
+	 * The order gets an id that is unique across all customers, so that it can
+	 * also be reached as '/orders/{orderId}'. 404/Not Found is answered if there
+	 * is no such customer.
 	 */
 	@POST
 	@Path("/customers/{id}/orders/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Response addOrder(@PathParam("id") String id, Order order) {
-		LOG.info("Invoking addOrder, Order description is: {}", order.getDescription());
-		long idNumber = Long.parseLong(id);
-		Customer c = customers.get(idNumber);
-		customers.get(idNumber).addOrder(order);
-		if (jaxrsContext.getHttpHeaders().getMediaType().getSubtype().equals("json")) {
-			return Response.ok().type("application/json").entity(order).build();
-		} else {
-			return Response.ok().type("application/xml").entity(order).build();
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public void addOrder(@PathParam("id") final String id, final Order order, @Suspended final AsyncResponse async) {
+		final MediaType type = jaxrsContext.getHttpHeaders().getMediaType();
+		final String key = idempotencyKey("/customers/" + id(id) + "/orders/");
+		if (replayed(async, key)) {
+			return;
+		}
+		dispatch(async, id(id), idempotent(key, new Callable<Object>() {
+			public Object call() {
+				return addOrder(id, order, type);
+			}
+		}));
+	}
+
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public Response addOrder(String id, Order order, MediaType type) {
+		long idNumber = id(id);
+		if (store.addOrder(idNumber, order) == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
 		}
+		invalidate(ResponseCache.CUSTOMER, 0, idNumber);
+		return Response.ok().type(answerType(type)).entity(order).build();
 	}
 
 	/**
@@ -285,24 +427,36 @@ public class CustomerService {
 	 * <p/>
 	 * The method uses the Response class to create the HTTP response: either HTTP
 	 * Status 200/OK if the customer object was successfully removed from the local
-	 * data map or a HTTP Status 304/Not Modified if it failed to remove the object.
+	 * data map or a HTTP Status 404/Not Found if there was no such object.
 	 */
 	@DELETE
 	@Path("/customers/{id}/orders/{orderId}/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Response deleteOrder(@PathParam("id") String id, @PathParam("orderId") String orderId) {
-		LOG.info("Invoking deleteOrder, Orde id is: {}", orderId);
-		long idNumber = Long.parseLong(id);
-		Customer c = customers.get(idNumber);
-		Order o = customers.get(idNumber).getOrder(orderId);
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public void deleteOrder(@PathParam("id") final String id, @PathParam("orderId") final String orderId,
+			@Suspended final AsyncResponse async) {
+		dispatch(async, id(id), new Callable<Object>() {
+			public Object call() {
+				return deleteOrder(id, orderId);
+			}
+		});
+	}
 
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public Response deleteOrder(String id, String orderId) {
+		return deleteOrder(id(id), id(orderId));
+	}
+
+	private Response deleteOrder(long idNumber, long orderId) {
 		Response r;
-		if (o != null) {
+		if (store.deleteOrder(idNumber, orderId)) {
+			invalidate(ResponseCache.CUSTOMER, 0, idNumber);
+			invalidate(ResponseCache.ORDER, idNumber, orderId);
 			r = Response.ok().build();
-			c.deleteOrder(Long.parseLong(orderId));
 		} else {
-			r = Response.notModified().build();
+			r = Response.status(Response.Status.NOT_FOUND).build();
 		}
 
 		return r;
@@ -320,39 +474,53 @@ public class CustomerService {
 	 * depending on the actual URI path being used: - display the order information
 	 * itself in XML format - display details about a product in the order in XML
 	 * format in a path relative to the URI defined here
+	 * <p/>
+	 * The answer is the OrderLine of the product: how many of it are on the
+	 * order and at what unit price. It carries a strong ETag. A client sending
+	 * that tag back in If-None-Match gets 304/Not Modified without a body while
+	 * the line is unchanged, and 404/Not Found is answered if the order has no
+	 * such product.
 	 */
 	@GET
 	@Path("/customers/{id}/orders/{orderId}/products/{productId}/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Product getOrderProduct(@PathParam("id") String id, @PathParam("orderId") String orderId,
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public Response getOrderProduct(@PathParam("id") String id, @PathParam("orderId") String orderId,
 			@PathParam("productId") String productId) {
-		LOG.info("Invoking getOrderProduct, Product id is: {}", orderId);
-		long idNumber = Long.parseLong(id);
-		customers.get(idNumber);
-		return customers.get(idNumber).getOrder(orderId).getProduct(Long.parseLong(productId));
+		long idNumber = id(id);
+		Order o = store.getOrder(idNumber, id(orderId));
+		return tagged(o == null ? null : o.getLine(id(productId)));
 	}
 
 	/**
 	 * This method is mapped to an HTTP GET of
-	 * 'http://localhost:8181/cxf/crm/customerservice/customers/'.
+	 * 'http://localhost:8181/cxf/crm/customerservice/customers/{id}/orders/{orderId}/products/'.
 	 * <p/>
-	 * The method returns a Customer list - for creating the HTTP response, this
-	 * object is marshaled into XML using JAXB.
+	 * The method returns the OrderLine list of the order - for creating the
+	 * HTTP response, this object is marshaled into XML using JAXB.
 	 * <p/>
-	 * For example: surfing to
-	 * 'http://localhost:8181/cxf/crm/customerservice/customers/' will show you the
-	 * information of customer list in XML format.
+	 * Paging and streaming work as for the customer list. 404/Not Found is
+	 * answered if there is no such order.
 	 */
 	@GET
 	@Path("/customers/{id}/orders/{orderId}/products/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public List<Product> getOrderProducts(@PathParam("id") String id, @PathParam("orderId") String orderId) {
-		LOG.info("Invoking getOrderProducts, Customer id is: {}", id);
-		long idNumber = Long.parseLong(id);
-		Customer c = customers.get(idNumber);
-		return new ArrayList<Product>(customers.get(idNumber).getOrder(orderId).getProducts());
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public Response getOrderProducts(@PathParam("id") String id, @PathParam("orderId") String orderId,
+			@QueryParam("after") long after, @QueryParam("limit") int limit, @QueryParam("stream") boolean stream) {
+		return orderLines(store.getOrder(id(id), id(orderId)), after, limit, stream);
+	}
+
+	private Response orderLines(Order o, long after, int limit, boolean stream) {
+		if (o == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		if (stream) {
+			return stream(o.linesAfter(after), limit, "OrderLines");
+		}
+		List<OrderLine> page = o.getLines(after, limit);
+		return page(new GenericEntity<List<OrderLine>>(page) {
+		}, page, limit);
 	}
 
 	/**
@@ -369,24 +537,45 @@ public class CustomerService {
 	 * <p/>
 	 * Note how this method is using the same @Path value as our previous method -
 	 * the HTTP method used will determine which method is being invoked.
+	 * <p/>
+	 * An If-Match header is checked against the entity tag of the order: the
+	 * product is only added while it matches, otherwise the answer is
+	 * 412/Precondition Failed. 404/Not Found is answered if there is no such
+	 * customer, order or product.
 	 */
 	@PUT
 	@Path("/customers/{id}/orders/{orderId}/products/{productId}/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Response addOrderProduct(@PathParam("id") String id, @PathParam("orderId") String orderId, @PathParam("productId") String productId) {
-		LOG.info("Invoking addOrderProduct, Order description is: {}", productId);
-		long idNumber = Long.parseLong(id);
-		Order o=customers.get(idNumber).getOrder(orderId);
-		Product p=products.get(Long.parseLong(productId));
-		Response r;		
-				if (p != null) {
-					r = Response.ok().build();
-					o.addProduct(p);
-				} else {
-					r = Response.notModified().build();
-				}
-				return r;	
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public void addOrderProduct(@PathParam("id") final String id, @PathParam("orderId") final String orderId,
+			@PathParam("productId") final String productId, @Suspended final AsyncResponse async) {
+		final Precondition condition = precondition();
+		if (pipelined(async, OrderLineOperation.Action.ADD, id(id), id(orderId), id(productId), condition)) {
+			return;
+		}
+		dispatch(async, id(id), new Callable<Object>() {
+			public Object call() {
+				return addOrderProduct(id, orderId, productId, condition);
+			}
+		});
+	}
+
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public Response addOrderProduct(String id, String orderId, String productId, Precondition condition) {
+		return addOrderProduct(id(id), id(orderId), id(productId), condition);
+	}
+
+	private Response addOrderProduct(long idNumber, long orderId, long productId, Precondition condition) {
+		Response r;
+		if (store.addOrderProduct(idNumber, orderId, productId, condition)) {
+			invalidateOrderLine(idNumber, orderId, productId);
+			r = Response.ok().build();
+		} else {
+			r = Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return r;
 	}
 
 	/**
@@ -397,30 +586,182 @@ public class CustomerService {
 	 * <p/>
 	 * The method uses the Response class to create the HTTP response: either HTTP
 	 * Status 200/OK if the customer object was successfully removed from the local
-	 * data map or a HTTP Status 304/Not Modified if it failed to remove the object.
+	 * data map or a HTTP Status 404/Not Found if there was no such object.
 	 */
 	@DELETE
 	@Path("/customers/{id}/orders/{orderId}/products/{productId}/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Response deleteOrderProducts(@PathParam("id") String id, @PathParam("orderId") String orderId,
-			@PathParam("productId") String productId) {
-		LOG.info("Invoking deleteOrderProducts, Order id is: {}", orderId);
-		long idNumber = Long.parseLong(id);
-		Order o = customers.get(idNumber).getOrder(orderId);
-		Product p = o.getProduct(Long.parseLong(productId));
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public void deleteOrderProducts(@PathParam("id") final String id, @PathParam("orderId") final String orderId,
+			@PathParam("productId") final String productId, @Suspended final AsyncResponse async) {
+		if (pipelined(async, OrderLineOperation.Action.DELETE, id(id), id(orderId), id(productId), null)) {
+			return;
+		}
+		dispatch(async, id(id), new Callable<Object>() {
+			public Object call() {
+				return deleteOrderProducts(id, orderId, productId);
+			}
+		});
+	}
 
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public Response deleteOrderProducts(String id, String orderId, String productId) {
+		return deleteOrderProducts(id(id), id(orderId), id(productId));
+	}
+
+	private Response deleteOrderProducts(long idNumber, long orderId, long productId) {
 		Response r;
-		if (p != null) {
+		if (store.deleteOrderProduct(idNumber, orderId, productId)) {
+			invalidateOrderLine(idNumber, orderId, productId);
 			r = Response.ok().build();
-			o.deleteProduct(Long.parseLong(productId));
 		} else {
-			r = Response.notModified().build();
+			r = Response.status(Response.Status.NOT_FOUND).build();
 		}
 
 		return r;
 	}
 
+	/**
+	 * This method is mapped to an HTTP GET of
+	 * 'http://localhost:8181/cxf/crm/customerservice/orders/'.
+	 * <p/>
+	 * The answer lists the orders of all customers with a total from
+	 * 'minTotal' to 'maxTotal' inclusive, either of which may be left out,
+	 * by ascending total or, with 'descending=true', highest first, e.g.
+	 * '/orders/?minTotal=10000&limit=100'. The orders are read from an index of
+	 * order totals, so the query does not walk the customers. The answer is
+	 * 404/Not Found if indexed queries are switched off.
+	 */
+	@GET
+	@Path("/orders/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	public Response getOrders(@QueryParam("minTotal") Long minTotal, @QueryParam("maxTotal") Long maxTotal,
+			@QueryParam("limit") int limit, @QueryParam("descending") boolean descending) {
+		List<Order> orders = store.getOrdersByTotal(minTotal == null ? Long.MIN_VALUE : minTotal.longValue(),
+				maxTotal == null ? Long.MAX_VALUE : maxTotal.longValue(), limit, descending);
+		if (orders == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.ok(new GenericEntity<List<Order>>(orders) {
+		}).build();
+	}
+
+	/**
+	 * This method is mapped to an HTTP GET of
+	 * 'http://localhost:8181/cxf/crm/customerservice/orders/{orderId}'.
+	 * <p/>
+	 * Order ids are unique across all customers, so an order can be looked up
+	 * by its id alone, without knowing its customer. The answer is the same as
+	 * for '/customers/{id}/orders/{orderId}', with the same ETag, and 404/Not
+	 * Found if there is no such order.
+	 */
+	@GET
+	@Path("/orders/{orderId}/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public Response getOrder(@PathParam("orderId") String orderId) {
+		Order o = store.getOrder(id(orderId));
+		return tagged(ResponseCache.ORDER, o == null ? 0 : o.customerId, o);
+	}
+
+	/**
+	 * This method is mapped to an HTTP DELETE of
+	 * 'http://localhost:8181/cxf/crm/customerservice/orders/{orderId}', and
+	 * deletes the order from whichever customer holds it. 404/Not Found is
+	 * answered if there is no such order.
+	 */
+	@DELETE
+	@Path("/orders/{orderId}/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public void deleteOrder(@PathParam("orderId") final String orderId, @Suspended final AsyncResponse async) {
+		final long idNumber = id(orderId);
+		final long customerId = store.getOrderCustomerId(idNumber);
+		dispatch(async, customerId, new Callable<Object>() {
+			public Object call() {
+				return deleteOrder(customerId, idNumber);
+			}
+		});
+	}
+
+	/**
+	 * This method is mapped to an HTTP GET of
+	 * 'http://localhost:8181/cxf/crm/customerservice/orders/{orderId}/products/{productId}'
+	 * and answers like '/customers/{id}/orders/{orderId}/products/{productId}'.
+	 */
+	@GET
+	@Path("/orders/{orderId}/products/{productId}/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public Response getOrderProduct(@PathParam("orderId") String orderId, @PathParam("productId") String productId) {
+		Order o = store.getOrder(id(orderId));
+		return tagged(o == null ? null : o.getLine(id(productId)));
+	}
+
+	/**
+	 * This method is mapped to an HTTP GET of
+	 * 'http://localhost:8181/cxf/crm/customerservice/orders/{orderId}/products/'
+	 * and answers like '/customers/{id}/orders/{orderId}/products/'.
+	 */
+	@GET
+	@Path("/orders/{orderId}/products/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public Response getOrderProducts(@PathParam("orderId") String orderId, @QueryParam("after") long after,
+			@QueryParam("limit") int limit, @QueryParam("stream") boolean stream) {
+		return orderLines(store.getOrder(id(orderId)), after, limit, stream);
+	}
+
+	/**
+	 * This method is mapped to an HTTP PUT of
+	 * 'http://localhost:8181/cxf/crm/customerservice/orders/{orderId}/products/{productId}'
+	 * and adds the product like '/customers/{id}/orders/{orderId}/products/{productId}',
+	 * If-Match included.
+	 */
+	@PUT
+	@Path("/orders/{orderId}/products/{productId}/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public void addOrderProduct(@PathParam("orderId") final String orderId,
+			@PathParam("productId") final String productId, @Suspended final AsyncResponse async) {
+		final Precondition condition = precondition();
+		final long idNumber = id(orderId);
+		final long customerId = store.getOrderCustomerId(idNumber);
+		if (pipelined(async, OrderLineOperation.Action.ADD, customerId, idNumber, id(productId), condition)) {
+			return;
+		}
+		dispatch(async, customerId, new Callable<Object>() {
+			public Object call() {
+				return addOrderProduct(customerId, idNumber, id(productId), condition);
+			}
+		});
+	}
+
+	/**
+	 * This method is mapped to an HTTP DELETE of
+	 * 'http://localhost:8181/cxf/crm/customerservice/orders/{orderId}/products/{productId}'
+	 * and removes the product like '/customers/{id}/orders/{orderId}/products/{productId}'.
+	 */
+	@DELETE
+	@Path("/orders/{orderId}/products/{productId}/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public void deleteOrderProducts(@PathParam("orderId") final String orderId,
+			@PathParam("productId") final String productId, @Suspended final AsyncResponse async) {
+		final long idNumber = id(orderId);
+		final long customerId = store.getOrderCustomerId(idNumber);
+		if (pipelined(async, OrderLineOperation.Action.DELETE, customerId, idNumber, id(productId), null)) {
+			return;
+		}
+		dispatch(async, customerId, new Callable<Object>() {
+			public Object call() {
+				return deleteOrderProducts(customerId, idNumber, id(productId));
+			}
+		});
+	}
+
 	/**
 	 * This method is mapped to an HTTP GET of
 	 * 'http://localhost:8181/cxf/crm/customerservice/products/{id}'. The value for
@@ -432,36 +773,43 @@ public class CustomerService {
 	 * depending on the actual URI path being used: - display the order information
 	 * itself in XML format - display details about a product in the order in XML
 	 * format in a path relative to the URI defined here
+	 * <p/>
+	 * The response carries a strong ETag. A client sending that tag back in
+	 * If-None-Match gets 304/Not Modified without a body while the product is
+	 * unchanged, and 404/Not Found is answered if there is no such product.
 	 */
 	@GET
 	@Path("/products/{productId}/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Product getProduct(@PathParam("productId") String productId) {
-		LOG.info("Invoking getProduct, Product id is: {}", productId);
-		long idNumber = Long.parseLong(productId);
-		Product p = products.get(idNumber);
-		return p;
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public Response getProduct(@PathParam("productId") String productId) {
+		long idNumber = id(productId);
+		Product p = store.getProduct(idNumber);
+		return tagged(ResponseCache.PRODUCT, 0, p);
 	}
 
 	/**
 	 * This method is mapped to an HTTP GET of
-	 * 'http://localhost:8181/cxf/crm/customerservice/customers/'.
+	 * 'http://localhost:8181/cxf/crm/customerservice/products/'.
 	 * <p/>
-	 * The method returns a Customer list - for creating the HTTP response, this
+	 * The method returns a Product list - for creating the HTTP response, this
 	 * object is marshaled into XML using JAXB.
 	 * <p/>
-	 * For example: surfing to
-	 * 'http://localhost:8181/cxf/crm/customerservice/customers/' will show you the
-	 * information of customer list in XML format.
+	 * Paging and streaming work as for the customer list.
 	 */
 	@GET
 	@Path("/products/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public List<Product> getProducts() {
-		LOG.info("Invoking getProducts");
-		return new ArrayList<Product>(products.values());
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public Response getProducts(@QueryParam("after") long after, @QueryParam("limit") int limit,
+			@QueryParam("stream") boolean stream) {
+		Iterator<Product> products = store.getProducts(Math.max(after, 0));
+		if (stream) {
+			return stream(products, limit, "Products");
+		}
+		List<Product> page = Pages.take(products, limit);
+		return page(new GenericEntity<List<Product>>(page) {
+		}, page, limit);
 	}
 
 	/**
@@ -472,25 +820,41 @@ public class CustomerService {
 	 * The method itself just updates the customer object in our local data map and
 	 * afterwards uses the Reponse class to build the appropriate HTTP response:
 	 * either OK if the update succeeded (translates to HTTP Status 200/OK) or not
-	 * modified if the method failed to update a customer object (translates to HTTP
-	 * Status 304/Not Modified).
+	 * found if there is no such object to update (translates to HTTP Status
+	 * 404/Not Found).
+	 * <p/>
+	 * With an If-Match header the object is only replaced while its entity tag
+	 * still matches, otherwise the answer is 412/Precondition Failed.
+	 * <p/>
+	 * A new price is applied to every order that has the product before the
+	 * answer is sent.
 	 * <p/>
 	 * Note how this method is using the same @Path value as our next method - the
 	 * HTTP method used will determine which method is being invoked.
 	 */
 	@PUT
 	@Path("/products/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Response updateProduct(Product product) {
-		LOG.info("Invoking updateProduct, Product id is: {}", product.getId());
-		Product p = products.get(product.getId());
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public void updateProduct(final Product product, @Suspended final AsyncResponse async) {
+		final Precondition condition = precondition();
+		dispatch(async, new Callable<Object>() {
+			public Object call() {
+				return updateProduct(product, condition);
+			}
+		});
+	}
+
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public Response updateProduct(Product product, Precondition condition) {
 		Response r;
-		if (p != null) {
-			products.put(product.getId(), product);
+		if (store.updateProduct(product, condition)) {
+			invalidate(ResponseCache.PRODUCT, 0, product.getId());
 			r = Response.ok().build();
 		} else {
-			r = Response.notModified().build();
+			r = Response.status(Response.Status.NOT_FOUND).build();
 		}
 
 		return r;
@@ -513,18 +877,27 @@ public class CustomerService {
 	 */
 	@POST
 	@Path("/products/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Response addProduct(Product product) {
-		LOG.info("Invoking addProduct, Product description is: {}", product.getId());
-		product.setId(++currentProductId);
-
-		products.put(product.getId(), product);
-		if (jaxrsContext.getHttpHeaders().getMediaType().getSubtype().equals("json")) {
-			return Response.ok().type("application/json").entity(product).build();
-		} else {
-			return Response.ok().type("application/xml").entity(product).build();
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public void addProduct(final Product product, @Suspended final AsyncResponse async) {
+		final MediaType type = jaxrsContext.getHttpHeaders().getMediaType();
+		final String key = idempotencyKey("/products/");
+		if (replayed(async, key)) {
+			return;
 		}
+		dispatch(async, idempotent(key, new Callable<Object>() {
+			public Object call() {
+				return addProduct(product, type);
+			}
+		}));
+	}
+
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public Response addProduct(Product product, MediaType type) {
+		store.addProduct(product);
+		return Response.ok().type(answerType(type)).entity(product).build();
 	}
 
 	/**
@@ -535,44 +908,847 @@ public class CustomerService {
 	 * <p/>
 	 * The method uses the Response class to create the HTTP response: either HTTP
 	 * Status 200/OK if the customer object was successfully removed from the local
-	 * data map or a HTTP Status 304/Not Modified if it failed to remove the object.
+	 * data map or a HTTP Status 404/Not Found if there was no such object.
 	 */
 	@DELETE
 	@Path("/products/{id}/")
-	@Produces({ "application/xml", "application/json" })
-	@Consumes({ "application/xml", "application/json", "application/x-www-form-urlencoded" })
-	public Response deleteProduct(@PathParam("id") String id) {
-		LOG.info("Invoking deleteProduct, Product id is: {}", id);
-		long idNumber = Long.parseLong(id);
-		Product p = products.get(idNumber);
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE, "application/x-www-form-urlencoded" })
+	public void deleteProduct(@PathParam("id") final String id, @Suspended final AsyncResponse async) {
+		dispatch(async, new Callable<Object>() {
+			public Object call() {
+				return deleteProduct(id);
+			}
+		});
+	}
+
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public Response deleteProduct(String id) {
+		long idNumber = id(id);
 
 		Response r;
-		if (p != null) {
+		if (store.deleteProduct(idNumber)) {
+			invalidate(ResponseCache.PRODUCT, 0, idNumber);
 			r = Response.ok().build();
-			products.remove(idNumber);
 		} else {
-			r = Response.notModified().build();
+			r = Response.status(Response.Status.NOT_FOUND).build();
 		}
 
 		return r;
 	}
 
 	/**
-	 * The init method is used by the constructor to insert a Customer and Order
-	 * object into the local data map for testing purposes.
+	 * Using HTTP POST, we can add many customers to the system with a single
+	 * request by uploading a list of customer representations to
+	 * 'http://localhost:8181/cxf/crm/customerservice/batch/customers/'.
+	 * <p/>
+	 * All customers are added in one pass and get consecutive ids. The returned
+	 * BatchResult holds the new id of every customer, in the order they were sent.
+	 */
+	@POST
+	@Path("/batch/customers/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE })
+	public void addCustomers(final List<Customer> customers, @Suspended final AsyncResponse async) {
+		dispatch(async, new Callable<Object>() {
+			public Object call() {
+				return addCustomers(customers);
+			}
+		});
+	}
+
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public BatchResult addCustomers(List<Customer> customers) {
+		store.addCustomers(customers);
+		BatchResult result = new BatchResult(customers.size());
+		for (Customer c : customers) {
+			result.add(c.getId(), Response.Status.OK.getStatusCode());
+		}
+		return result;
+	}
+
+	/**
+	 * Using HTTP PUT, we can update many customers with a single request. Every
+	 * item of the returned BatchResult carries the status the single update would
+	 * have answered with: 200/OK or 404/Not Found if there is no such customer.
+	 */
+	@PUT
+	@Path("/batch/customers/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE })
+	public void updateCustomers(final List<Customer> customers, @Suspended final AsyncResponse async) {
+		dispatch(async, new Callable<Object>() {
+			public Object call() {
+				return updateCustomers(customers);
+			}
+		});
+	}
+
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public BatchResult updateCustomers(List<Customer> customers) {
+		return result(ResponseCache.CUSTOMER, customers, store.updateCustomers(customers));
+	}
+
+	/**
+	 * Using HTTP POST, we can add many products to the catalog with a single
+	 * request, see addCustomers.
+	 */
+	@POST
+	@Path("/batch/products/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE })
+	public void addProducts(final List<Product> products, @Suspended final AsyncResponse async) {
+		dispatch(async, new Callable<Object>() {
+			public Object call() {
+				return addProducts(products);
+			}
+		});
+	}
+
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
 	 */
-	final void init() {
-		Customer c = new Customer();
-		c.setName("Jelena Katusic");
-		c.setId(currentId);
+	public BatchResult addProducts(List<Product> products) {
+		store.addProducts(products);
+		BatchResult result = new BatchResult(products.size());
+		for (Product p : products) {
+			result.add(p.getId(), Response.Status.OK.getStatusCode());
+		}
+		return result;
+	}
 
-		Product p = new Product();
-		p.setId(currentProductId);
-		p.setPrice(1000);
+	/**
+	 * Using HTTP PUT, we can update many products with a single request, see
+	 * updateCustomers.
+	 */
+	@PUT
+	@Path("/batch/products/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE })
+	public void updateProducts(final List<Product> products, @Suspended final AsyncResponse async) {
+		dispatch(async, new Callable<Object>() {
+			public Object call() {
+				return updateProducts(products);
+			}
+		});
+	}
 
-		products.put(p.getId(), p);
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public BatchResult updateProducts(List<Product> products) {
+		return result(ResponseCache.PRODUCT, products, store.updateProducts(products));
+	}
 
-		customers.put(c.getId(), c);
+	/**
+	 * Using HTTP POST to
+	 * 'http://localhost:8181/cxf/crm/customerservice/batch/orderlines/', we can
+	 * add products to orders and delete them again with a single request. Every
+	 * OrderLineOperation does what a PUT or DELETE of
+	 * 'customers/{id}/orders/{orderId}/products/{productId}/' would do.
+	 * <p/>
+	 * The operations are applied in the order they were sent. The returned
+	 * BatchResult carries the product id and the status of every operation:
+	 * 200/OK or 404/Not Found if the customer, order or product was not found.
+	 */
+	@POST
+	@Path("/batch/orderlines/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes({ "application/xml", "application/json", CBOR, SMILE })
+	public void applyOrderLines(final List<OrderLineOperation> operations, @Suspended final AsyncResponse async) {
+		dispatch(async, new Callable<Object>() {
+			public Object call() {
+				return applyOrderLines(operations);
+			}
+		});
+	}
+
+	/**
+	 * The synchronous form of the method above, for callers in the same JVM.
+	 */
+	public BatchResult applyOrderLines(List<OrderLineOperation> operations) {
+		boolean[] applied = store.applyOrderLines(operations);
+		BatchResult result = new BatchResult(applied.length);
+		for (int i = 0; i < applied.length; i++) {
+			OrderLineOperation op = operations.get(i);
+			if (applied[i]) {
+				invalidateOrderLine(op.getCustomerId(), op.getOrderId(), op.getProductId());
+			}
+			result.add(op.getProductId(), status(applied[i]));
+		}
+		return result;
+	}
+
+	/**
+	 * Using HTTP GET of
+	 * 'http://localhost:8181/cxf/crm/customerservice/cache/', we can see how
+	 * well the cache of serialized customers, orders and products works. The
+	 * answer is 404/Not Found if the cache is switched off.
+	 */
+	@GET
+	@Path("/cache/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	public Response getCacheStats() {
+		ResponseCache c = cache;
+		if (c == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.ok(new CacheStats(c)).build();
+	}
+
+	/**
+	 * Using HTTP GET of
+	 * 'http://localhost:8181/cxf/crm/customerservice/storage/', we can see
+	 * how often customers are read from the cache of the customer storage and
+	 * how often from its file. The answer is 404/Not Found if the customers
+	 * are kept on the heap.
+	 */
+	@GET
+	@Path("/storage/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	public Response getStorageStats() {
+		CustomerStorage storage = store.getCustomerStorage();
+		if (storage instanceof HeapCustomerStorage) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.ok(new StorageStats(storage)).build();
+	}
+
+	/**
+	 * Using HTTP GET of
+	 * 'http://localhost:8181/cxf/crm/customerservice/idempotency/', we can see
+	 * how many POSTs were retried with the same Idempotency-Key and how many
+	 * keys were evicted or expired. The answer is 404/Not Found if
+	 * idempotency keys are switched off.
+	 */
+	@GET
+	@Path("/idempotency/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	public Response getIdempotencyStats() {
+		IdempotencyCache c = idempotency;
+		if (c == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.ok(new IdempotencyStats(c)).build();
+	}
+
+	/**
+	 * Using HTTP GET of
+	 * 'http://localhost:8181/cxf/crm/customerservice/export/customers/', we
+	 * get every customer with its orders as newline-delimited JSON, one
+	 * customer per line, written while the customers are read from the store.
+	 * A customer changed meanwhile is written either as it was before or after
+	 * the change.
+	 */
+	@GET
+	@Path("/export/customers/")
+	@Produces(NDJSON)
+	public Response exportCustomers() {
+		return Response.ok(new EntityStream<Customer>(store.getCustomers(0), 0, EntityStream.NDJSON_TYPE, null))
+				.build();
+	}
+
+	/**
+	 * Using HTTP GET of
+	 * 'http://localhost:8181/cxf/crm/customerservice/export/products/', we
+	 * get every product as newline-delimited JSON, see exportCustomers.
+	 */
+	@GET
+	@Path("/export/products/")
+	@Produces(NDJSON)
+	public Response exportProducts() {
+		return Response.ok(new EntityStream<Product>(store.getProducts(0), 0, EntityStream.NDJSON_TYPE, null))
+				.build();
+	}
+
+	/**
+	 * Using HTTP POST of newline-delimited JSON, one customer with its orders
+	 * per line, to
+	 * 'http://localhost:8181/cxf/crm/customerservice/import/customers/', we
+	 * can add any number of customers with a single request. The lines are
+	 * added in parallel while the request is still being read, and the
+	 * returned ImportResult counts the customers added and gives the number
+	 * and the reason of every line that failed. With 'keepIds=true' the
+	 * customers keep the ids they carry, as in an export, and replace any
+	 * customer with the same id. The answer is 404/Not Found if no BulkImport
+	 * is set.
+	 */
+	@POST
+	@Path("/import/customers/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes(NDJSON)
+	public Response importCustomers(InputStream lines, @QueryParam("keepIds") boolean keepIds) throws IOException {
+		BulkImport b = bulkImport;
+		if (b == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.ok(b.importCustomers(lines, keepIds)).build();
+	}
+
+	/**
+	 * Using HTTP POST of newline-delimited JSON, one product per line, to
+	 * 'http://localhost:8181/cxf/crm/customerservice/import/products/', we
+	 * can add any number of products with a single request, see
+	 * importCustomers.
+	 */
+	@POST
+	@Path("/import/products/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	@Consumes(NDJSON)
+	public Response importProducts(InputStream lines, @QueryParam("keepIds") boolean keepIds) throws IOException {
+		BulkImport b = bulkImport;
+		if (b == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.ok(b.importProducts(lines, keepIds)).build();
+	}
+
+	/**
+	 * Using HTTP GET of
+	 * 'http://localhost:8181/cxf/crm/customerservice/reports/sales/', we get
+	 * the revenue and units sold of the 'limit' products with the highest
+	 * revenue and of the 'limit' best sellers, 10 by default and all with 0,
+	 * and the distributions of order totals and of units per order.
+	 * <p/>
+	 * The report is computed over all customers in parallel and kept for the
+	 * configured number of seconds; 'maxAge' asks for a report at most that
+	 * many seconds old, 'maxAge=0' for a new one. The answer is 404/Not Found
+	 * if no Reports are set.
+	 */
+	@GET
+	@Path("/reports/sales/")
+	@Produces({ "application/xml", "application/json", CBOR, SMILE })
+	public Response getSalesReport(@QueryParam("limit") @DefaultValue("10") int limit,
+			@QueryParam("maxAge") Long maxAge) {
+		Reports r = reports;
+		if (r == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		long maxAgeMillis = maxAge == null ? Long.MAX_VALUE : Math.max(0, maxAge.longValue()) * 1000;
+		return Response.ok(new SalesReport(r.getReport(maxAgeMillis), limit)).build();
+	}
+
+	/**
+	 * Using HTTP GET of
+	 * 'http://localhost:8181/cxf/crm/customerservice/metrics/', we get the
+	 * request counters, latency and size distributions of every operation and
+	 * the sizes of the store in the Prometheus text format. The answer is
+	 * 404/Not Found if no Metrics are set.
+	 */
+	@GET
+	@Path("/metrics/")
+	@Produces("text/plain; version=0.0.4")
+	public Response getMetrics() {
+		Metrics m = metrics;
+		if (m == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.ok(m.toPrometheus()).build();
+	}
+
+	/**
+	 * The same figures as the method above, as a MetricsReport, for clients
+	 * that ask for JSON or XML.
+	 */
+	@GET
+	@Path("/metrics/")
+	@Produces({ "application/json", "application/xml" })
+	public Response getMetricsReport() {
+		Metrics m = metrics;
+		if (m == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		return Response.ok(new MetricsReport(m)).build();
+	}
+
+	/**
+	 * Using HTTP GET of
+	 * 'http://localhost:8181/cxf/crm/customerservice/changes/', we subscribe to
+	 * the changes made to customers, orders and products, as Server-Sent Events.
+	 * The stream starts with the changes made after the one whose id is sent in
+	 * the Last-Event-ID header, or in the 'after' query parameter, and with new
+	 * changes if neither is sent. See ChangeStream for the events.
+	 * <p/>
+	 * Every subscriber holds a transport thread for as long as it is connected.
+	 * The answer is 503/Service Unavailable when there are as many subscribers
+	 * as the feed allows, and 404/Not Found if no ChangeFeed is set.
+	 */
+	@GET
+	@Path("/changes/")
+	@Produces("text/event-stream")
+	public Response getChanges(@HeaderParam("Last-Event-ID") String lastEventId, @QueryParam("after") Long after) {
+		ChangeFeed f = changeFeed;
+		if (f == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		long from = -1;
+		if (lastEventId != null && !lastEventId.trim().isEmpty()) {
+			try {
+				from = Long.parseLong(lastEventId.trim());
+			} catch (NumberFormatException e) {
+				return Response.status(Response.Status.BAD_REQUEST).build();
+			}
+		} else if (after != null) {
+			from = after.longValue();
+		}
+		return Response.ok(new ChangeStream(f, from), ChangeStream.SSE_TYPE)
+				.header(HttpHeaders.CACHE_CONTROL, "no-cache").build();
+	}
+
+	private BatchResult result(int kind, List<? extends Entity> entities, boolean[] updated) {
+		BatchResult result = new BatchResult(updated.length);
+		for (int i = 0; i < updated.length; i++) {
+			if (updated[i]) {
+				invalidate(kind, 0, entities.get(i).getId());
+			}
+			result.add(entities.get(i).getId(), status(updated[i]));
+		}
+		return result;
+	}
+
+	/**
+	 * Parses an id from the path. Anything that is not a positive decimal
+	 * number yields -1, which no entity has, so that the request is answered
+	 * 404/Not Found without an exception being thrown.
+	 */
+	static long id(String s) {
+		int n = s == null ? 0 : s.length();
+		if (n == 0 || n > 18) {
+			return -1;
+		}
+		long id = 0;
+		for (int i = 0; i < n; i++) {
+			char ch = s.charAt(i);
+			if (ch < '0' || ch > '9') {
+				return -1;
+			}
+			id = id * 10 + (ch - '0');
+		}
+		return id;
+	}
+
+	private static int status(boolean done) {
+		return done ? Response.Status.OK.getStatusCode() : Response.Status.NOT_FOUND.getStatusCode();
+	}
+
+	/**
+	 * Runs a write on the request executor and resumes the suspended request
+	 * with its outcome, a Response, an entity or an exception. Anything read
+	 * from the request context has to be read before, on the transport
+	 * thread. A full executor answers 503/Service Unavailable.
+	 */
+	private void dispatch(final AsyncResponse async, final Callable<Object> write) {
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					Object result;
+					try {
+						result = write.call();
+					} catch (Throwable e) {
+						async.resume(e);
+						return;
+					}
+					durable(write, null);
+					async.resume(result);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected(write);
+			async.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+		}
+	}
+
+	/**
+	 * Runs a write of the given customer like dispatch(AsyncResponse,
+	 * Callable), on the customer's shard if the executor is sharded. The
+	 * request is resumed once the write is durable, which a shard waits for
+	 * once for a whole batch of writes.
+	 */
+	private void dispatch(final AsyncResponse async, long customerId, final Callable<Object> write) {
+		try {
+			executor.execute(customerId, new Runnable() {
+				public void run() {
+					Object result;
+					try {
+						result = write.call();
+					} catch (Throwable e) {
+						result = e;
+					}
+					final Object outcome = result;
+					RequestExecutor.whenDurable(new RequestExecutor.Completion() {
+						public void complete(RuntimeException failure) {
+							durable(write, failure);
+							if (failure != null) {
+								async.resume(failure);
+							} else if (outcome instanceof Throwable) {
+								async.resume((Throwable) outcome);
+							} else {
+								async.resume(outcome);
+							}
+						}
+					});
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected(write);
+			async.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+		}
+	}
+
+	/**
+	 * Returns the Idempotency-Key of a POST, scoped by the path it was sent
+	 * to, or null if it has none or there is no idempotency cache.
+	 */
+	private String idempotencyKey(String path) {
+		if (idempotency == null) {
+			return null;
+		}
+		String key = jaxrsContext.getHttpHeaders().getHeaderString(IDEMPOTENCY_KEY);
+		return key == null || key.isEmpty() ? null : path + ' ' + key;
+	}
+
+	/**
+	 * Claims the idempotency key of a POST, or resumes the request with the
+	 * stored answer of the request that claimed it before, or with
+	 * 409/Conflict while that one still runs.
+	 *
+	 * @return whether the request was answered
+	 */
+	private boolean replayed(AsyncResponse async, String key) {
+		IdempotencyCache c = idempotency;
+		if (key == null || c == null) {
+			return false;
+		}
+		IdempotencyCache.Entry e = c.claim(key);
+		if (e == null) {
+			return false;
+		}
+		if (e.isPending()) {
+			async.resume(Response.status(Response.Status.CONFLICT).build());
+		} else {
+			async.resume(Response.status(e.getStatus()).type(e.getType()).entity(e.getBody())
+					.header(IDEMPOTENT_REPLAYED, "true").build());
+		}
+		return true;
+	}
+
+	/**
+	 * Wraps a write whose idempotency key was claimed, so that its answer is
+	 * stored under the key if it succeeds and is durable, and the key is
+	 * released otherwise.
+	 */
+	private Callable<Object> idempotent(String key, Callable<Object> write) {
+		IdempotencyCache c = idempotency;
+		return key == null || c == null ? write : new IdempotentWrite(c, key, write);
+	}
+
+	/**
+	 * Releases the idempotency key of a write the executor turned away, so
+	 * that a retry of the request, which a 503 invites, is not answered with
+	 * 409/Conflict until the key expires.
+	 */
+	private static void rejected(Callable<Object> write) {
+		if (write instanceof IdempotentWrite) {
+			((IdempotentWrite) write).release();
+		}
+	}
+
+	/**
+	 * Stores the answer of a write under its idempotency key once the journal
+	 * has made the write durable, or releases the key if it could not, so
+	 * that a retry runs the write again rather than replaying an answer for a
+	 * write that was lost. Called by the thread that ran the write.
+	 */
+	private static void durable(Callable<Object> write, RuntimeException failure) {
+		if (write instanceof IdempotentWrite) {
+			((IdempotentWrite) write).durable(failure);
+		}
+	}
+
+	/**
+	 * A write whose answer, if it succeeds, is buffered by call and stored
+	 * under the key by durable.
+	 */
+	private static final class IdempotentWrite implements Callable<Object> {
+		private final IdempotencyCache cache;
+		private final String key;
+		private final Callable<Object> write;
+		private Response answer;
+
+		IdempotentWrite(IdempotencyCache cache, String key, Callable<Object> write) {
+			this.cache = cache;
+			this.key = key;
+			this.write = write;
+		}
+
+		void release() {
+			cache.release(key);
+		}
+
+		void durable(RuntimeException failure) {
+			Response r = answer;
+			if (r == null) {
+				return;
+			}
+			answer = null;
+			if (failure != null) {
+				release();
+			} else {
+				cache.complete(key, r.getStatus(), r.getMediaType(), (byte[]) r.getEntity());
+			}
+		}
+
+		public Object call() throws Exception {
+			Object result;
+			try {
+				result = write.call();
+			} catch (Exception e) {
+				release();
+				throw e;
+			} catch (Error e) {
+				release();
+				throw e;
+			}
+			Response r = result instanceof Response ? (Response) result : null;
+			if (r == null || r.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+				release();
+				return result;
+			}
+			Object entity = r.getEntity();
+			byte[] body = entity == null ? null : EntityStream.toBytes(entity, r.getMediaType());
+			answer = Response.status(r.getStatus()).type(r.getMediaType()).entity(body).build();
+			return answer;
+		}
+	}
+
+	/**
+	 * Hands an order line write to the order line pipeline, if there is a
+	 * running one, which resumes the request once the batch holding the write
+	 * is applied and durable. A full pipeline answers 503/Service Unavailable.
+	 *
+	 * @return false if there is no pipeline, so the caller dispatches the
+	 *         write itself
+	 */
+	private boolean pipelined(final AsyncResponse async, OrderLineOperation.Action action, final long customerId,
+			final long orderId, final long productId, Precondition condition) {
+		OrderLinePipeline p = pipeline;
+		if (p == null || !p.isRunning()) {
+			return false;
+		}
+		OrderLineOperation op = new OrderLineOperation();
+		op.setAction(action);
+		op.setCustomerId(customerId);
+		op.setOrderId(orderId);
+		op.setProductId(productId);
+		try {
+			p.submit(op, condition, new OrderLinePipeline.Completion() {
+				public void complete(boolean applied, RuntimeException error) {
+					if (error != null) {
+						async.resume(error);
+					} else if (applied) {
+						invalidateOrderLine(customerId, orderId, productId);
+						async.resume(Response.ok().build());
+					} else {
+						async.resume(Response.status(Response.Status.NOT_FOUND).build());
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			async.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+		}
+		return true;
+	}
+
+	/**
+	 * Answers a GET of a single entity with its entity tag, or with 304/Not
+	 * Modified if the client already has the representation with that tag.
+	 */
+	private Response tagged(Entity entity) {
+		return tagged(-1, 0, entity);
+	}
+
+	/**
+	 * Answers a GET of a single entity like tagged(Entity), taking the body
+	 * from the response cache if the entity has not changed since it was
+	 * last serialized in the media type the client accepts.
+	 *
+	 * @param kind the kind of entity in the cache, -1 not to cache it
+	 * @param owner the customer id of an order, zero otherwise
+	 */
+	private Response tagged(int kind, long owner, Entity entity) {
+		if (entity == null) {
+			return Response.status(Response.Status.NOT_FOUND).build();
+		}
+		String tag = ETags.of(entity);
+		EntityTag etag = new EntityTag(tag);
+		Response.ResponseBuilder r = jaxrsContext.getRequest().evaluatePreconditions(etag);
+		ResponseCache c = cache;
+		if (r == null && c != null && kind >= 0) {
+			Variant variant = jaxrsContext.getRequest().selectVariant(VARIANTS);
+			MediaType type = variant == null ? null : variant.getMediaType();
+			byte[] body = type == null ? null : c.get(kind, owner, entity.getId(), type, tag);
+			if (body == null && type != null) {
+				body = EntityStream.toBytes(entity, type);
+				if (tag.equals(ETags.of(entity))) {
+					c.put(kind, owner, entity.getId(), type, tag, body);
+				}
+			}
+			if (body != null) {
+				r = Response.ok(body, type);
+			}
+		}
+		if (r == null) {
+			r = Response.ok(entity);
+		}
+		return r.tag(etag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+	}
+
+	private void invalidate(int kind, long owner, long id) {
+		ResponseCache c = cache;
+		if (c != null) {
+			c.invalidate(kind, owner, id);
+		}
+	}
+
+	/**
+	 * A product added to or removed from an order changes the order, its
+	 * customer and the quantity ordered of the product.
+	 */
+	private void invalidateOrderLine(long customerId, long orderId, long productId) {
+		invalidate(ResponseCache.CUSTOMER, 0, customerId);
+		invalidate(ResponseCache.ORDER, customerId, orderId);
+		invalidate(ResponseCache.PRODUCT, 0, productId);
+	}
+
+	/**
+	 * Returns the check of the If-Match and If-None-Match headers of a write,
+	 * for the store to run under the lock of the entity, or null if the
+	 * request has neither. A failed check answers 412/Precondition Failed.
+	 */
+	private Precondition precondition() {
+		HttpHeaders headers = jaxrsContext.getHttpHeaders();
+		if (headers.getHeaderString(HttpHeaders.IF_MATCH) == null
+				&& headers.getHeaderString(HttpHeaders.IF_NONE_MATCH) == null) {
+			return null;
+		}
+		final Request request = jaxrsContext.getRequest();
+		return new Precondition() {
+			public void check(String tag) {
+				Response.ResponseBuilder r = request.evaluatePreconditions(new EntityTag(tag));
+				if (r != null) {
+					throw new WebApplicationException(r.build());
+				}
+			}
+		};
+	}
+
+	/**
+	 * Builds the response for one page of a collection. A full page links to
+	 * the next one, which starts after the last id on this page.
+	 */
+	private Response page(GenericEntity<? extends List<? extends Entity>> entity, List<? extends Entity> page,
+			int limit) {
+		Response.ResponseBuilder r = Response.ok(entity);
+		if (limit > 0 && page.size() == limit) {
+			long last = page.get(page.size() - 1).getId();
+			r.link(jaxrsContext.getUriInfo().getRequestUriBuilder().replaceQueryParam("after", last).build(),
+					"next");
+		}
+		return r.build();
+	}
+
+	/**
+	 * Builds a response that writes the entities while they are being read
+	 * from the store, in the representation the client accepts.
+	 */
+	private <T> Response stream(Iterator<T> entities, int limit, String wrapper) {
+		MediaType type = MediaType.APPLICATION_XML_TYPE;
+		for (MediaType acceptable : jaxrsContext.getHttpHeaders().getAcceptableMediaTypes()) {
+			if (EntityStream.mapperFor(acceptable) != null) {
+				type = new MediaType(acceptable.getType(), acceptable.getSubtype());
+				break;
+			}
+			if (MediaType.APPLICATION_XML_TYPE.isCompatible(acceptable)) {
+				break;
+			}
+		}
+		return Response.ok(new EntityStream<T>(entities, limit, type, wrapper), type).build();
+	}
+
+	/**
+	 * Returns the type to answer a create in: the type of its body for JSON,
+	 * CBOR and Smile, XML otherwise.
+	 */
+	private static MediaType answerType(MediaType type) {
+		if (EntityStream.mapperFor(type) != null) {
+			return new MediaType(type.getType(), type.getSubtype());
+		}
+		return MediaType.APPLICATION_XML_TYPE;
+	}
+
+	public EntityStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Sets where the writes run once their request is suspended, see
+	 * RequestExecutor. Without one they run on the transport thread.
+	 */
+	public void setRequestExecutor(RequestExecutor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the pipeline that applies the PUTs and DELETEs of order lines in
+	 * batches. Without a running one they are dispatched like other writes.
+	 */
+	public void setOrderLinePipeline(OrderLinePipeline pipeline) {
+		this.pipeline = pipeline;
+	}
+
+	/**
+	 * Sets the cache of the answers to POSTs with an Idempotency-Key header.
+	 * Without one, or with one of no size, the header is ignored and every
+	 * POST adds an entity.
+	 */
+	public void setIdempotencyCache(IdempotencyCache idempotency) {
+		this.idempotency = idempotency != null && idempotency.getMaxBytes() > 0 ? idempotency : null;
+	}
+
+	public void setReports(Reports reports) {
+		this.reports = reports;
+	}
+
+	public void setBulkImport(BulkImport bulkImport) {
+		this.bulkImport = bulkImport;
+	}
+
+	/**
+	 * Sets the cache of serialized customers, orders and products. Without
+	 * one, or with one of no size, every GET marshals the entity.
+	 */
+	public void setResponseCache(ResponseCache cache) {
+		this.cache = cache != null && cache.getMaxBytes() > 0 ? cache : null;
+	}
+
+	/**
+	 * Sets the Metrics served at /metrics, which MetricsFilter records into.
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets the ChangeFeed served at /changes.
+	 */
+	public void setChangeFeed(ChangeFeed changeFeed) {
+		this.changeFeed = changeFeed;
 	}
 
 	@Context
@@ -580,4 +1756,4 @@ public class CustomerService {
 		this.jaxrsContext = messageContext;
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,67 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The CustomerSpend class reports how much a customer spent, the sum of the totals of all its orders.
+ * <p/>
+ * The XML representation of a CustomerSpend will look like this:
+ * <CustomerSpend>
+ * <id>123</id><name>John</name><spend>4599</spend>
+ * </CustomerSpend>
+ */
+@XmlRootElement(name = "CustomerSpend")
+public class CustomerSpend {
+
+	private long id;
+	private String name;
+	private long spend;
+
+	public CustomerSpend() {
+	}
+
+	public CustomerSpend(Customer customer, long spend) {
+		id = customer.getId();
+		name = customer.getName();
+		this.spend = spend;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public long getSpend() {
+		return spend;
+	}
+
+	public void setSpend(long spend) {
+		this.spend = spend;
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * The CustomerStorage interface is where EntityStore keeps its customers, together with their orders.
+ * HeapCustomerStorage keeps the Customer objects themselves; FileCustomerStorage keeps them serialized in a local file,
+ * usually behind a CachedCustomerStorage that holds the customers in use on the heap.
+ * <p/>
+ * As with ProductCatalog, callers must not rely on the identity of the customers returned: a customer, or one of its
+ * orders, changed after get has to be written back with replace. Reads may run concurrently with writes; EntityStore
+ * serializes the writes of a customer with its customer lock.
+ */
+public interface CustomerStorage {
+
+	/**
+	 * @return the customer with the given id, or null
+	 */
+	Customer get(long id);
+
+	/**
+	 * Adds the customer, or replaces the customer with the same id.
+	 *
+	 * @return the customer replaced, or null
+	 */
+	Customer put(Customer customer);
+
+	/**
+	 * Writes back a customer that was changed in place, if it is still stored.
+	 *
+	 * @return whether there was a customer to replace
+	 */
+	boolean replace(Customer customer);
+
+	/**
+	 * @return the customer removed, or null
+	 */
+	Customer remove(long id);
+
+	boolean isEmpty();
+
+	/**
+	 * Returns a weakly consistent view of all customers.
+	 */
+	Collection<Customer> values();
+
+	/**
+	 * Iterates the customers with an id greater than 'after' and at most 'last', in id order.
+	 */
+	Iterator<Customer> iterator(long after, long last);
+
+	/**
+	 * Releases what the storage holds outside of the heap.
+	 */
+	void close();
+}
@@ -0,0 +1,46 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.io.IOException;
+
+/**
+ * Creates the CustomerStorage named by the 'storage.type' setting in blueprint.
+ */
+public final class CustomerStorages {
+
+	public static final String HEAP = "heap";
+	public static final String FILE = "file";
+
+	private CustomerStorages() {
+	}
+
+	/**
+	 * @param directory where a file storage keeps its file
+	 * @param cacheBytes the memory for the customers a file storage keeps on the heap, 0 for none
+	 */
+	public static CustomerStorage create(String type, String directory, long cacheBytes) throws IOException {
+		if (HEAP.equalsIgnoreCase(type)) {
+			return new HeapCustomerStorage();
+		}
+		if (FILE.equalsIgnoreCase(type)) {
+			FileCustomerStorage file = new FileCustomerStorage(directory);
+			return cacheBytes > 0 ? new CachedCustomerStorage(file, cacheBytes) : file;
+		}
+		throw new IllegalArgumentException("Unknown customer storage type '" + type + "', use " + HEAP + " or "
+				+ FILE);
+	}
+}
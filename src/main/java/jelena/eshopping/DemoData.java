@@ -0,0 +1,64 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The DemoData class inserts the customer 123 with order 223 and the product 323 that the examples in the README
+ * refer to. It runs once at startup, from blueprint, and only fills an empty store, so a store recovered from the
+ * journal is left alone. Set 'demo.enabled' to false to start with an empty store.
+ */
+public class DemoData {
+
+	private static final Logger LOG = LoggerFactory.getLogger(DemoData.class);
+
+	static final long CUSTOMER_ID = 123;
+	static final long ORDER_ID = 223;
+	static final long PRODUCT_ID = 323;
+
+	private final EntityStore store;
+	private boolean enabled = true;
+
+	public DemoData(EntityStore store) {
+		this.store = store;
+	}
+
+	public void load() {
+		if (!enabled || !store.isEmpty()) {
+			return;
+		}
+		Product p = new Product();
+		p.setId(PRODUCT_ID);
+		p.setPrice(1000);
+		store.putProduct(p);
+
+		Order o = new Order();
+		o.setId(ORDER_ID);
+		o.setDescription("order " + ORDER_ID);
+		Customer c = new Customer();
+		c.setId(CUSTOMER_ID);
+		c.setName("Jelena Katusic");
+		c.orders().put(o.getId(), o);
+		store.putCustomer(c);
+		LOG.info("Loaded the demo customer {} and product {}", CUSTOMER_ID, PRODUCT_ID);
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+/**
+ * Computes the entity tags CustomerService sends with an entity, from versions rather than from the serialized bytes.
+ * <p/>
+ * The representation of an order includes its lines, and that of a customer its orders, so their tags mix in the
+ * tags of what they contain: adding a product to an order, or a change of price of one of its products, changes the
+ * tag of the order and of its customer. The contents are summed, as the maps have no fixed iteration order. Lines
+ * are tagged by their quantity and price as well as their version, which is not journaled.
+ */
+public final class ETags {
+
+	private ETags() {
+	}
+
+	public static String of(Entity entity) {
+		long hash;
+		if (entity instanceof Customer) {
+			hash = hash((Customer) entity);
+		} else if (entity instanceof Order) {
+			hash = hash((Order) entity);
+		} else if (entity instanceof OrderLine) {
+			hash = hash((OrderLine) entity);
+		} else {
+			hash = hash(entity.getId(), entity.getVersion());
+		}
+		return Long.toHexString(hash);
+	}
+
+	private static long hash(Customer customer) {
+		long hash = hash(customer.getId(), customer.getVersion());
+		for (Order o : customer.orderValues()) {
+			hash += mix(hash(o));
+		}
+		return hash;
+	}
+
+	private static long hash(Order order) {
+		long hash = hash(order.getId(), order.getVersion());
+		for (OrderLine line : order.lineValues()) {
+			hash += mix(hash(line));
+		}
+		return hash;
+	}
+
+	private static long hash(OrderLine line) {
+		return mix(hash(line.getId(), line.getVersion()) ^ mix(line.getQuantity()) ^ line.getUnitPrice());
+	}
+
+	private static long hash(long id, long version) {
+		return mix(mix(id) ^ version);
+	}
+
+	/**
+	 * The finalizer of MurmurHash3, so that neighbouring ids and versions give unrelated tags.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
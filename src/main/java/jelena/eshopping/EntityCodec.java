@@ -0,0 +1,222 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The EntityCodec class writes customers, orders and products in a compact binary form and reads them back. It is
+ * used for the journal and for snapshots.
+ * <p/>
+ * Writing does not allocate: the size of an entity is computed up front with sizeOf, so callers can reserve the
+ * space, and strings are encoded to UTF-8 straight into the buffer. Callers must keep the entity from changing
+ * between sizeOf and put, i.e. hold the customer's lock in EntityStore.
+ */
+public final class EntityCodec {
+
+	private static final int PRODUCT_SIZE = 8 + 8 + 4 + 8;
+	static final int LINE_SIZE = 8 + 4 + 8;
+
+	private EntityCodec() {
+	}
+
+	public static int sizeOf(Product p) {
+		return PRODUCT_SIZE;
+	}
+
+	public static void put(ByteBuffer b, Product p) {
+		b.putLong(p.getId());
+		b.putLong(p.getPrice());
+		b.putInt(p.getQuantityOrdered());
+		b.putLong(p.getVersion());
+	}
+
+	public static Product getProduct(ByteBuffer b) {
+		Product p = new Product();
+		p.setId(b.getLong());
+		p.setPrice(b.getLong());
+		p.setQuantityOrdered(b.getInt());
+		p.version(b.getLong());
+		return p;
+	}
+
+	public static int sizeOf(Order o) {
+		return 8 + sizeOf(o.getDescription()) + 8 + 8 + 4 + o.lineCount() * LINE_SIZE;
+	}
+
+	public static void put(ByteBuffer b, Order o) {
+		b.putLong(o.getId());
+		putString(b, o.getDescription());
+		b.putLong(o.getTotal());
+		b.putLong(o.getVersion());
+		b.putInt(o.lineCount());
+		for (OrderLine line : o.lineValues()) {
+			b.putLong(line.getId());
+			b.putInt(line.getQuantity());
+			b.putLong(line.getUnitPrice());
+		}
+	}
+
+	public static Order getOrder(ByteBuffer b) {
+		Order o = new Order();
+		o.setId(b.getLong());
+		o.setDescription(getString(b));
+		b.getLong(); // the total, summed up again from the lines
+		o.version(b.getLong());
+		int lines = b.getInt();
+		long total = 0;
+		for (int i = 0; i < lines; i++) {
+			OrderLine line = new OrderLine(b.getLong(), b.getInt(), b.getLong());
+			o.lines().put(line.getId(), line);
+			total += line.amount();
+		}
+		o.total(total);
+		return o;
+	}
+
+	/**
+	 * An order of a customer is written together with the customer id, the order id counter of the store and the
+	 * version of the customer, so that restoreOrder can put it back on its own.
+	 */
+	public static int sizeOf(Customer c, Order o) {
+		return 8 + 8 + 8 + sizeOf(o);
+	}
+
+	public static void put(ByteBuffer b, Customer c, Order o, long currentOrderId) {
+		b.putLong(c.getId());
+		b.putLong(currentOrderId);
+		b.putLong(c.getVersion());
+		put(b, o);
+	}
+
+	public static void restoreOrder(ByteBuffer b, EntityStore store) {
+		long customerId = b.getLong();
+		long currentOrderId = b.getLong();
+		long version = b.getLong();
+		store.restoreOrder(customerId, currentOrderId, version, getOrder(b));
+	}
+
+	public static int sizeOf(Customer c) {
+		int size = 8 + sizeOf(c.getName()) + 8 + 8 + 4;
+		for (Order o : c.orderValues()) {
+			size += sizeOf(o);
+		}
+		return size;
+	}
+
+	/**
+	 * A customer is written with its orders and, like an order, with the order id counter of the store.
+	 */
+	public static void put(ByteBuffer b, Customer c, long currentOrderId) {
+		b.putLong(c.getId());
+		putString(b, c.getName());
+		b.putLong(currentOrderId);
+		b.putLong(c.getVersion());
+		b.putInt(c.orderCount());
+		for (Order o : c.orderValues()) {
+			put(b, o);
+		}
+	}
+
+	public static void restoreCustomer(ByteBuffer b, EntityStore store) {
+		// the counter follows the id and the name
+		int nameLength = b.getInt(b.position() + 8);
+		store.restoreOrderId(b.getLong(b.position() + 12 + Math.max(0, nameLength)));
+		store.putCustomer(getCustomer(b));
+	}
+
+	/**
+	 * Reads a customer with its orders, skipping the order id counter it was written with.
+	 */
+	public static Customer getCustomer(ByteBuffer b) {
+		Customer c = new Customer();
+		c.setId(b.getLong());
+		c.setName(getString(b));
+		b.getLong();
+		c.version(b.getLong());
+		int orders = b.getInt();
+		for (int i = 0; i < orders; i++) {
+			Order o = getOrder(b);
+			o.customerId = c.getId();
+			c.orders().put(o.getId(), o);
+		}
+		return c;
+	}
+
+	/**
+	 * Strings are written as their UTF-8 length followed by the bytes, null as length -1.
+	 */
+	public static int sizeOf(String s) {
+		if (s == null) {
+			return 4;
+		}
+		int size = 4;
+		for (int i = 0; i < s.length(); i++) {
+			char ch = s.charAt(i);
+			if (ch < 0x80) {
+				size += 1;
+			} else if (ch < 0x800) {
+				size += 2;
+			} else if (Character.isHighSurrogate(ch) && i + 1 < s.length()
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				size += 4;
+				i++;
+			} else {
+				size += 3;
+			}
+		}
+		return size;
+	}
+
+	public static void putString(ByteBuffer b, String s) {
+		if (s == null) {
+			b.putInt(-1);
+			return;
+		}
+		b.putInt(sizeOf(s) - 4);
+		for (int i = 0; i < s.length(); i++) {
+			char ch = s.charAt(i);
+			if (ch < 0x80) {
+				b.put((byte) ch);
+			} else if (ch < 0x800) {
+				b.put((byte) (0xC0 | ch >> 6));
+				b.put((byte) (0x80 | ch & 0x3F));
+			} else if (Character.isHighSurrogate(ch) && i + 1 < s.length()
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(ch, s.charAt(++i));
+				b.put((byte) (0xF0 | cp >> 18));
+				b.put((byte) (0x80 | cp >> 12 & 0x3F));
+				b.put((byte) (0x80 | cp >> 6 & 0x3F));
+				b.put((byte) (0x80 | cp & 0x3F));
+			} else {
+				b.put((byte) (0xE0 | ch >> 12));
+				b.put((byte) (0x80 | ch >> 6 & 0x3F));
+				b.put((byte) (0x80 | ch & 0x3F));
+			}
+		}
+	}
+
+	public static String getString(ByteBuffer b) {
+		int length = b.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		b.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,1350 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jelena.eshopping.journal.Journal;
+
+/**
+ * The EntityStore class holds the customers and products served by CustomerService.
+ * <p/>
+ * CXF dispatches requests from many Jetty threads, so the store is safe for concurrent use: the heap storages are
+ * StripedLongMaps, new ids are handed out by atomic counters and every mutation of a customer's orders (and of the
+ * products on those orders) runs under a lock striped by customer id. Products are updated under a second set of
+ * locks, striped by product id, which are always taken after the customer lock. Reads never take a lock.
+ * <p/>
+ * The products live in a ProductCatalog, on the heap by default. A catalog may hand out copies, so a product that is
+ * changed in place is written back to the catalog while its lock is held.
+ * <p/>
+ * If a Journal is attached, every mutation is appended to it while the lock is still held, so the journal sees the
+ * mutations of an entity in the order they were applied. The mutation then waits for the journal to make it durable,
+ * according to the journal's fsync policy, after releasing the lock. Before a mutation is applied, the journal
+ * prepares for its record, so a mutation the journal could not take fails without having changed anything.
+ * <p/>
+ * If a ChangeFeed is attached, every mutation is published to it under the same lock, right after it is journaled.
+ * <p/>
+ * Order lines carry the price of their product, which the store sets when the line is added and whenever the price
+ * changes. An OrderIndex of the orders of every product, kept up to date under the customer locks, lets a change of
+ * price reprice just the orders holding the product, split into tasks of REPRICE_CHUNK orders that run in parallel.
+ * Repricing takes one customer lock at a time, after the product lock has been released, and always applies the
+ * price the catalog has at that moment, so concurrent changes of the same price leave the latest one on every line.
+ * <p/>
+ * Order ids come from a single counter, so they are unique across customers, and a LongTable maps every order id to
+ * the customer holding it. An order is found by its id alone with two lookups that need no key objects: its customer
+ * in the table, then the order in the customer. Orders sent with a new or replaced customer get ids of their own,
+ * except for the orders a replaced customer already had.
+ * <p/>
+ * The customers, with their orders, live in a CustomerStorage, on the heap by default. A storage may hand out copies,
+ * so a customer that is changed in place is written back to the storage while its lock is held. The product index
+ * and the order table hold ids only, so a storage can keep customers that are not in use off the heap.
+ * <p/>
+ * Unless indexed queries are switched off, two TotalIndexes answer queries by amount without walking the customers:
+ * one sorts the orders by total, the other the customers by spend, the sum of the totals of their orders. Both are
+ * kept in step under the customer locks by every change of an order's lines or prices.
+ */
+public class EntityStore {
+
+	private static final long FIRST_CUSTOMER_ID = 123;
+	private static final long FIRST_PRODUCT_ID = 323;
+	private static final long FIRST_ORDER_ID = 223;
+	private static final int REPRICE_CHUNK = 512;
+
+	/**
+	 * The highest journal position a thread deferring durability has left unsynced, see deferDurability.
+	 */
+	private static final ThreadLocal<long[]> DEFERRED_LSN = new ThreadLocal<long[]>();
+
+	private final CustomerStorage customers;
+	private final LongTable orderCustomers = new LongTable();
+	private final ProductCatalog products;
+	private final AtomicLong currentId = new AtomicLong(FIRST_CUSTOMER_ID);
+	private final AtomicLong currentProductId = new AtomicLong(FIRST_PRODUCT_ID);
+	private final AtomicLong currentOrderId = new AtomicLong(FIRST_ORDER_ID);
+	private final ReentrantLock[] locks;
+	private final ReentrantLock[] productLocks;
+	private final OrderIndex index;
+	private volatile TotalIndex orderTotals;
+	private volatile TotalIndex customerSpend;
+	private volatile ForkJoinPool repricer = ForkJoinPool.commonPool();
+	private volatile Journal journal;
+	private volatile ChangeFeed changeFeed;
+
+	/**
+	 * Receives every entity of the store, each one while its lock is held.
+	 */
+	public interface Visitor {
+
+		void visit(Product product) throws IOException;
+
+		void visit(Customer customer) throws IOException;
+	}
+
+	public EntityStore() {
+		this(new HeapProductCatalog());
+	}
+
+	public EntityStore(ProductCatalog catalog) {
+		this(4 * Runtime.getRuntime().availableProcessors(), catalog);
+	}
+
+	/**
+	 * @param stripes the number of customer locks, rounded up to a power of two
+	 */
+	public EntityStore(int stripes) {
+		this(stripes, new HeapProductCatalog(stripes));
+	}
+
+	public EntityStore(int stripes, ProductCatalog catalog) {
+		this(stripes, catalog, new HeapCustomerStorage(stripes));
+	}
+
+	public EntityStore(ProductCatalog catalog, CustomerStorage storage) {
+		this(4 * Runtime.getRuntime().availableProcessors(), catalog, storage);
+	}
+
+	public EntityStore(int stripes, ProductCatalog catalog, CustomerStorage storage) {
+		locks = newLocks(stripes);
+		productLocks = newLocks(stripes);
+		customers = storage;
+		products = catalog;
+		index = new OrderIndex(stripes);
+		orderTotals = new TotalIndex(stripes);
+		customerSpend = new TotalIndex(stripes);
+	}
+
+	/**
+	 * Sets the number of threads that reprice orders after a change of price, or zero to use the common pool.
+	 */
+	public void setRepricingParallelism(int parallelism) {
+		repricer = parallelism > 0 ? new ForkJoinPool(parallelism) : ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Switches the indexes of order totals and customer spend on or off. They are on by default; switching them on
+	 * again rebuilds them from the customers, one customer lock at a time, while mutations go on.
+	 * <p/>
+	 * The new indexes are published before the rebuild, so mutations of customers it has not reached yet already
+	 * adjust them. The rebuild puts, rather than adds, what it finds under the lock of each customer, and removes
+	 * whatever spend such mutations left for a customer that is gone by the time it gets there.
+	 */
+	public void setIndexedQueries(boolean indexed) {
+		if (!indexed) {
+			orderTotals = null;
+			customerSpend = null;
+			return;
+		}
+		if (orderTotals != null) {
+			return;
+		}
+		TotalIndex totals = new TotalIndex(locks.length);
+		TotalIndex spend = new TotalIndex(locks.length);
+		orderTotals = totals;
+		customerSpend = spend;
+		for (long id = 1, last = currentId.get(); id <= last; id++) {
+			ReentrantLock lock = lockFor(id);
+			lock.lock();
+			try {
+				Customer c = customers.get(id);
+				if (c == null) {
+					spend.remove(id);
+					continue;
+				}
+				long sum = 0;
+				for (Order o : c.orderValues()) {
+					if (orderCustomers.get(o.getId()) == id) {
+						totals.put(o.getId(), o.getTotal());
+					}
+					sum += o.getTotal();
+				}
+				spend.put(id, sum);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	public boolean isIndexedQueries() {
+		return orderTotals != null;
+	}
+
+	/**
+	 * Attaches the journal that records every mutation from now on, or detaches it if null.
+	 */
+	public void setJournal(Journal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Attaches the feed that every mutation is published to from now on, or detaches it if null.
+	 */
+	public void setChangeFeed(ChangeFeed changeFeed) {
+		this.changeFeed = changeFeed;
+	}
+
+	public boolean isEmpty() {
+		return customers.isEmpty() && products.isEmpty();
+	}
+
+	public Customer getCustomer(long id) {
+		return customers.get(id);
+	}
+
+	/**
+	 * Returns a weakly consistent live view of all customers.
+	 */
+	public Collection<Customer> getCustomers() {
+		return customers.values();
+	}
+
+	/**
+	 * Iterates the customers with an id greater than 'after' in id order, without copying the map.
+	 */
+	public Iterator<Customer> getCustomers(long after) {
+		return customers.iterator(after, currentId.get());
+	}
+
+	public CustomerStorage getCustomerStorage() {
+		return customers;
+	}
+
+	public Customer addCustomer(Customer customer) {
+		priceLines(customer);
+		assignOrderIds(customer, null);
+		customer.setId(currentId.incrementAndGet());
+		putCustomerLocked(customer);
+		return customer;
+	}
+
+	/**
+	 * Adds all customers in one pass, handing out one block of consecutive ids.
+	 */
+	public void addCustomers(List<Customer> batch) {
+		for (Customer c : batch) {
+			priceLines(c);
+			assignOrderIds(c, null);
+		}
+		long id = currentId.getAndAdd(batch.size());
+		long lsn = 0;
+		for (Customer c : batch) {
+			c.setId(++id);
+			ReentrantLock lock = lockFor(id);
+			lock.lock();
+			try {
+				prepare(EntityCodec.sizeOf(c));
+				customers.put(c);
+				indexOrders(c);
+				lsn = Math.max(lsn, logCustomer(c));
+				publish(Change.Type.CUSTOMER_CREATED, id, 0, 0, c.getVersion());
+			} finally {
+				lock.unlock();
+			}
+		}
+		sync(lsn);
+	}
+
+	/**
+	 * Stores a customer under the id it already carries, e.g. for seed data, with its orders under theirs.
+	 */
+	public void putCustomer(Customer customer) {
+		advance(currentId, customer.getId());
+		for (Order o : customer.orderValues()) {
+			advance(currentOrderId, o.getId());
+		}
+		putCustomerLocked(customer);
+	}
+
+	/**
+	 * Stores a customer under the id it carries, as an import keeping ids does. A customer already stored under the
+	 * id is replaced as by updateCustomer: the replacement, and every order it keeps, get the version after the
+	 * current one, so that their tags change. An order id held by another customer is not taken over; the order gets
+	 * a new id instead.
+	 *
+	 * @return the replaced customer, or null if there was none
+	 */
+	public Customer importCustomer(Customer customer) {
+		priceLines(customer);
+		long id = customer.getId();
+		advance(currentId, id);
+		ReentrantLock lock = lockFor(id);
+		Customer current;
+		long lsn;
+		lock.lock();
+		try {
+			prepare(EntityCodec.sizeOf(customer));
+			current = customers.get(id);
+			if (current != null) {
+				unindexOrders(current);
+				customer.version(current.getVersion() + 1);
+			}
+			List<Order> list = customer.getOrders();
+			for (Order o : list) {
+				advance(currentOrderId, o.getId());
+				if (!orderCustomers.compareAndSet(o.getId(), 0, id) && orderCustomers.get(o.getId()) != id) {
+					o.setId(currentOrderId.incrementAndGet());
+					orderCustomers.compareAndSet(o.getId(), 0, id);
+				}
+				Order replaced = current == null ? null : current.getOrder(o.getId());
+				if (replaced != null) {
+					o.version(replaced.getVersion() + 1);
+				}
+			}
+			customer.setOrders(list);
+			customers.put(customer);
+			indexOrders(customer);
+			lsn = logCustomer(customer);
+			publish(current == null ? Change.Type.CUSTOMER_CREATED : Change.Type.CUSTOMER_UPDATED, id, 0, 0,
+					customer.getVersion());
+		} finally {
+			lock.unlock();
+		}
+		sync(lsn);
+		return current;
+	}
+
+	private void putCustomerLocked(Customer customer) {
+		ReentrantLock lock = lockFor(customer.getId());
+		long lsn;
+		lock.lock();
+		try {
+			prepare(EntityCodec.sizeOf(customer));
+			Customer replaced = customers.put(customer);
+			if (replaced != null) {
+				unindexOrders(replaced);
+			}
+			indexOrders(customer);
+			lsn = logCustomer(customer);
+			publish(Change.Type.CUSTOMER_CREATED, customer.getId(), 0, 0, customer.getVersion());
+		} finally {
+			lock.unlock();
+		}
+		sync(lsn);
+	}
+
+	public boolean updateCustomer(Customer customer) {
+		return updateCustomer(customer, null);
+	}
+
+	/**
+	 * Replaces the customer if the condition, when given, accepts the tag of the current one. The replacement gets
+	 * the next version.
+	 *
+	 * @return false if there is no such customer
+	 */
+	public boolean updateCustomer(Customer customer, Precondition condition) {
+		priceLines(customer);
+		ReentrantLock lock = lockFor(customer.getId());
+		long lsn;
+		lock.lock();
+		try {
+			if (!replaceCustomerLocked(customer, condition)) {
+				return false;
+			}
+			lsn = logCustomer(customer);
+			publish(Change.Type.CUSTOMER_UPDATED, customer.getId(), 0, 0, customer.getVersion());
+		} finally {
+			lock.unlock();
+		}
+		sync(lsn);
+		return true;
+	}
+
+	private boolean replaceCustomerLocked(Customer customer, Precondition condition) {
+		Customer current = customers.get(customer.getId());
+		if (current == null) {
+			return false;
+		}
+		if (condition != null) {
+			condition.check(ETags.of(current));
+		}
+		prepare(EntityCodec.sizeOf(customer));
+		assignOrderIds(customer, current);
+		customer.version(current.getVersion() + 1);
+		customers.put(customer);
+		unindexOrders(current);
+		indexOrders(customer);
+		return true;
+	}
+
+	/**
+	 * @return for every customer, whether it existed and was replaced
+	 */
+	public boolean[] updateCustomers(List<Customer> batch) {
+		boolean[] updated = new boolean[batch.size()];
+		long lsn = 0;
+		for (int i = 0; i < updated.length; i++) {
+			Customer customer = batch.get(i);
+			priceLines(customer);
+			ReentrantLock lock = lockFor(customer.getId());
+			lock.lock();
+			try {
+				updated[i] = replaceCustomerLocked(customer, null);
+				if (updated[i]) {
+					lsn = Math.max(lsn, logCustomer(customer));
+					publish(Change.Type.CUSTOMER_UPDATED, customer.getId(), 0, 0, customer.getVersion());
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		sync(lsn);
+		return updated;
+	}
+
+	public boolean deleteCustomer(long id) {
+		ReentrantLock lock = lockFor(id);
+		long lsn;
+		lock.lock();
+		try {
+			prepare(8);
+			Customer removed = customers.remove(id);
+			if (removed == null) {
+				return false;
+			}
+			unindexOrders(removed);
+			TotalIndex spend = customerSpend;
+			if (spend != null) {
+				spend.remove(id);
+			}
+			Journal j = journal;
+			lsn = j == null ? 0 : j.appendCustomerDeleted(id);
+			publish(Change.Type.CUSTOMER_DELETED, id, 0, 0, 0);
+		} finally {
+			lock.unlock();
+		}
+		sync(lsn);
+		return true;
+	}
+
+	/**
+	 * @return the order, or null if the customer has no such order
+	 */
+	public Order getOrder(long customerId, long orderId) {
+		Customer c = customers.get(customerId);
+		return c == null ? null : c.getOrder(orderId);
+	}
+
+	/**
+	 * @return the order with the given id, whichever customer holds it, or null
+	 */
+	public Order getOrder(long orderId) {
+		long customerId = orderCustomers.get(orderId);
+		return customerId == 0 ? null : getOrder(customerId, orderId);
+	}
+
+	/**
+	 * @return the id of the customer holding the order, or -1 if there is no such order
+	 */
+	public long getOrderCustomerId(long orderId) {
+		long customerId = orderCustomers.get(orderId);
+		return customerId == 0 ? -1 : customerId;
+	}
+
+	/**
+	 * @return the added order, or null if there is no such customer
+	 */
+	public Order addOrder(long customerId, Order order) {
+		priceLines(order);
+		ReentrantLock lock = lockFor(customerId);
+		long lsn;
+		lock.lock();
+		try {
+			Customer c = customers.get(customerId);
+			if (c == null) {
+				return null;
+			}
+			prepare(EntityCodec.sizeOf(c, order));
+			order.setId(currentOrderId.incrementAndGet());
+			c.addOrder(order);
+			customers.replace(c);
+			indexOrder(customerId, order);
+			Journal j = journal;
+			lsn = j == null ? 0 : j.appendOrder(c, order);
+			publish(Change.Type.ORDER_CREATED, customerId, order.getId(), 0, order.getVersion());
+		} finally {
+			lock.unlock();
+		}
+		sync(lsn);
+		return order;
+	}
+
+	public boolean deleteOrder(long customerId, long orderId) {
+		ReentrantLock lock = lockFor(customerId);
+		long lsn;
+		lock.lock();
+		try {
+			Customer c = customers.get(customerId);
+			Order o = c == null ? null : c.getOrder(orderId);
+			if (o == null) {
+				return false;
+			}
+			prepare(8 + 8);
+			c.deleteOrder(orderId);
+			customers.replace(c);
+			unindexOrder(o);
+			Journal j = journal;
+			lsn = j == null ? 0 : j.appendOrderDeleted(customerId, orderId);
+			publish(Change.Type.ORDER_DELETED, customerId, orderId, 0, 0);
+		} finally {
+			lock.unlock();
+		}
+		sync(lsn);
+		return true;
+	}
+
+	/**
+	 * @return false if the customer, order or product does not exist
+	 */
+	public boolean addOrderProduct(long customerId, long orderId, long productId) {
+		return addOrderProduct(customerId, orderId, productId, null);
+	}
+
+	/**
+	 * Adds the product if the condition, when given, accepts the tag of the order.
+	 *
+	 * @return false if the customer, order or product does not exist
+	 */
+	public boolean addOrderProduct(long customerId, long orderId, long productId, Precondition condition) {
+		ReentrantLock lock = lockFor(customerId);
+		long lsn;
+		lock.lock();
+		try {
+			lsn = addOrderProductLocked(customerId, orderId, productId, condition);
+		} finally {
+			lock.unlock();
+		}
+		sync(lsn);
+		return lsn >= 0;
+	}
+
+	public boolean deleteOrderProduct(long customerId, long orderId, long productId) {
+		ReentrantLock lock = lockFor(customerId);
+		long lsn;
+		lock.lock();
+		try {
+			lsn = deleteOrderProductLocked(customerId, orderId, productId);
+		} finally {
+			lock.unlock();
+		}
+		sync(lsn);
+		return lsn >= 0;
+	}
+
+	/**
+	 * Applies all operations in one pass. Consecutive operations on customers sharing a lock stripe are applied under
+	 * a single acquisition of that lock, so sending the operations grouped by customer is cheapest.
+	 *
+	 * @return for every operation, whether its customer, order and product existed
+	 */
+	public boolean[] applyOrderLines(List<OrderLineOperation> batch) {
+		boolean[] applied = new boolean[batch.size()];
+		long lsn = 0;
+		ReentrantLock held = null;
+		try {
+			for (int i = 0; i < applied.length; i++) {
+				OrderLineOperation op = batch.get(i);
+				ReentrantLock lock = lockFor(op.getCustomerId());
+				if (lock != held) {
+					if (held != null) {
+						held.unlock();
+						held = null;
+					}
+					lock.lock();
+					held = lock;
+				}
+				long opLsn;
+				if (op.getAction() == OrderLineOperation.Action.DELETE) {
+					opLsn = deleteOrderProductLocked(op.getCustomerId(), op.getOrderId(), op.getProductId());
+				} else {
+					opLsn = addOrderProductLocked(op.getCustomerId(), op.getOrderId(), op.getProductId(), null);
+				}
+				applied[i] = opLsn >= 0;
+				lsn = Math.max(lsn, opLsn);
+			}
+		} finally {
+			if (held != null) {
+				held.unlock();
+			}
+		}
+		sync(lsn);
+		return applied;
+	}
+
+	/**
+	 * @return the journal position to wait for, zero without a journal, or -1 if there is no such customer, order or
+	 *         product
+	 */
+	private long addOrderProductLocked(long customerId, long orderId, long productId, Precondition condition) {
+		Customer c = customers.get(customerId);
+		Order o = c == null ? null : c.getOrder(orderId);
+		if (o == null) {
+			return -1;
+		}
+		if (condition != null) {
+			condition.check(ETags.of(o));
+		}
+		ReentrantLock lock = productLockFor(productId);
+		lock.lock();
+		try {
+			Product p = products.get(productId);
+			if (p == null) {
+				return -1;
+			}
+			prepare(EntityCodec.sizeOf(c, o) + EntityCodec.LINE_SIZE + EntityCodec.sizeOf(p));
+			long before = o.getTotal();
+			if (o.addProduct(p)) {
+				index.add(productId, customerId, orderId);
+			}
+			retotal(customerId, o, before);
+			customers.replace(c);
+			p.incrementQuantityOrdered();
+			products.replace(p);
+			Journal j = journal;
+			long lsn = j == null ? 0 : j.appendOrderLine(c, o, p);
+			publish(Change.Type.ORDER_PRODUCT_ADDED, customerId, orderId, productId, o.getVersion());
+			return lsn;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private long deleteOrderProductLocked(long customerId, long orderId, long productId) {
+		Customer c = customers.get(customerId);
+		Order o = c == null ? null : c.getOrder(orderId);
+		if (o == null || o.getLine(productId) == null) {
+			return -1;
+		}
+		prepare(EntityCodec.sizeOf(c, o));
+		long before = o.getTotal();
+		o.deleteProduct(productId);
+		retotal(customerId, o, before);
+		customers.replace(c);
+		index.remove(productId, customerId, orderId);
+		Journal j = journal;
+		long lsn = j == null ? 0 : j.appendOrder(c, o);
+		publish(Change.Type.ORDER_PRODUCT_DELETED, customerId, orderId, productId, o.getVersion());
+		return lsn;
+	}
+
+	public Product getProduct(long id) {
+		return products.get(id);
+	}
+
+	/**
+	 * Returns a weakly consistent live view of all products.
+	 */
+	public Collection<Product> getProducts() {
+		return products.values();
+	}
+
+	/**
+	 * Iterates the products with an id greater than 'after' in id order, without copying the map.
+	 */
+	public Iterator<Product> getProducts(long after) {
+		return products.iterator(after, currentProductId.get());
+	}
+
+	public Product addProduct(Product product) {
+		product.setId(currentProductId.incrementAndGet());
+		putProductLocked(product);
+		return product;
+	}
+
+	/**
+	 * Adds all products in one pass, handing out one block of consecutive ids.
+	 */
+	public void addProducts(List<Product> batch) {
+		long id = currentProductId.getAndAdd(batch.size());
+		long lsn = 0;
+		for (Product p : batch) {
+			p.setId(++id);
+			ReentrantLock lock = productLockFor(id);
+			lock.lock();
+			try {
+				prepare(EntityCodec.sizeOf(p));
+				products.put(p);
+				lsn = Math.max(lsn, logProduct(p));
+				publish(Change.Type.PRODUCT_CREATED, 0, 0, id, p.getVersion());
+			} finally {
+				lock.unlock();
+			}
+		}
+		sync(lsn);
+	}
+
+	/**
+	 * Stores a product under the id it already carries, e.g. for seed data.
+	 */
+	public void putProduct(Product product) {
+		advance(currentProductId, product.getId());
+		putProductLocked(product);
+	}
+
+	/**
+	 * Stores a product under the id it carries, as an import keeping ids does. A product already stored under the id
+	 * is replaced as by updateProduct: it gets the version after the current one, and a new price is applied to the
+	 * orders that have it.
+	 *
+	 * @return true if a product was replaced
+	 */
+	public boolean importProduct(Product product) {
+		advance(currentProductId, product.getId());
+		ReentrantLock lock = productLockFor(product.getId());
+		Product current;
+		long lsn;
+		lock.lock();
+		try {
+			prepare(EntityCodec.sizeOf(product));
+			current = products.get(product.getId());
+			if (current == null) {
+				products.put(product);
+			} else {
+				product.version(current.getVersion() + 1);
+				products.replace(product);
+			}
+			lsn = logProduct(product);
+			publish(current == null ? Change.Type.PRODUCT_CREATED : Change.Type.PRODUCT_UPDATED, 0, 0,
+					product.getId(), product.getVersion());
+		} finally {
+			lock.unlock();
+		}
+		if (current != null && current.getPrice() != product.getPrice()) {
+			reprice(product.getId());
+		}
+		sync(lsn);
+		return current != null;
+	}
+
+	private void putProductLocked(Product product) {
+		ReentrantLock lock = productLockFor(product.getId());
+		long lsn;
+		lock.lock();
+		try {
+			prepare(EntityCodec.sizeOf(product));
+			products.put(product);
+			lsn = logProduct(product);
+			publish(Change.Type.PRODUCT_CREATED, 0, 0, product.getId(), product.getVersion());
+		} finally {
+			lock.unlock();
+		}
+		sync(lsn);
+	}
+
+	public boolean updateProduct(Product product) {
+		return updateProduct(product, null);
+	}
+
+	/**
+	 * Replaces the product if the condition, when given, accepts the tag of the current one. The replacement gets the
+	 * next version.
+	 *
+	 * @return false if there is no such product
+	 */
+	public boolean updateProduct(Product product, Precondition condition) {
+		ReentrantLock lock = productLockFor(product.getId());
+		long lsn;
+		boolean repricing;
+		lock.lock();
+		try {
+			Product current = products.get(product.getId());
+			repricing = current != null && current.getPrice() != product.getPrice();
+			if (!replaceProductLocked(product, condition)) {
+				return false;
+			}
+			lsn = logProduct(product);
+			publish(Change.Type.PRODUCT_UPDATED, 0, 0, product.getId(), product.getVersion());
+		} finally {
+			lock.unlock();
+		}
+		if (repricing) {
+			reprice(product.getId());
+		}
+		sync(lsn);
+		return true;
+	}
+
+	/**
+	 * @return for every product, whether it existed and was replaced
+	 */
+	public boolean[] updateProducts(List<Product> batch) {
+		boolean[] updated = new boolean[batch.size()];
+		long lsn = 0;
+		List<Product> repricing = new ArrayList<Product>();
+		for (int i = 0; i < updated.length; i++) {
+			Product product = batch.get(i);
+			ReentrantLock lock = productLockFor(product.getId());
+			lock.lock();
+			try {
+				Product current = products.get(product.getId());
+				updated[i] = replaceProductLocked(product, null);
+				if (updated[i]) {
+					lsn = Math.max(lsn, logProduct(product));
+					publish(Change.Type.PRODUCT_UPDATED, 0, 0, product.getId(), product.getVersion());
+					if (current.getPrice() != product.getPrice()) {
+						repricing.add(product);
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		for (Product product : repricing) {
+			reprice(product.getId());
+		}
+		sync(lsn);
+		return updated;
+	}
+
+	private boolean replaceProductLocked(Product product, Precondition condition) {
+		Product current = products.get(product.getId());
+		if (current == null) {
+			return false;
+		}
+		if (condition != null) {
+			condition.check(ETags.of(current));
+		}
+		prepare(EntityCodec.sizeOf(product));
+		product.version(current.getVersion() + 1);
+		return products.replace(product);
+	}
+
+	public boolean deleteProduct(long id) {
+		ReentrantLock lock = productLockFor(id);
+		long lsn;
+		lock.lock();
+		try {
+			prepare(8);
+			if (!products.remove(id)) {
+				return false;
+			}
+			Journal j = journal;
+			lsn = j == null ? 0 : j.appendProductDeleted(id);
+			publish(Change.Type.PRODUCT_DELETED, 0, 0, id, 0);
+		} finally {
+			lock.unlock();
+		}
+		sync(lsn);
+		return true;
+	}
+
+	/**
+	 * Hands every product and then every customer to the visitor, each while its lock is held. Writers are only
+	 * held up for the entity being visited.
+	 */
+	public void visit(Visitor visitor) throws IOException {
+		for (Product p : products.values()) {
+			ReentrantLock lock = productLockFor(p.getId());
+			lock.lock();
+			try {
+				Product current = products.get(p.getId());
+				if (current != null) {
+					visitor.visit(current);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		visitCustomers(1, currentId.get(), visitor);
+	}
+
+	/**
+	 * Passes the customers with ids from first to last inclusive to the visitor, each one while its lock is held, so
+	 * a writer only ever waits for the visit of a single customer.
+	 */
+	public void visitCustomers(long first, long last, Visitor visitor) throws IOException {
+		for (long id = first; id <= last; id++) {
+			ReentrantLock lock = lockFor(id);
+			lock.lock();
+			try {
+				Customer c = customers.get(id);
+				if (c != null) {
+					visitor.visit(c);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	public long getCurrentId() {
+		return currentId.get();
+	}
+
+	/**
+	 * @return the latest order id handed out
+	 */
+	public long getCurrentOrderId() {
+		return currentOrderId.get();
+	}
+
+	public long getCurrentProductId() {
+		return currentProductId.get();
+	}
+
+	/**
+	 * Raises the id counters to at least the given values, e.g. when restoring a snapshot.
+	 */
+	public void restoreIds(long customerId, long productId) {
+		advance(currentId, customerId);
+		advance(currentProductId, productId);
+	}
+
+	/**
+	 * Raises the order id counter to at least the given value, which every journaled customer and order carries.
+	 */
+	public void restoreOrderId(long orderId) {
+		advance(currentOrderId, orderId);
+	}
+
+	/**
+	 * Puts back an order as it was journaled, replacing the order with the same id. Used by journal recovery only,
+	 * so nothing is journaled.
+	 */
+	public void restoreOrder(long customerId, long currentOrderId, long version, Order order) {
+		advance(this.currentOrderId, Math.max(currentOrderId, order.getId()));
+		Customer c = customers.get(customerId);
+		if (c != null) {
+			Order replaced = c.orders().put(order.getId(), order);
+			if (replaced != null) {
+				unindexOrder(replaced);
+			}
+			indexOrder(customerId, order);
+			c.version(version);
+			customers.replace(c);
+		}
+	}
+
+	/**
+	 * Puts back a product as it was journaled. An existing catalog instance is updated in place, so the orders
+	 * referring to it stay linked to the catalog. Used by journal recovery only, so nothing is journaled.
+	 */
+	public void restoreProduct(Product product) {
+		advance(currentProductId, product.getId());
+		Product existing = products.get(product.getId());
+		if (existing == null) {
+			products.put(product);
+		} else {
+			existing.setPrice(product.getPrice());
+			existing.setQuantityOrdered(product.getQuantityOrdered());
+			existing.version(product.getVersion());
+			products.replace(existing);
+		}
+	}
+
+	/**
+	 * Sets the price of the product on every order that has a line for it to the price in the catalog, in parallel.
+	 * Changes of price call it; the orders are neither journaled nor published one by one.
+	 *
+	 * @return the number of orders whose total changed
+	 */
+	public int reprice(long productId) {
+		long[] orders = index.orders(productId);
+		if (orders.length == 0) {
+			return 0;
+		}
+		return repricer.invoke(new Repricing(productId, orders, 0, orders.length / 2)).intValue();
+	}
+
+	/**
+	 * Sets the price of every order line to the price of its product in the catalog, one customer at a time, e.g.
+	 * after recovery. Lines of products no longer in the catalog keep their price.
+	 *
+	 * @return the number of orders whose total changed
+	 */
+	public int repriceAll() {
+		int repriced = 0;
+		for (long id = 1, last = currentId.get(); id <= last; id++) {
+			ReentrantLock lock = lockFor(id);
+			lock.lock();
+			try {
+				Customer c = customers.get(id);
+				if (c == null) {
+					continue;
+				}
+				int before = repriced;
+				for (Order o : c.orderValues()) {
+					long total = o.getTotal();
+					boolean changed = false;
+					for (OrderLine line : o.lineValues()) {
+						Product p = products.get(line.getId());
+						changed |= p != null && o.reprice(line.getId(), p.getPrice());
+					}
+					if (changed) {
+						retotal(id, o, total);
+						repriced++;
+					}
+				}
+				if (repriced != before) {
+					customers.replace(c);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return repriced;
+	}
+
+	/**
+	 * @return the number of orders that have a line for the product
+	 */
+	public int countOrders(long productId) {
+		return index.count(productId);
+	}
+
+	/**
+	 * Finds the orders with a total from min to max inclusive through the index of order totals, in logarithmic time
+	 * plus one lookup per order returned.
+	 *
+	 * @param limit the most orders to return, zero for all
+	 * @param descending whether the orders with the highest totals come first
+	 * @return the orders by total, or null if indexed queries are switched off
+	 */
+	public List<Order> getOrdersByTotal(long min, long max, int limit, boolean descending) {
+		TotalIndex totals = orderTotals;
+		if (totals == null) {
+			return null;
+		}
+		long[] pairs = totals.range(min, max, limit, descending);
+		List<Order> orders = new ArrayList<Order>(pairs.length / 2);
+		for (int i = 0; i < pairs.length; i += 2) {
+			Order o = getOrder(pairs[i]);
+			if (o != null) {
+				orders.add(o);
+			}
+		}
+		return orders;
+	}
+
+	/**
+	 * Finds the customers that spent most through the index of customer spend, in logarithmic time plus one lookup
+	 * per customer returned.
+	 *
+	 * @param limit the most customers to return, zero for all
+	 * @return the customers with the sum of the totals of their orders, highest first, or null if indexed queries are
+	 *         switched off
+	 */
+	public List<CustomerSpend> getTopCustomers(int limit) {
+		TotalIndex spend = customerSpend;
+		if (spend == null) {
+			return null;
+		}
+		long[] pairs = spend.top(limit);
+		List<CustomerSpend> top = new ArrayList<CustomerSpend>(pairs.length / 2);
+		for (int i = 0; i < pairs.length; i += 2) {
+			Customer c = customers.get(pairs[i]);
+			if (c != null) {
+				top.add(new CustomerSpend(c, pairs[i + 1]));
+			}
+		}
+		return top;
+	}
+
+	/**
+	 * Gives the orders of a customer read from a request ids from the order counter, except for those the customer
+	 * it replaces already has, which get the version after the one they have. Callers must hold the lock of the
+	 * current customer, if there is one, and be the only thread that knows the new one.
+	 */
+	private void assignOrderIds(Customer customer, Customer current) {
+		if (customer.orderCount() == 0) {
+			return;
+		}
+		List<Order> list = customer.getOrders();
+		for (Order o : list) {
+			Order replaced = current == null ? null : current.getOrder(o.getId());
+			if (replaced == null) {
+				o.setId(currentOrderId.incrementAndGet());
+			} else {
+				o.version(replaced.getVersion() + 1);
+			}
+		}
+		customer.setOrders(list);
+	}
+
+	/**
+	 * Adds an order to the order table, to the index of the products on it and to the totals. If the table already
+	 * gives another customer for the same id, which imports prevent by renumbering such orders before they get here,
+	 * that one is kept; the total of the order then only counts towards the spend of its customer.
+	 */
+	private void indexOrder(long customerId, Order order) {
+		indexOrder(customerId, order, orderTotals);
+		TotalIndex spend = customerSpend;
+		if (spend != null) {
+			spend.add(customerId, order.getTotal());
+		}
+	}
+
+	private void indexOrder(long customerId, Order order, TotalIndex totals) {
+		order.customerId = customerId;
+		orderCustomers.compareAndSet(order.getId(), 0, customerId);
+		index.add(customerId, order);
+		if (totals != null && orderCustomers.get(order.getId()) == customerId) {
+			totals.put(order.getId(), order.getTotal());
+		}
+	}
+
+	private void unindexOrder(Order order) {
+		unindexOrder(order, orderTotals);
+		TotalIndex spend = customerSpend;
+		if (spend != null) {
+			spend.add(order.customerId, -order.getTotal());
+		}
+	}
+
+	private void unindexOrder(Order order, TotalIndex totals) {
+		if (totals != null && orderCustomers.get(order.getId()) == order.customerId) {
+			totals.remove(order.getId());
+		}
+		orderCustomers.compareAndSet(order.getId(), order.customerId, 0);
+		index.remove(order.customerId, order);
+	}
+
+	/**
+	 * Brings the totals up to date with a change of the lines or prices of an order, which had the given total
+	 * before. Callers must hold the lock of the customer.
+	 */
+	private void retotal(long customerId, Order order, long before) {
+		long difference = order.getTotal() - before;
+		TotalIndex totals = orderTotals;
+		TotalIndex spend = customerSpend;
+		if (difference == 0 || totals == null || spend == null) {
+			return;
+		}
+		if (orderCustomers.get(order.getId()) == customerId) {
+			totals.put(order.getId(), order.getTotal());
+		}
+		spend.add(customerId, difference);
+	}
+
+	/**
+	 * Adds the orders of a customer to the order table and the indexes, and the customer to the spend index even if
+	 * it has no orders yet. The spend changes once by the sum of the orders, rather than once per order.
+	 */
+	private void indexOrders(Customer customer) {
+		TotalIndex totals = orderTotals;
+		long sum = 0;
+		for (Order o : customer.orderValues()) {
+			indexOrder(customer.getId(), o, totals);
+			sum += o.getTotal();
+		}
+		TotalIndex spend = customerSpend;
+		if (spend != null) {
+			spend.add(customer.getId(), sum);
+		}
+	}
+
+	private void unindexOrders(Customer customer) {
+		TotalIndex totals = orderTotals;
+		long sum = 0;
+		for (Order o : customer.orderValues()) {
+			unindexOrder(o, totals);
+			sum += o.getTotal();
+		}
+		TotalIndex spend = customerSpend;
+		if (spend != null && sum != 0) {
+			spend.add(customer.getId(), -sum);
+		}
+	}
+
+	/**
+	 * Prices the lines of a customer or order read from a request from the catalog, dropping lines of products that
+	 * do not exist, and sums up the totals from them. Callers must be the only thread that knows the entity.
+	 */
+	private void priceLines(Customer customer) {
+		for (Order o : customer.orderValues()) {
+			priceLines(o);
+		}
+	}
+
+	private void priceLines(Order order) {
+		if (order.lineCount() == 0) {
+			order.total(0);
+			return;
+		}
+		List<OrderLine> priced = new ArrayList<OrderLine>(order.lineCount());
+		for (OrderLine line : order.lineValues()) {
+			Product p = products.get(line.getId());
+			if (p != null && line.getQuantity() > 0) {
+				line.setUnitPrice(p.getPrice());
+				priced.add(line);
+			}
+		}
+		order.setLines(priced);
+	}
+
+	/**
+	 * Has the journal, if one is attached, prepare for the record of a mutation about to be applied, with the size
+	 * of the entity the record will hold.
+	 */
+	private void prepare(int size) {
+		Journal j = journal;
+		if (j != null) {
+			j.prepare(size);
+		}
+	}
+
+	private long logCustomer(Customer customer) {
+		Journal j = journal;
+		return j == null ? 0 : j.appendCustomer(customer);
+	}
+
+	private long logProduct(Product product) {
+		Journal j = journal;
+		return j == null ? 0 : j.appendProduct(product);
+	}
+
+	private void publish(Change.Type type, long customerId, long orderId, long productId, long version) {
+		ChangeFeed f = changeFeed;
+		if (f != null) {
+			f.publish(new Change(type, customerId, orderId, productId, version));
+		}
+	}
+
+	private void sync(long lsn) {
+		long[] deferred = DEFERRED_LSN.get();
+		if (deferred != null) {
+			deferred[0] = Math.max(deferred[0], lsn);
+			return;
+		}
+		awaitDurable(lsn);
+	}
+
+	/**
+	 * Waits until the journal has made everything up to the given position durable, as far as its fsync policy
+	 * asks for it.
+	 */
+	public void awaitDurable(long lsn) {
+		Journal j = journal;
+		if (j != null && lsn > 0) {
+			j.awaitDurable(lsn);
+		}
+	}
+
+	/**
+	 * Makes the mutations of the current thread return without waiting for the journal, which a thread applying
+	 * many mutations in a row then does once for all of them, with takeDeferredDurability and awaitDurable.
+	 */
+	public static void deferDurability(boolean defer) {
+		if (defer) {
+			DEFERRED_LSN.set(new long[1]);
+		} else {
+			DEFERRED_LSN.remove();
+		}
+	}
+
+	/**
+	 * @return the highest journal position the mutations of the current thread left unsynced since the last call,
+	 *         0 if there is none
+	 */
+	public static long takeDeferredDurability() {
+		long[] deferred = DEFERRED_LSN.get();
+		if (deferred == null) {
+			return 0;
+		}
+		long lsn = deferred[0];
+		deferred[0] = 0;
+		return lsn;
+	}
+
+	private ReentrantLock lockFor(long customerId) {
+		return locks[stripe(customerId, locks.length)];
+	}
+
+	private ReentrantLock productLockFor(long productId) {
+		return productLocks[stripe(productId, productLocks.length)];
+	}
+
+	private static int stripe(long id, int stripes) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & (stripes - 1);
+	}
+
+	private static ReentrantLock[] newLocks(int stripes) {
+		int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+		ReentrantLock[] locks = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		return locks;
+	}
+
+	/**
+	 * Reprices a range of the (customer id, order id) pairs of the index, splitting it while it is larger than
+	 * REPRICE_CHUNK orders.
+	 */
+	private final class Repricing extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+
+		private final long productId;
+		private final long[] orders;
+		private final int from;
+		private final int to;
+
+		Repricing(long productId, long[] orders, int from, int to) {
+			this.productId = productId;
+			this.orders = orders;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (to - from > REPRICE_CHUNK) {
+				int middle = (from + to) >>> 1;
+				Repricing left = new Repricing(productId, orders, from, middle);
+				left.fork();
+				int right = new Repricing(productId, orders, middle, to).compute().intValue();
+				return Integer.valueOf(right + left.join().intValue());
+			}
+			int repriced = 0;
+			for (int i = from; i < to; i++) {
+				long customerId = orders[2 * i];
+				ReentrantLock lock = lockFor(customerId);
+				lock.lock();
+				try {
+					Customer c = customers.get(customerId);
+					Order o = c == null ? null : c.getOrder(orders[2 * i + 1]);
+					Product p = products.get(productId);
+					long before = o == null ? 0 : o.getTotal();
+					if (o != null && p != null && o.reprice(productId, p.getPrice())) {
+						retotal(customerId, o, before);
+						customers.replace(c);
+						repriced++;
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+			return Integer.valueOf(repriced);
+		}
+	}
+
+	private static void advance(AtomicLong counter, long id) {
+		long current;
+		while ((current = counter.get()) < id) {
+			if (counter.compareAndSet(current, id)) {
+				return;
+			}
+		}
+	}
+}
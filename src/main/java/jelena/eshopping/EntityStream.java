@@ -0,0 +1,194 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.jaxrs.cbor.CBORMediaTypes;
+import com.fasterxml.jackson.jaxrs.smile.SmileMediaTypes;
+
+/**
+ * The EntityStream class writes a collection of entities to the response one entity at a time, as a JSON, CBOR or
+ * Smile array, as newline-delimited JSON with one entity per line, or as an XML document with one wrapper element.
+ * Nothing but the entity being written is held in memory, however large the collection is.
+ * <p/>
+ * The XML representation of a customer stream will look like this:
+ * <Customers>
+ * <Customer><id>123</id><name>Jelena Katusic</name></Customer>
+ * </Customers>
+ */
+class EntityStream<T> implements StreamingOutput {
+
+	static final MediaType CBOR_TYPE = MediaType.valueOf(CBORMediaTypes.APPLICATION_JACKSON_CBOR);
+	static final MediaType SMILE_TYPE = MediaType.valueOf(SmileMediaTypes.APPLICATION_JACKSON_SMILE);
+	static final String NDJSON = "application/x-ndjson";
+	static final MediaType NDJSON_TYPE = MediaType.valueOf(NDJSON);
+
+	private static final ObjectMapper MAPPER = mapper(new JsonFactory());
+	private static final ObjectMapper CBOR_MAPPER = mapper(new CBORFactory());
+	private static final ObjectMapper SMILE_MAPPER = mapper(new SmileFactory());
+	private static final int FLUSH_EVERY = 256;
+	private static volatile JAXBContext jaxbContext;
+
+	private final Iterator<T> entities;
+	private final int limit;
+	private final MediaType mediaType;
+	private final String wrapper;
+
+	/**
+	 * @param wrapper the XML element around the entities, e.g. 'Customers'
+	 * @param limit   the maximum number of entities to write, or zero for all of them
+	 */
+	EntityStream(Iterator<T> entities, int limit, MediaType mediaType, String wrapper) {
+		this.entities = entities;
+		this.limit = limit;
+		this.mediaType = mediaType;
+		this.wrapper = wrapper;
+	}
+
+	public void write(OutputStream out) throws IOException {
+		if (NDJSON_TYPE.isCompatible(mediaType)) {
+			writeLines(out);
+			return;
+		}
+		ObjectMapper mapper = mapperFor(mediaType);
+		if (mapper != null) {
+			writeJackson(mapper, out);
+		} else {
+			try {
+				writeXml(out);
+			} catch (JAXBException e) {
+				throw new WebApplicationException(e);
+			}
+		}
+	}
+
+	private void writeJackson(ObjectMapper mapper, OutputStream out) throws IOException {
+		JsonGenerator generator = mapper.getFactory().createGenerator(out);
+		generator.writeStartArray();
+		int written = 0;
+		while (entities.hasNext() && (limit <= 0 || written < limit)) {
+			mapper.writeValue(generator, entities.next());
+			if (++written % FLUSH_EVERY == 0) {
+				generator.flush();
+			}
+		}
+		generator.writeEndArray();
+		generator.flush();
+	}
+
+	private void writeLines(OutputStream out) throws IOException {
+		JsonGenerator generator = MAPPER.getFactory().createGenerator(out);
+		generator.setRootValueSeparator(null);
+		int written = 0;
+		while (entities.hasNext() && (limit <= 0 || written < limit)) {
+			MAPPER.writeValue(generator, entities.next());
+			generator.writeRaw('\n');
+			if (++written % FLUSH_EVERY == 0) {
+				generator.flush();
+			}
+		}
+		generator.flush();
+	}
+
+	private void writeXml(OutputStream out) throws IOException, JAXBException {
+		Marshaller marshaller = jaxbContext().createMarshaller();
+		marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+		out.write(("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><" + wrapper + ">")
+				.getBytes(StandardCharsets.UTF_8));
+		int written = 0;
+		while (entities.hasNext() && (limit <= 0 || written < limit)) {
+			marshaller.marshal(entities.next(), out);
+			if (++written % FLUSH_EVERY == 0) {
+				out.flush();
+			}
+		}
+		out.write(("</" + wrapper + ">").getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+
+	/**
+	 * Marshals a single entity into the bytes the Jackson or JAXB provider would write for it, e.g. for the
+	 * ResponseCache.
+	 */
+	static byte[] toBytes(Object entity, MediaType mediaType) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+		try {
+			ObjectMapper mapper = mapperFor(mediaType);
+			if (mapper != null) {
+				mapper.writeValue(out, entity);
+			} else {
+				jaxbContext().createMarshaller().marshal(entity, out);
+			}
+		} catch (IOException e) {
+			throw new WebApplicationException(e);
+		} catch (JAXBException e) {
+			throw new WebApplicationException(e);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return the mapper for JSON, CBOR or Smile, or null for XML and any other type
+	 */
+	static ObjectMapper mapperFor(MediaType mediaType) {
+		if (mediaType == null || mediaType.isWildcardType() || mediaType.isWildcardSubtype()) {
+			return null;
+		}
+		if (MediaType.APPLICATION_JSON_TYPE.isCompatible(mediaType)) {
+			return MAPPER;
+		}
+		if (CBOR_TYPE.isCompatible(mediaType)) {
+			return CBOR_MAPPER;
+		}
+		if (SMILE_TYPE.isCompatible(mediaType)) {
+			return SMILE_MAPPER;
+		}
+		return null;
+	}
+
+	private static ObjectMapper mapper(JsonFactory factory) {
+		return new ObjectMapper(factory)
+				.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+				.disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+	}
+
+	private static JAXBContext jaxbContext() throws JAXBException {
+		JAXBContext context = jaxbContext;
+		if (context == null) {
+			context = JAXBContext.newInstance(Customer.class, Order.class, OrderLine.class, Product.class);
+			jaxbContext = context;
+		}
+		return context;
+	}
+}
@@ -0,0 +1,335 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The FileCustomerStorage class keeps every customer, with its orders, serialized by EntityCodec in a local file, so
+ * the heap only holds 8 bytes per customer id for the position of its record. Every get reads and decodes the record,
+ * so it is meant to be used behind a CachedCustomerStorage.
+ * <p/>
+ * The file is append only: writing a customer appends a new record, its length followed by the customer, and points
+ * the id at it. The space of the records left behind is reclaimed by compacting the file, which copies the live
+ * records into a new one once it is more than half garbage. Reads and writes go to positions of the file of their
+ * own and only share a lock for reserving space at the end, and a read lock that compaction takes exclusively.
+ * <p/>
+ * The file is not what makes the customers durable; the Journal is. It is created empty when the storage is opened,
+ * the Journal recovery fills it, and it is deleted when the storage is closed.
+ */
+public class FileCustomerStorage implements CustomerStorage {
+	private static final Logger LOG = LoggerFactory.getLogger(FileCustomerStorage.class);
+
+	static final String FILE_NAME = "customers.dat";
+
+	private static final long COMPACT_MIN_BYTES = 64L << 20;
+
+	private final File file;
+	private FileChannel channel;
+	private long end;
+	private final ReentrantLock appendLock = new ReentrantLock();
+	private final ReentrantReadWriteLock fileLock = new ReentrantReadWriteLock();
+	private LongTable positions = new LongTable();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong maxId = new AtomicLong();
+	private final AtomicLong liveBytes = new AtomicLong();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder compactions = new LongAdder();
+
+	public FileCustomerStorage(String directory) throws IOException {
+		File dir = new File(directory);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create storage directory " + dir.getAbsolutePath());
+		}
+		file = new File(dir, FILE_NAME);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		LOG.info("Customers are stored in {}", file.getAbsolutePath());
+	}
+
+	public Customer get(long id) {
+		fileLock.readLock().lock();
+		try {
+			long position = positions.get(id);
+			return position == 0 ? null : read(channel, position - 1);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot read customer " + id, e);
+		} finally {
+			fileLock.readLock().unlock();
+		}
+	}
+
+	public Customer put(Customer customer) {
+		Customer replaced;
+		fileLock.readLock().lock();
+		try {
+			long previous = write(customer);
+			if (previous == 0) {
+				size.incrementAndGet();
+				replaced = null;
+			} else {
+				replaced = read(channel, previous - 1);
+				liveBytes.addAndGet(-4 - length(channel, previous - 1));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot write customer " + customer.getId(), e);
+		} finally {
+			fileLock.readLock().unlock();
+		}
+		compactIfNeeded();
+		return replaced;
+	}
+
+	public boolean replace(Customer customer) {
+		fileLock.readLock().lock();
+		try {
+			if (positions.get(customer.getId()) == 0) {
+				return false;
+			}
+			long previous = write(customer);
+			liveBytes.addAndGet(-4 - length(channel, previous - 1));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot write customer " + customer.getId(), e);
+		} finally {
+			fileLock.readLock().unlock();
+		}
+		compactIfNeeded();
+		return true;
+	}
+
+	public Customer remove(long id) {
+		fileLock.readLock().lock();
+		try {
+			long position = positions.get(id);
+			if (position == 0) {
+				return null;
+			}
+			Customer removed = read(channel, position - 1);
+			positions.set(id, 0);
+			liveBytes.addAndGet(-4 - length(channel, position - 1));
+			size.decrementAndGet();
+			return removed;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot read customer " + id, e);
+		} finally {
+			fileLock.readLock().unlock();
+		}
+	}
+
+	public boolean isEmpty() {
+		return size.get() == 0;
+	}
+
+	public Collection<Customer> values() {
+		return new AbstractCollection<Customer>() {
+			public Iterator<Customer> iterator() {
+				return FileCustomerStorage.this.iterator(0, maxId.get());
+			}
+
+			public int size() {
+				return size.get();
+			}
+		};
+	}
+
+	public Iterator<Customer> iterator(long after, long last) {
+		return new Pages.IdRange<Customer>(after, last) {
+			Customer lookup(long id) {
+				return get(id);
+			}
+		};
+	}
+
+	public void close() {
+		fileLock.writeLock().lock();
+		try {
+			channel.close();
+			Files.deleteIfExists(file.toPath());
+		} catch (IOException e) {
+			LOG.warn("Cannot delete {}", file, e);
+		} finally {
+			fileLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the size of the file, including the records that are no longer used
+	 */
+	public long getFileBytes() {
+		appendLock.lock();
+		try {
+			return end;
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	public long getLiveBytes() {
+		return liveBytes.get();
+	}
+
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	public long getCompactions() {
+		return compactions.sum();
+	}
+
+	/**
+	 * Appends the customer and points its id at the new record. Callers hold the read lock of the file.
+	 *
+	 * @return the previous position of the customer plus one, zero if it had none
+	 */
+	private long write(Customer customer) throws IOException {
+		int length = EntityCodec.sizeOf(customer);
+		ByteBuffer record = ByteBuffer.allocate(4 + length);
+		record.putInt(length);
+		EntityCodec.put(record, customer, 0);
+		record.flip();
+		long position;
+		appendLock.lock();
+		try {
+			position = end;
+			end += record.remaining();
+		} finally {
+			appendLock.unlock();
+		}
+		writeFully(channel, record, position);
+		bytesWritten.add(4 + length);
+		liveBytes.addAndGet(4 + length);
+		long id = customer.getId();
+		long previous = positions.get(id);
+		positions.set(id, position + 1);
+		long max;
+		while ((max = maxId.get()) < id && !maxId.compareAndSet(max, id)) {
+			// raced with another writer, try again
+		}
+		return previous;
+	}
+
+	private Customer read(FileChannel ch, long position) throws IOException {
+		int length = length(ch, position);
+		ByteBuffer body = ByteBuffer.allocate(length);
+		readFully(ch, body, position + 4);
+		body.flip();
+		bytesRead.add(4 + length);
+		return EntityCodec.getCustomer(body);
+	}
+
+	/**
+	 * @return the length of the customer in the record at the position
+	 */
+	private static int length(FileChannel ch, long position) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(4);
+		readFully(ch, b, position);
+		return b.getInt(0);
+	}
+
+	private void compactIfNeeded() {
+		long bytes = getFileBytes();
+		if (bytes < COMPACT_MIN_BYTES || bytes < 2 * liveBytes.get()) {
+			return;
+		}
+		fileLock.writeLock().lock();
+		try {
+			if (end >= COMPACT_MIN_BYTES && end >= 2 * liveBytes.get()) {
+				compact();
+			}
+		} catch (IOException e) {
+			LOG.warn("Cannot compact {}", file, e);
+		} finally {
+			fileLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Copies the live records into a new file that replaces the old one. Callers hold the write lock of the file.
+	 */
+	private void compact() throws IOException {
+		long started = System.nanoTime();
+		File compacted = new File(file.getParentFile(), FILE_NAME + ".compact");
+		FileChannel target = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		LongTable moved = new LongTable();
+		long written = 0;
+		try {
+			for (long id = 1, last = maxId.get(); id <= last; id++) {
+				long position = positions.get(id);
+				if (position == 0) {
+					continue;
+				}
+				ByteBuffer record = ByteBuffer.allocate(4 + length(channel, position - 1));
+				readFully(channel, record, position - 1);
+				record.flip();
+				writeFully(target, record, written);
+				moved.set(id, written + 1);
+				written += record.capacity();
+			}
+			Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			target.close();
+			throw e;
+		}
+		long before = end;
+		channel.close();
+		channel = target;
+		positions = moved;
+		end = written;
+		liveBytes.set(written);
+		compactions.increment();
+		LOG.info("Compacted {} from {} to {} bytes in {} ms", file, before, written,
+				(System.nanoTime() - started) / 1000000);
+	}
+
+	private static void readFully(FileChannel ch, ByteBuffer b, long position) throws IOException {
+		while (b.hasRemaining()) {
+			if (ch.read(b, position + b.position()) < 0) {
+				throw new EOFException("Record at " + position + " is cut short");
+			}
+		}
+	}
+
+	private static void writeFully(FileChannel ch, ByteBuffer b, long position) throws IOException {
+		while (b.hasRemaining()) {
+			ch.write(b, position + b.position());
+		}
+	}
+}
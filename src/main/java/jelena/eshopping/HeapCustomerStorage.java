@@ -0,0 +1,67 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * The HeapCustomerStorage class keeps the Customer objects in a StripedLongMap, so every customer and order is on the
+ * heap all the time and a customer changed in place needs no writing back. This is the default.
+ */
+public class HeapCustomerStorage implements CustomerStorage {
+
+	private final StripedLongMap<Customer> customers;
+
+	public HeapCustomerStorage() {
+		this(4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	public HeapCustomerStorage(int stripes) {
+		customers = new StripedLongMap<Customer>(stripes);
+	}
+
+	public Customer get(long id) {
+		return customers.get(id);
+	}
+
+	public Customer put(Customer customer) {
+		return customers.put(customer.getId(), customer);
+	}
+
+	public boolean replace(Customer customer) {
+		return customers.replace(customer.getId(), customer) != null;
+	}
+
+	public Customer remove(long id) {
+		return customers.remove(id);
+	}
+
+	public boolean isEmpty() {
+		return customers.isEmpty();
+	}
+
+	public Collection<Customer> values() {
+		return customers.values();
+	}
+
+	public Iterator<Customer> iterator(long after, long last) {
+		return Pages.idRange(customers, after, last);
+	}
+
+	public void close() {
+	}
+}
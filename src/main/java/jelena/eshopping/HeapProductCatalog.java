@@ -0,0 +1,64 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * The HeapProductCatalog class keeps the Product objects in a StripedLongMap. The products handed out are the catalog
+ * instances, so the orders holding them always show the current price and quantity ordered. This is the default.
+ */
+public class HeapProductCatalog implements ProductCatalog {
+
+	private final StripedLongMap<Product> products;
+
+	public HeapProductCatalog() {
+		this(4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	public HeapProductCatalog(int stripes) {
+		products = new StripedLongMap<Product>(stripes);
+	}
+
+	public Product get(long id) {
+		return products.get(id);
+	}
+
+	public void put(Product product) {
+		products.put(product.getId(), product);
+	}
+
+	public boolean replace(Product product) {
+		return products.replace(product.getId(), product) != null;
+	}
+
+	public boolean remove(long id) {
+		return products.remove(id) != null;
+	}
+
+	public boolean isEmpty() {
+		return products.isEmpty();
+	}
+
+	public Collection<Product> values() {
+		return products.values();
+	}
+
+	public Iterator<Product> iterator(long after, long last) {
+		return Pages.idRange(products, after, last);
+	}
+}
@@ -0,0 +1,312 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.ws.rs.core.MediaType;
+
+/**
+ * The IdempotencyCache class remembers the answers to POSTs sent with an Idempotency-Key header, so that a client
+ * retrying a POST after a timeout gets the answer of the first attempt instead of a second customer, order or
+ * product.
+ * <p/>
+ * The first request with a key claims it and runs; once its write succeeds, the status, media type and serialized
+ * body of the answer are stored under the key. A retry with the same key gets that answer back without running the
+ * write again, and a retry arriving while the first request still runs is answered with 409/Conflict. An answer that
+ * is not a success is not stored, so the key can be used again. Keys are scoped by the path they were sent to.
+ * <p/>
+ * Every entry has a deadline of its own: a claim expires ttlSeconds after it was made, and an answer ttlSeconds after
+ * it was stored. Memory is bounded by maxBytes, counting the key, the body and a fixed overhead per entry. Like the
+ * ResponseCache, the cache is split into segments, each a LinkedHashMap with its own lock and an equal share of the
+ * bytes, but in insertion order. A stored answer is moved to the end, and deadlines are taken under the segment lock,
+ * so the entries of a segment are in the order of their deadlines: expiring only ever removes entries at the head,
+ * and a full segment evicts the answers closest to their deadline first.
+ * <p/>
+ * Pending claims are never evicted, as a retry would then run the write a second time; they hold no body and there
+ * are no more of them than requests in flight, so a segment may exceed its share by that much. An answer too large
+ * for a segment cannot be stored at all: its key is released instead, so that a retry runs again, and counted as
+ * oversized.
+ */
+public class IdempotencyCache {
+
+	/**
+	 * The bytes counted for an entry besides its key and body: the entry, the map node and the key string.
+	 */
+	static final int ENTRY_OVERHEAD = 160;
+
+	private final Segment[] segments;
+	private final long maxBytes;
+	private final long ttlNanos;
+	private final LongAdder replays = new LongAdder();
+	private final LongAdder claims = new LongAdder();
+	private final LongAdder conflicts = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+	private final LongAdder oversized = new LongAdder();
+
+	public IdempotencyCache(long maxBytes, long ttlSeconds) {
+		this(maxBytes, ttlSeconds, 4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	public IdempotencyCache(long maxBytes, long ttlSeconds, int segments) {
+		int size = Integer.highestOneBit(Math.max(1, segments - 1)) << 1;
+		this.maxBytes = maxBytes;
+		this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+		this.segments = new Segment[size];
+		for (int i = 0; i < size; i++) {
+			this.segments[i] = new Segment(maxBytes / size);
+		}
+	}
+
+	/**
+	 * Claims the key for the caller, unless a request already did.
+	 *
+	 * @return null if the caller claimed the key and has to complete or release it, otherwise the entry of the
+	 *         request that claimed it, pending while that request runs
+	 */
+	public Entry claim(String key) {
+		Entry e = segmentFor(key).claim(key);
+		if (e == null) {
+			claims.increment();
+		} else if (e.isPending()) {
+			conflicts.increment();
+		} else {
+			replays.increment();
+		}
+		return e;
+	}
+
+	/**
+	 * Stores the answer of the request that claimed the key.
+	 *
+	 * @param body the serialized body, or null if there is none
+	 */
+	public void complete(String key, int status, MediaType type, byte[] body) {
+		segmentFor(key).complete(key, status, type, body);
+	}
+
+	/**
+	 * Gives up the claim of a request whose write failed, so that a retry runs again.
+	 */
+	public void release(String key) {
+		segmentFor(key).release(key);
+	}
+
+	public void clear() {
+		for (Segment s : segments) {
+			s.clear();
+		}
+	}
+
+	/**
+	 * @return the retries answered with a stored answer
+	 */
+	public long getReplays() {
+		return replays.sum();
+	}
+
+	/**
+	 * @return the keys claimed by a first request
+	 */
+	public long getClaims() {
+		return claims.sum();
+	}
+
+	/**
+	 * @return the retries answered with 409/Conflict because the first request was still running
+	 */
+	public long getConflicts() {
+		return conflicts.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getExpirations() {
+		return expirations.sum();
+	}
+
+	/**
+	 * @return the answers too large to be stored, whose keys were released instead
+	 */
+	public long getOversized() {
+		return oversized.sum();
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getTtlSeconds() {
+		return TimeUnit.NANOSECONDS.toSeconds(ttlNanos);
+	}
+
+	public long getBytes() {
+		long bytes = 0;
+		for (Segment s : segments) {
+			bytes += s.bytes();
+		}
+		return bytes;
+	}
+
+	public int getEntries() {
+		int entries = 0;
+		for (Segment s : segments) {
+			entries += s.size();
+		}
+		return entries;
+	}
+
+	private Segment segmentFor(String key) {
+		long h = key.hashCode() * 0x9E3779B97F4A7C15L;
+		return segments[(int) (h >>> 32) & (segments.length - 1)];
+	}
+
+	private final class Segment {
+		private final long maxBytes;
+		private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		private long bytes;
+
+		Segment(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		synchronized Entry claim(String key) {
+			long now = System.nanoTime();
+			expire(now);
+			Entry e = entries.get(key);
+			if (e != null) {
+				return e;
+			}
+			store(key, new Entry(now + ttlNanos));
+			return null;
+		}
+
+		/**
+		 * Replaces the claim, if it has not expired meanwhile, with the answer, which goes to the end with a deadline
+		 * from now.
+		 */
+		synchronized void complete(String key, int status, MediaType type, byte[] body) {
+			long now = System.nanoTime();
+			expire(now);
+			Entry e = entries.remove(key);
+			if (e != null) {
+				bytes -= e.size;
+			}
+			Entry done = new Entry(now + ttlNanos);
+			done.status = status;
+			done.type = type;
+			done.body = body;
+			store(key, done);
+		}
+
+		synchronized void release(String key) {
+			Entry e = entries.remove(key);
+			if (e != null) {
+				bytes -= e.size;
+			}
+		}
+
+		synchronized void clear() {
+			entries.clear();
+			bytes = 0;
+		}
+
+		synchronized long bytes() {
+			return bytes;
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+
+		/**
+		 * Removes the entries past their deadline, all of which are at the head.
+		 */
+		private void expire(long now) {
+			Iterator<Entry> eldest = entries.values().iterator();
+			while (eldest.hasNext()) {
+				Entry e = eldest.next();
+				if (e.deadline - now > 0) {
+					return;
+				}
+				bytes -= e.size;
+				eldest.remove();
+				expirations.increment();
+			}
+		}
+
+		/**
+		 * Adds the entry at the end and evicts answers from the head until the segment is within its share again,
+		 * passing over pending claims.
+		 */
+		private void store(String key, Entry entry) {
+			entry.size = ENTRY_OVERHEAD + 2L * key.length() + (entry.body == null ? 0 : entry.body.length);
+			if (entry.size > maxBytes && !entry.isPending()) {
+				oversized.increment();
+				return;
+			}
+			entries.put(key, entry);
+			bytes += entry.size;
+			Iterator<Entry> eldest = entries.values().iterator();
+			while (bytes > maxBytes && eldest.hasNext()) {
+				Entry e = eldest.next();
+				if (e.isPending()) {
+					continue;
+				}
+				bytes -= e.size;
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+	}
+
+	/**
+	 * The claim of a key and, once the request that claimed it succeeded, its answer.
+	 */
+	public static final class Entry {
+		final long deadline;
+		long size;
+		int status;
+		MediaType type;
+		byte[] body;
+
+		Entry(long deadline) {
+			this.deadline = deadline;
+		}
+
+		public boolean isPending() {
+			return status == 0;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public MediaType getType() {
+			return type;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+	}
+}
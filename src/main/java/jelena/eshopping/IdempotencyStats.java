@@ -0,0 +1,142 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The IdempotencyStats class reports the counters of the IdempotencyCache since the service started.
+ * <p/>
+ * The XML representation of an IdempotencyStats will look like this:
+ * <IdempotencyStats>
+ * <bytes>81920</bytes><claims>512</claims><conflicts>2</conflicts><entries>512</entries><evictions>0</evictions>
+ * <expirations>0</expirations><maxBytes>16777216</maxBytes><oversized>0</oversized><replays>40</replays>
+ * <ttlSeconds>86400</ttlSeconds>
+ * </IdempotencyStats>
+ */
+@XmlRootElement(name = "IdempotencyStats")
+public class IdempotencyStats {
+
+	private long claims;
+	private long replays;
+	private long conflicts;
+	private long evictions;
+	private long expirations;
+	private long oversized;
+	private int entries;
+	private long bytes;
+	private long maxBytes;
+	private long ttlSeconds;
+
+	public IdempotencyStats() {
+	}
+
+	public IdempotencyStats(IdempotencyCache cache) {
+		claims = cache.getClaims();
+		replays = cache.getReplays();
+		conflicts = cache.getConflicts();
+		evictions = cache.getEvictions();
+		expirations = cache.getExpirations();
+		oversized = cache.getOversized();
+		entries = cache.getEntries();
+		bytes = cache.getBytes();
+		maxBytes = cache.getMaxBytes();
+		ttlSeconds = cache.getTtlSeconds();
+	}
+
+	public long getClaims() {
+		return claims;
+	}
+
+	public void setClaims(long claims) {
+		this.claims = claims;
+	}
+
+	public long getReplays() {
+		return replays;
+	}
+
+	public void setReplays(long replays) {
+		this.replays = replays;
+	}
+
+	public long getConflicts() {
+		return conflicts;
+	}
+
+	public void setConflicts(long conflicts) {
+		this.conflicts = conflicts;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public void setEvictions(long evictions) {
+		this.evictions = evictions;
+	}
+
+	public long getExpirations() {
+		return expirations;
+	}
+
+	public void setExpirations(long expirations) {
+		this.expirations = expirations;
+	}
+
+	/**
+	 * Answers too large to be stored, whose retries ran the write again.
+	 */
+	public long getOversized() {
+		return oversized;
+	}
+
+	public void setOversized(long oversized) {
+		this.oversized = oversized;
+	}
+
+	public int getEntries() {
+		return entries;
+	}
+
+	public void setEntries(int entries) {
+		this.entries = entries;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public long getTtlSeconds() {
+		return ttlSeconds;
+	}
+
+	public void setTtlSeconds(long ttlSeconds) {
+		this.ttlSeconds = ttlSeconds;
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The ImportResult class reports the outcome of a BulkImport: how many lines held an entity, how many of them were
+ * added and how many failed, with the number and the reason of the first failures, by line number.
+ * <p/>
+ * The JSON representation of an ImportResult will look like this:
+ * {"lines":3,"imported":2,"failed":1,"elapsedMillis":4,
+ * "errors":[{"line":2,"message":"Unrecognized token 'x': was expecting ..."}]}
+ */
+@XmlRootElement(name = "ImportResult")
+public class ImportResult {
+
+	private long lines;
+	private long imported;
+	private long failed;
+	private long elapsedMillis;
+	private List<Failure> errors;
+
+	public ImportResult() {
+		errors = new ArrayList<Failure>();
+	}
+
+	/**
+	 * The number of lines that were not blank.
+	 */
+	public long getLines() {
+		return lines;
+	}
+
+	public void setLines(long lines) {
+		this.lines = lines;
+	}
+
+	public long getImported() {
+		return imported;
+	}
+
+	public void setImported(long imported) {
+		this.imported = imported;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	public void setFailed(long failed) {
+		this.failed = failed;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	@XmlElement(name = "error")
+	public List<Failure> getErrors() {
+		return errors;
+	}
+
+	public void setErrors(List<Failure> errors) {
+		this.errors = errors;
+	}
+
+	public static class Failure {
+		private long line;
+		private String message;
+
+		public Failure() {
+		}
+
+		Failure(long line, String message) {
+			this.line = line;
+			this.message = message;
+		}
+
+		/**
+		 * The number of the line, counting from 1.
+		 */
+		public long getLine() {
+			return line;
+		}
+
+		public void setLine(long line) {
+			this.line = line;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public void setMessage(String message) {
+			this.message = message;
+		}
+	}
+}
@@ -0,0 +1,397 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The LongMap class is an open addressing hash map from primitive long ids to entities. Compared to a
+ * ConcurrentHashMap&lt;Long, V&gt; it needs neither a node nor a boxed key per entry, and a lookup does not allocate.
+ * <p/>
+ * Reads never lock and may run concurrently with a write; writes are synchronized on the map. The keys live in a long
+ * array and the values in an AtomicReferenceArray: a writer stores the key before the value, and a reader loads the
+ * value before the key, so a reader that sees a value also sees its key. A removed entry leaves a tombstone behind
+ * until the next rehash, which builds a new table and publishes it in one volatile write. Slots are not reused before
+ * that, so a key that is added again goes into a new slot further along its probe sequence and lookups skip
+ * tombstones rather than stop at them. Iteration is weakly consistent, like that of the concurrent collections.
+ * <p/>
+ * Values can also be iterated in key order, without copying the map: the iterator scans the table once for every
+ * ORDERED_CHUNK values it hands out and keeps only those, so the memory it needs does not depend on the size of the
+ * map, at the price of a scan per chunk.
+ */
+final class LongMap<V> {
+
+	private static final Object TOMBSTONE = new Object();
+	private static final Table EMPTY = new Table(0);
+	private static final int ORDERED_CHUNK = 256;
+
+	private volatile Table table = EMPTY;
+	private volatile int size;
+	private int used;
+
+	LongMap() {
+	}
+
+	LongMap(int expectedSize) {
+		if (expectedSize > 0) {
+			table = new Table(capacityFor(expectedSize));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(long key) {
+		Table t = table;
+		if (t.keys.length == 0) {
+			return null;
+		}
+		int mask = t.keys.length - 1;
+		for (int i = index(key, mask);; i = (i + 1) & mask) {
+			Object value = t.values.get(i);
+			if (value == null) {
+				return null;
+			}
+			if (value != TOMBSTONE && t.keys[i] == key) {
+				return (V) value;
+			}
+		}
+	}
+
+	boolean containsKey(long key) {
+		return get(key) != null;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the value previously mapped to the key, or null
+	 */
+	synchronized V put(long key, V value) {
+		return store(key, value, true, true);
+	}
+
+	/**
+	 * @return the value already mapped to the key, or null if the value was added
+	 */
+	synchronized V putIfAbsent(long key, V value) {
+		return store(key, value, false, true);
+	}
+
+	/**
+	 * Replaces the value mapped to the key, if there is one.
+	 *
+	 * @return the value replaced, or null if the key was not mapped
+	 */
+	synchronized V replace(long key, V value) {
+		return store(key, value, true, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	synchronized V remove(long key) {
+		int slot = find(table, key);
+		if (slot < 0) {
+			return null;
+		}
+		Object old = table.values.get(slot);
+		table.values.set(slot, TOMBSTONE);
+		size--;
+		return (V) old;
+	}
+
+	synchronized void clear() {
+		table = EMPTY;
+		size = 0;
+		used = 0;
+	}
+
+	/**
+	 * Returns a weakly consistent view of the values. The view does not support removal.
+	 */
+	Collection<V> values() {
+		return new AbstractCollection<V>() {
+			public Iterator<V> iterator() {
+				return new Values<V>(table);
+			}
+
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Returns a weakly consistent iterator over the values with a key greater than 'after', in key order. The
+	 * iterator does not support removal.
+	 */
+	Iterator<V> iterator(long after) {
+		return new Ordered<V>(this, after);
+	}
+
+	@SuppressWarnings("unchecked")
+	private V store(long key, V value, boolean replace, boolean add) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		Table t = table;
+		int slot = find(t, key);
+		if (slot >= 0) {
+			Object old = t.values.get(slot);
+			if (replace) {
+				t.values.set(slot, value);
+			}
+			return (V) old;
+		}
+		if (!add) {
+			return null;
+		}
+		if ((used + 1) * 4 > t.keys.length * 3) {
+			t = rehash(capacityFor(size + 1));
+		}
+		int mask = t.keys.length - 1;
+		int i = index(key, mask);
+		while (t.values.get(i) != null) {
+			i = (i + 1) & mask;
+		}
+		t.keys[i] = key;
+		t.values.set(i, value);
+		used++;
+		size++;
+		return null;
+	}
+
+	/**
+	 * @return the slot holding a live value for the key, or -1
+	 */
+	private static int find(Table t, long key) {
+		if (t.keys.length == 0) {
+			return -1;
+		}
+		int mask = t.keys.length - 1;
+		for (int i = index(key, mask);; i = (i + 1) & mask) {
+			Object value = t.values.get(i);
+			if (value == null) {
+				return -1;
+			}
+			if (value != TOMBSTONE && t.keys[i] == key) {
+				return i;
+			}
+		}
+	}
+
+	/**
+	 * Copies the live entries into a new table, dropping the tombstones. The new table is filled before it is
+	 * published, so readers either see the old table or the complete new one.
+	 */
+	private Table rehash(int capacity) {
+		Table old = table;
+		Table t = new Table(capacity);
+		int mask = capacity - 1;
+		int live = 0;
+		for (int j = 0; j < old.keys.length; j++) {
+			Object value = old.values.get(j);
+			if (value == null || value == TOMBSTONE) {
+				continue;
+			}
+			int i = index(old.keys[j], mask);
+			while (t.values.get(i) != null) {
+				i = (i + 1) & mask;
+			}
+			t.keys[i] = old.keys[j];
+			t.values.lazySet(i, value);
+			live++;
+		}
+		table = t;
+		used = live;
+		return t;
+	}
+
+	private static int capacityFor(int entries) {
+		int capacity = 2;
+		while (entries * 4 > capacity * 3) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	static int index(long key, int mask) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private static final class Table {
+		final long[] keys;
+		final AtomicReferenceArray<Object> values;
+
+		Table(int capacity) {
+			keys = new long[capacity];
+			values = new AtomicReferenceArray<Object>(capacity);
+		}
+	}
+
+	private static final class Values<V> implements Iterator<V> {
+		private final Table table;
+		private int slot = -1;
+		private Object next;
+
+		Values(Table table) {
+			this.table = table;
+		}
+
+		public boolean hasNext() {
+			while (next == null && slot + 1 < table.keys.length) {
+				Object value = table.values.get(++slot);
+				if (value != null && value != TOMBSTONE) {
+					next = value;
+				}
+			}
+			return next != null;
+		}
+
+		@SuppressWarnings("unchecked")
+		public V next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Object value = next;
+			next = null;
+			return (V) value;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Hands out the values in key order, one chunk at a time. A chunk is filled by a scan of the table that keeps the
+	 * ORDERED_CHUNK smallest keys greater than the last key handed out in a heap with the largest key on top, and is
+	 * then sorted in place.
+	 */
+	private static final class Ordered<V> implements Iterator<V> {
+		private final LongMap<V> map;
+		private final long[] keys = new long[ORDERED_CHUNK];
+		private final Object[] values = new Object[ORDERED_CHUNK];
+		private long after;
+		private int count;
+		private int next;
+		private boolean last;
+
+		Ordered(LongMap<V> map, long after) {
+			this.map = map;
+			this.after = after;
+		}
+
+		public boolean hasNext() {
+			if (next == count && !last) {
+				fill();
+			}
+			return next < count;
+		}
+
+		@SuppressWarnings("unchecked")
+		public V next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			V value = (V) values[next];
+			values[next++] = null;
+			return value;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void fill() {
+			Table t = map.table;
+			count = 0;
+			next = 0;
+			for (int i = 0; i < t.keys.length; i++) {
+				Object value = t.values.get(i);
+				if (value == null || value == TOMBSTONE) {
+					continue;
+				}
+				long key = t.keys[i];
+				if (key <= after) {
+					continue;
+				}
+				if (count < ORDERED_CHUNK) {
+					keys[count] = key;
+					values[count] = value;
+					up(count++);
+				} else if (key < keys[0]) {
+					keys[0] = key;
+					values[0] = value;
+					down(0, count);
+				}
+			}
+			last = count < ORDERED_CHUNK;
+			for (int end = count - 1; end > 0; end--) {
+				swap(0, end);
+				down(0, end);
+			}
+			if (count > 0) {
+				after = keys[count - 1];
+			}
+		}
+
+		private void up(int i) {
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (keys[parent] >= keys[i]) {
+					return;
+				}
+				swap(parent, i);
+				i = parent;
+			}
+		}
+
+		private void down(int i, int size) {
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					return;
+				}
+				if (child + 1 < size && keys[child + 1] > keys[child]) {
+					child++;
+				}
+				if (keys[i] >= keys[child]) {
+					return;
+				}
+				swap(i, child);
+				i = child;
+			}
+		}
+
+		private void swap(int i, int j) {
+			long key = keys[i];
+			keys[i] = keys[j];
+			keys[j] = key;
+			Object value = values[i];
+			values[i] = values[j];
+			values[j] = value;
+		}
+	}
+}
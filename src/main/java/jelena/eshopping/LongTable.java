@@ -0,0 +1,67 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The LongTable class maps ids handed out from a counter to long values, zero meaning none. Like the slots of
+ * OffHeapProductCatalog, the ids are dense enough for the id itself to be the index: the value of an id is found in a
+ * chunk of 64K values, and the chunks are kept in a LongMap keyed by id / 64K. An entry costs 8 bytes whether the id
+ * is in use or not, and needs no object.
+ * <p/>
+ * The values are AtomicLongArrays, so reads never lock and compareAndSet lets writers of different ids share a chunk.
+ */
+final class LongTable {
+
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private final LongMap<AtomicLongArray> chunks = new LongMap<AtomicLongArray>();
+
+	/**
+	 * @return the value of the id, zero if it has none
+	 */
+	long get(long id) {
+		AtomicLongArray c = id < 0 ? null : chunks.get(id >>> CHUNK_BITS);
+		return c == null ? 0 : c.get((int) id & (CHUNK_SIZE - 1));
+	}
+
+	void set(long id, long value) {
+		chunk(id).set((int) id & (CHUNK_SIZE - 1), value);
+	}
+
+	boolean compareAndSet(long id, long expected, long value) {
+		if (expected == 0) {
+			return chunk(id).compareAndSet((int) id & (CHUNK_SIZE - 1), 0, value);
+		}
+		AtomicLongArray c = id < 0 ? null : chunks.get(id >>> CHUNK_BITS);
+		return c != null && c.compareAndSet((int) id & (CHUNK_SIZE - 1), expected, value);
+	}
+
+	private AtomicLongArray chunk(long id) {
+		if (id < 0) {
+			throw new IllegalArgumentException("Ids must not be negative: " + id);
+		}
+		AtomicLongArray c = chunks.get(id >>> CHUNK_BITS);
+		if (c == null) {
+			AtomicLongArray created = new AtomicLongArray(CHUNK_SIZE);
+			c = chunks.putIfAbsent(id >>> CHUNK_BITS, created);
+			c = c == null ? created : c;
+		}
+		return c;
+	}
+}
@@ -0,0 +1,255 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Metrics class keeps the counters and histograms of every CustomerService operation, recorded by MetricsFilter,
+ * and reads the sizes of the EntityStore when asked for them. toPrometheus writes them all in the Prometheus text
+ * format; MetricsReport has the same figures for JSON.
+ * <p/>
+ * An operation is named after its resource method and created on its first request. From then on recording a
+ * request touches only its LongAdders and Histograms, so it neither locks nor allocates.
+ */
+public class Metrics {
+
+	static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+	private static final int LATENCY = 0;
+	private static final int REQUEST_BYTES = 1;
+	private static final int RESPONSE_BYTES = 2;
+
+	private final EntityStore store;
+	private final ConcurrentMap<String, Operation> operations = new ConcurrentSkipListMap<String, Operation>();
+
+	public Metrics(EntityStore store) {
+		this.store = store;
+	}
+
+	public Operation operation(String name) {
+		Operation o = operations.get(name);
+		if (o == null) {
+			Operation created = new Operation(name);
+			o = operations.putIfAbsent(name, created);
+			if (o == null) {
+				o = created;
+			}
+		}
+		return o;
+	}
+
+	/**
+	 * @return the operations seen so far, by name
+	 */
+	public Collection<Operation> getOperations() {
+		return operations.values();
+	}
+
+	public int getCustomers() {
+		return store.getCustomers().size();
+	}
+
+	public int getProducts() {
+		return store.getProducts().size();
+	}
+
+	/**
+	 * Counts the orders of every customer, walking the whole store.
+	 */
+	public Histogram ordersPerCustomer() {
+		Histogram h = new Histogram();
+		for (Customer c : store.getCustomers()) {
+			h.record(c.orderCount());
+		}
+		return h;
+	}
+
+	public String toPrometheus() {
+		StringBuilder b = new StringBuilder(4096);
+		header(b, "ebasket_requests_total", "counter", "Requests handled, by operation.");
+		for (Operation o : operations.values()) {
+			sample(b, "ebasket_requests_total", o.name, null, o.requests.sum());
+		}
+		header(b, "ebasket_errors_total", "counter", "Requests answered with a 4xx or 5xx status, by operation.");
+		for (Operation o : operations.values()) {
+			sample(b, "ebasket_errors_total", o.name, "status=\"4xx\"", o.clientErrors.sum());
+			sample(b, "ebasket_errors_total", o.name, "status=\"5xx\"", o.serverErrors.sum());
+		}
+		summary(b, "ebasket_request_duration_seconds", "Time from the request filter to the written response.", 1e-9,
+				LATENCY);
+		summary(b, "ebasket_request_size_bytes", "Request bodies with a known length.", 1, REQUEST_BYTES);
+		summary(b, "ebasket_response_size_bytes", "Response bodies as written.", 1, RESPONSE_BYTES);
+
+		Histogram orders = ordersPerCustomer();
+		header(b, "ebasket_customers", "gauge", "Customers in the store.");
+		b.append("ebasket_customers ").append(getCustomers()).append('\n');
+		header(b, "ebasket_products", "gauge", "Products in the catalog.");
+		b.append("ebasket_products ").append(getProducts()).append('\n');
+		header(b, "ebasket_orders_per_customer", "summary", "Orders of each customer.");
+		for (double q : QUANTILES) {
+			b.append("ebasket_orders_per_customer{quantile=\"").append(q).append("\"} ").append(orders.valueAt(q))
+					.append('\n');
+		}
+		b.append("ebasket_orders_per_customer_sum ").append(orders.getSum()).append('\n');
+		b.append("ebasket_orders_per_customer_count ").append(orders.getCount()).append('\n');
+		header(b, "ebasket_orders_per_customer_max", "gauge", "Orders of the customer with the most.");
+		b.append("ebasket_orders_per_customer_max ").append(orders.getMax()).append('\n');
+		storage(b, store.getCustomerStorage());
+		return b.toString();
+	}
+
+	/**
+	 * Adds the counters of the customer storage, if it keeps customers off the heap.
+	 */
+	private static void storage(StringBuilder b, CustomerStorage storage) {
+		if (storage instanceof CachedCustomerStorage) {
+			CachedCustomerStorage cached = (CachedCustomerStorage) storage;
+			gauge(b, "ebasket_storage_cache_hits_total", "counter", "Customers read from the storage cache.",
+					cached.getHits());
+			gauge(b, "ebasket_storage_cache_misses_total", "counter", "Customers read through the storage cache.",
+					cached.getMisses());
+			gauge(b, "ebasket_storage_cache_evictions_total", "counter", "Customers evicted from the storage cache.",
+					cached.getEvictions());
+			gauge(b, "ebasket_storage_cache_bytes", "gauge", "Bytes held by the storage cache.", cached.getBytes());
+			storage = cached.getStorage();
+		}
+		if (storage instanceof FileCustomerStorage) {
+			FileCustomerStorage file = (FileCustomerStorage) storage;
+			gauge(b, "ebasket_storage_file_bytes", "gauge", "Size of the customer file.", file.getFileBytes());
+			gauge(b, "ebasket_storage_live_bytes", "gauge", "Bytes of the customer file still in use.",
+					file.getLiveBytes());
+			gauge(b, "ebasket_storage_read_bytes_total", "counter", "Bytes read from the customer file.",
+					file.getBytesRead());
+			gauge(b, "ebasket_storage_written_bytes_total", "counter", "Bytes written to the customer file.",
+					file.getBytesWritten());
+			gauge(b, "ebasket_storage_compactions_total", "counter", "Compactions of the customer file.",
+					file.getCompactions());
+		}
+	}
+
+	private static void gauge(StringBuilder b, String name, String type, String help, long value) {
+		header(b, name, type, help);
+		b.append(name).append(' ').append(value).append('\n');
+	}
+
+	private void summary(StringBuilder b, String name, String help, double scale, int which) {
+		header(b, name, "summary", help);
+		for (Operation o : operations.values()) {
+			Histogram h = o.histogram(which);
+			for (double q : QUANTILES) {
+				sample(b, name, o.name, "quantile=\"" + q + "\"", h.valueAt(q) * scale);
+			}
+			sample(b, name + "_sum", o.name, null, h.getSum() * scale);
+			sample(b, name + "_count", o.name, null, h.getCount());
+		}
+		header(b, name + "_max", "gauge", "Largest value since the service started.");
+		for (Operation o : operations.values()) {
+			sample(b, name + "_max", o.name, null, o.histogram(which).getMax() * scale);
+		}
+	}
+
+	private static void header(StringBuilder b, String name, String type, String help) {
+		b.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		b.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder b, String name, String operation, String label, double value) {
+		b.append(name).append("{operation=\"").append(operation).append('"');
+		if (label != null) {
+			b.append(',').append(label);
+		}
+		b.append("} ");
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			b.append((long) value);
+		} else {
+			b.append(value);
+		}
+		b.append('\n');
+	}
+
+	/**
+	 * The counters and histograms of one resource method. Latencies are in nanoseconds, sizes in bytes.
+	 */
+	public static final class Operation {
+		private final String name;
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder clientErrors = new LongAdder();
+		private final LongAdder serverErrors = new LongAdder();
+		private final Histogram latency = new Histogram();
+		private final Histogram requestBytes = new Histogram();
+		private final Histogram responseBytes = new Histogram();
+
+		Operation(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @param requestBytes the length of the request body, or -1 if it is not known
+		 * @param responseBytes the length of the response body, or -1 if there is none
+		 */
+		public void record(int status, long nanos, long requestBytes, long responseBytes) {
+			requests.increment();
+			if (status >= 500) {
+				serverErrors.increment();
+			} else if (status >= 400) {
+				clientErrors.increment();
+			}
+			latency.record(nanos);
+			if (requestBytes >= 0) {
+				this.requestBytes.record(requestBytes);
+			}
+			if (responseBytes >= 0) {
+				this.responseBytes.record(responseBytes);
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getRequests() {
+			return requests.sum();
+		}
+
+		public long getClientErrors() {
+			return clientErrors.sum();
+		}
+
+		public long getServerErrors() {
+			return serverErrors.sum();
+		}
+
+		public Histogram getLatency() {
+			return latency;
+		}
+
+		public Histogram getRequestBytes() {
+			return requestBytes;
+		}
+
+		public Histogram getResponseBytes() {
+			return responseBytes;
+		}
+
+		Histogram histogram(int which) {
+			return which == LATENCY ? latency : which == REQUEST_BYTES ? requestBytes : responseBytes;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * The MetricsFilter class times every request matched to a resource method and records it in Metrics, under the
+ * name of the method, once the response has been written. It also hands the requests that the AccessLog samples to
+ * it, with their bodies when payloads are switched on. It is registered as a provider of the JAX-RS server in
+ * blueprint.
+ * <p/>
+ * A response with a body is recorded by the writer interceptor once the body has been written, counting its bytes
+ * on the way; the response filter hands the request over through the entity stream, as CXF does not share request
+ * properties with writer interceptors. Suspended requests are timed until they are resumed and written, on whichever
+ * thread that happens.
+ * <p/>
+ * Request bodies are never buffered: with payloads switched on, the entity stream is wrapped so that, as the resource
+ * reads it, the first payloadLimit bytes are copied and the rest only counted. A body the resource does not read to
+ * the end is logged with the bytes it read, or its Content-Length if that is more.
+ */
+@Provider
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+	private static final String SAMPLE = MetricsFilter.class.getName();
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Metrics metrics;
+	private volatile AccessLog accessLog;
+
+	@Context
+	private ResourceInfo resourceInfo;
+
+	public MetricsFilter(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public void setAccessLog(AccessLog accessLog) {
+		this.accessLog = accessLog;
+	}
+
+	public void filter(ContainerRequestContext request) throws IOException {
+		Method method = resourceInfo.getResourceMethod();
+		if (method == null) {
+			return;
+		}
+		AccessLog log = accessLog;
+		Sample sample = new Sample(metrics.operation(method.getName()), log, request, request.getLength());
+		if (log != null && log.isPayloads() && request.hasEntity()) {
+			sample.requestCopy = new CountingInputStream(request.getEntityStream(), log.getPayloadLimit());
+			request.setEntityStream(sample.requestCopy);
+		}
+		request.setProperty(SAMPLE, sample);
+	}
+
+	public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+		Sample sample = (Sample) request.getProperty(SAMPLE);
+		if (sample == null) {
+			return;
+		}
+		request.removeProperty(SAMPLE);
+		sample.status = response.getStatus();
+		if (response.hasEntity()) {
+			AccessLog log = sample.accessLog;
+			ByteArrayOutputStream copy = null;
+			if (log != null && log.isPayloads()) {
+				copy = new ByteArrayOutputStream();
+			}
+			response.setEntityStream(new CountingOutputStream(response.getEntityStream(), sample, copy,
+					copy == null ? 0 : log.getPayloadLimit()));
+		} else {
+			sample.record(-1, null);
+		}
+	}
+
+	public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+		OutputStream out = context.getOutputStream();
+		if (!(out instanceof CountingOutputStream)) {
+			context.proceed();
+			return;
+		}
+		CountingOutputStream counting = (CountingOutputStream) out;
+		try {
+			context.proceed();
+		} finally {
+			counting.sample.record(counting.count,
+					counting.copy == null ? null : new String(counting.copy.toByteArray(), UTF8));
+		}
+	}
+
+	private static final class Sample {
+		final long start = System.nanoTime();
+		final Metrics.Operation operation;
+		final AccessLog accessLog;
+		final ContainerRequestContext request;
+		long requestBytes;
+		CountingInputStream requestCopy;
+		int status;
+
+		Sample(Metrics.Operation operation, AccessLog accessLog, ContainerRequestContext request, long requestBytes) {
+			this.operation = operation;
+			this.accessLog = accessLog;
+			this.request = request;
+			this.requestBytes = requestBytes;
+		}
+
+		void record(long responseBytes, String responseBody) {
+			long nanos = System.nanoTime() - start;
+			operation.record(status, nanos, requestBytes, responseBytes);
+			String requestBody = null;
+			CountingInputStream copy = requestCopy;
+			if (copy != null) {
+				requestBytes = Math.max(requestBytes, copy.count);
+				if (copy.copy.size() > 0) {
+					requestBody = new String(copy.copy.toByteArray(), UTF8);
+				}
+			}
+			AccessLog log = accessLog;
+			if (log != null && log.isSampled(operation.getName(), status)) {
+				log.log(operation.getName(), request.getMethod(), request.getUriInfo().getPath(), status, nanos,
+						requestBytes, responseBytes, requestBody, responseBody);
+			}
+		}
+	}
+
+	/**
+	 * Copies the first copyLimit bytes read from a request body and counts all of them.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+		final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		final int copyLimit;
+		long count;
+
+		CountingInputStream(InputStream in, int copyLimit) {
+			super(in);
+			this.copyLimit = copyLimit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0) {
+				if (count < copyLimit) {
+					copy.write(b);
+				}
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0) {
+				if (count < copyLimit) {
+					copy.write(b, off, (int) Math.min(n, copyLimit - count));
+				}
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+		final Sample sample;
+		final ByteArrayOutputStream copy;
+		final int copyLimit;
+		long count;
+
+		CountingOutputStream(OutputStream out, Sample sample, ByteArrayOutputStream copy, int copyLimit) {
+			super(out);
+			this.sample = sample;
+			this.copy = copy;
+			this.copyLimit = copyLimit;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			if (copy != null && count < copyLimit) {
+				copy.write(b);
+			}
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			if (copy != null && count < copyLimit) {
+				copy.write(b, off, (int) Math.min(len, copyLimit - count));
+			}
+			count += len;
+		}
+	}
+}
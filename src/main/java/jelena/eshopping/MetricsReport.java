@@ -0,0 +1,239 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The MetricsReport class has the figures of Metrics since the service started: the sizes of the store and, for
+ * every operation, its counters and the distributions of its latency in microseconds and of its request and
+ * response sizes in bytes.
+ * <p/>
+ * The JSON representation of a MetricsReport will look like this:
+ * {"customers":1,"products":1,"ordersPerCustomer":{"count":1,"sum":1,"p50":1,"p99":1,"p999":1,"max":1},
+ * "operations":[{"name":"getCustomer","requests":10,"clientErrors":0,"serverErrors":0,
+ * "latencyMicros":{"count":10,"sum":950,"p50":81,"p99":203,"p999":203,"max":201},...}]}
+ */
+@XmlRootElement(name = "MetricsReport")
+public class MetricsReport {
+
+	private int customers;
+	private int products;
+	private Distribution ordersPerCustomer;
+	private List<Operation> operations;
+
+	public MetricsReport() {
+		operations = new ArrayList<Operation>();
+	}
+
+	public MetricsReport(Metrics metrics) {
+		customers = metrics.getCustomers();
+		products = metrics.getProducts();
+		ordersPerCustomer = new Distribution(metrics.ordersPerCustomer(), 1);
+		operations = new ArrayList<Operation>();
+		for (Metrics.Operation o : metrics.getOperations()) {
+			operations.add(new Operation(o));
+		}
+	}
+
+	public int getCustomers() {
+		return customers;
+	}
+
+	public void setCustomers(int customers) {
+		this.customers = customers;
+	}
+
+	public int getProducts() {
+		return products;
+	}
+
+	public void setProducts(int products) {
+		this.products = products;
+	}
+
+	public Distribution getOrdersPerCustomer() {
+		return ordersPerCustomer;
+	}
+
+	public void setOrdersPerCustomer(Distribution ordersPerCustomer) {
+		this.ordersPerCustomer = ordersPerCustomer;
+	}
+
+	@XmlElement(name = "operation")
+	public List<Operation> getOperations() {
+		return operations;
+	}
+
+	public void setOperations(List<Operation> operations) {
+		this.operations = operations;
+	}
+
+	public static class Operation {
+		private String name;
+		private long requests;
+		private long clientErrors;
+		private long serverErrors;
+		private Distribution latencyMicros;
+		private Distribution requestBytes;
+		private Distribution responseBytes;
+
+		public Operation() {
+		}
+
+		Operation(Metrics.Operation o) {
+			name = o.getName();
+			requests = o.getRequests();
+			clientErrors = o.getClientErrors();
+			serverErrors = o.getServerErrors();
+			latencyMicros = new Distribution(o.getLatency(), 1000);
+			requestBytes = new Distribution(o.getRequestBytes(), 1);
+			responseBytes = new Distribution(o.getResponseBytes(), 1);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public long getRequests() {
+			return requests;
+		}
+
+		public void setRequests(long requests) {
+			this.requests = requests;
+		}
+
+		public long getClientErrors() {
+			return clientErrors;
+		}
+
+		public void setClientErrors(long clientErrors) {
+			this.clientErrors = clientErrors;
+		}
+
+		public long getServerErrors() {
+			return serverErrors;
+		}
+
+		public void setServerErrors(long serverErrors) {
+			this.serverErrors = serverErrors;
+		}
+
+		public Distribution getLatencyMicros() {
+			return latencyMicros;
+		}
+
+		public void setLatencyMicros(Distribution latencyMicros) {
+			this.latencyMicros = latencyMicros;
+		}
+
+		public Distribution getRequestBytes() {
+			return requestBytes;
+		}
+
+		public void setRequestBytes(Distribution requestBytes) {
+			this.requestBytes = requestBytes;
+		}
+
+		public Distribution getResponseBytes() {
+			return responseBytes;
+		}
+
+		public void setResponseBytes(Distribution responseBytes) {
+			this.responseBytes = responseBytes;
+		}
+	}
+
+	/**
+	 * The count, sum, quantiles and maximum of a Histogram, divided by a unit.
+	 */
+	public static class Distribution {
+		private long count;
+		private long sum;
+		private long p50;
+		private long p99;
+		private long p999;
+		private long max;
+
+		public Distribution() {
+		}
+
+		Distribution(Histogram h, long unit) {
+			count = h.getCount();
+			sum = h.getSum() / unit;
+			p50 = h.valueAt(0.5) / unit;
+			p99 = h.valueAt(0.99) / unit;
+			p999 = h.valueAt(0.999) / unit;
+			max = h.getMax() / unit;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public void setCount(long count) {
+			this.count = count;
+		}
+
+		public long getSum() {
+			return sum;
+		}
+
+		public void setSum(long sum) {
+			this.sum = sum;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public void setP50(long p50) {
+			this.p50 = p50;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		public void setP99(long p99) {
+			this.p99 = p99;
+		}
+
+		public long getP999() {
+			return p999;
+		}
+
+		public void setP999(long p999) {
+			this.p999 = p999;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public void setMax(long max) {
+			this.max = max;
+		}
+	}
+}
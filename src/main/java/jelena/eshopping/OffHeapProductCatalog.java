@@ -0,0 +1,237 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The OffHeapProductCatalog class keeps products in fixed-width slots in direct memory, so a large catalog adds
+ * almost nothing for the garbage collector to trace: 50M products take 1.6 GB of direct memory (raise
+ * -XX:MaxDirectMemorySize accordingly) and only a few thousand heap objects.
+ * <p/>
+ * Product ids are handed out by a counter, so they are dense and the id itself is the index: the slot of a product is
+ * found from its id in a chunk of 64K slots, and the chunks are kept in a LongMap keyed by id / 64K. A slot holds
+ * <pre>
+ * offset 0  id               long
+ * offset 8  price            long
+ * offset 16 quantityOrdered  int
+ * offset 20 flags            int, 1 if the slot holds a product
+ * offset 24 version          long
+ * </pre>
+ * New fields go at the end, growing SLOT_SIZE.
+ * <p/>
+ * Every get returns a new Product copied from the slot, which the caller may keep or change without affecting the
+ * catalog; orders only take the id and price into their lines. Reads are optimistic: the fields are read under a
+ * StampedLock stamp of the chunk and read again under the read lock only if a write got in between.
+ */
+public class OffHeapProductCatalog implements ProductCatalog {
+
+	static final int ID = 0;
+	static final int PRICE = 8;
+	static final int QUANTITY_ORDERED = 16;
+	static final int FLAGS = 20;
+	static final int VERSION = 24;
+	static final int SLOT_SIZE = 32;
+
+	private static final int PRESENT = 1;
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_SLOTS = 1 << CHUNK_BITS;
+
+	private final LongMap<Chunk> chunks = new LongMap<Chunk>();
+	private final AtomicLong size = new AtomicLong();
+	private final AtomicLong minId = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong maxId = new AtomicLong(-1);
+
+	public Product get(long id) {
+		Chunk c = id < 0 ? null : chunks.get(id >>> CHUNK_BITS);
+		if (c == null) {
+			return null;
+		}
+		int offset = offset(id);
+		ByteBuffer slots = c.slots;
+		long stamp = c.lock.tryOptimisticRead();
+		int flags = slots.getInt(offset + FLAGS);
+		long price = slots.getLong(offset + PRICE);
+		int quantityOrdered = slots.getInt(offset + QUANTITY_ORDERED);
+		long version = slots.getLong(offset + VERSION);
+		if (!c.lock.validate(stamp)) {
+			stamp = c.lock.readLock();
+			try {
+				flags = slots.getInt(offset + FLAGS);
+				price = slots.getLong(offset + PRICE);
+				quantityOrdered = slots.getInt(offset + QUANTITY_ORDERED);
+				version = slots.getLong(offset + VERSION);
+			} finally {
+				c.lock.unlockRead(stamp);
+			}
+		}
+		if ((flags & PRESENT) == 0) {
+			return null;
+		}
+		Product p = new Product();
+		p.setId(id);
+		p.setPrice(price);
+		p.setQuantityOrdered(quantityOrdered);
+		p.version(version);
+		return p;
+	}
+
+	public void put(Product product) {
+		long id = product.getId();
+		if (id < 0) {
+			throw new IllegalArgumentException("Product ids must not be negative: " + id);
+		}
+		Chunk c = chunks.get(id >>> CHUNK_BITS);
+		if (c == null) {
+			Chunk created = new Chunk();
+			c = chunks.putIfAbsent(id >>> CHUNK_BITS, created);
+			c = c == null ? created : c;
+		}
+		long stamp = c.lock.writeLock();
+		try {
+			if (!write(c.slots, offset(id), product, true)) {
+				size.incrementAndGet();
+			}
+		} finally {
+			c.lock.unlockWrite(stamp);
+		}
+		accumulate(minId, id, true);
+		accumulate(maxId, id, false);
+	}
+
+	public boolean replace(Product product) {
+		long id = product.getId();
+		Chunk c = id < 0 ? null : chunks.get(id >>> CHUNK_BITS);
+		if (c == null) {
+			return false;
+		}
+		long stamp = c.lock.writeLock();
+		try {
+			return write(c.slots, offset(id), product, false);
+		} finally {
+			c.lock.unlockWrite(stamp);
+		}
+	}
+
+	public boolean remove(long id) {
+		Chunk c = id < 0 ? null : chunks.get(id >>> CHUNK_BITS);
+		if (c == null) {
+			return false;
+		}
+		int offset = offset(id);
+		long stamp = c.lock.writeLock();
+		try {
+			if ((c.slots.getInt(offset + FLAGS) & PRESENT) == 0) {
+				return false;
+			}
+			c.slots.putInt(offset + FLAGS, 0);
+		} finally {
+			c.lock.unlockWrite(stamp);
+		}
+		size.decrementAndGet();
+		return true;
+	}
+
+	public boolean isEmpty() {
+		return size.get() == 0;
+	}
+
+	public Collection<Product> values() {
+		return new AbstractCollection<Product>() {
+			public Iterator<Product> iterator() {
+				return OffHeapProductCatalog.this.iterator(-1, Long.MAX_VALUE);
+			}
+
+			public int size() {
+				return (int) Math.min(Integer.MAX_VALUE, size.get());
+			}
+		};
+	}
+
+	public Iterator<Product> iterator(final long after, final long last) {
+		return new Iterator<Product>() {
+			// after + 1 overflows for Long.MAX_VALUE, which leaves nothing to iterate
+			private long id = after == Long.MAX_VALUE ? after : Math.max(after + 1, minId.get());
+			private Product next;
+
+			public boolean hasNext() {
+				long end = Math.min(last, maxId.get());
+				while (next == null && id <= end && id > after) {
+					if (chunks.get(id >>> CHUNK_BITS) == null) {
+						id = ((id >>> CHUNK_BITS) + 1) << CHUNK_BITS;
+					} else {
+						next = get(id++);
+					}
+				}
+				return next != null;
+			}
+
+			public Product next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Product p = next;
+				next = null;
+				return p;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Writes the product into its slot, if the slot is empty only when 'add' is set. Called with the write lock held.
+	 *
+	 * @return whether the slot held a product before
+	 */
+	private static boolean write(ByteBuffer slots, int offset, Product product, boolean add) {
+		boolean present = (slots.getInt(offset + FLAGS) & PRESENT) != 0;
+		if (present || add) {
+			slots.putLong(offset + ID, product.getId());
+			slots.putLong(offset + PRICE, product.getPrice());
+			slots.putInt(offset + QUANTITY_ORDERED, product.getQuantityOrdered());
+			slots.putLong(offset + VERSION, product.getVersion());
+			slots.putInt(offset + FLAGS, PRESENT);
+		}
+		return present;
+	}
+
+	private static int offset(long id) {
+		return (int) (id & (CHUNK_SLOTS - 1)) * SLOT_SIZE;
+	}
+
+	private static void accumulate(AtomicLong bound, long id, boolean min) {
+		long current;
+		while ((min ? id < (current = bound.get()) : id > (current = bound.get()))
+				&& !bound.compareAndSet(current, id)) {
+			// another writer moved the bound, check again
+		}
+	}
+
+	private static final class Chunk {
+		final ByteBuffer slots = ByteBuffer.allocateDirect(CHUNK_SLOTS * SLOT_SIZE).order(ByteOrder.nativeOrder());
+		final StampedLock lock = new StampedLock();
+	}
+}
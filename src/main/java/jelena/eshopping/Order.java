@@ -20,15 +20,20 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 /**
  * The Order class is not only a plain old java object, with a few properties and getters and setters, but it also defines
  * a sub-resource for the Order returned by CustomerService.
@@ -41,25 +46,53 @@ import org.slf4j.LoggerFactory;
  * <id>223</id>
  * <description>Order 223</description>
  * </Order>
+ * <p/>
+ * An order holds one OrderLine per product, with the quantity ordered and the unit price, and keeps its total as the
+ * sum of the lines. It does not refer to the catalog Product, so neither changes of the product nor other orders of
+ * it leak into the order.
+ * <p/>
+ * Order ids are unique across all customers, so an order can also be found without its customer.
+ * <p/>
+ * The total and the version are written but never read from a request: EntityStore sums up the total from the
+ * lines it prices and hands out the versions, so neither has a public setter.
  */
 @XmlRootElement(name = "Order")
-public class Order {
+@JsonIgnoreProperties(value = { "total", "version" }, allowGetters = true)
+public class Order implements Entity {
 
 	private static final Logger LOG = LoggerFactory.getLogger(CustomerService.class);
 
     private long id;
     private String description;
-    Map<Long, Product> products = new HashMap<Long, Product>();
-	long currentOrderProductId = 423;
-    private long total=0;
+    private volatile LongMap<OrderLine> lines;
+    private volatile long total=0;
+    private volatile long version;
+    /**
+     * The customer holding the order, set by EntityStore before the order is published. Not part of the
+     * representation.
+     */
+    long customerId;
    
 
 
+	/**
+	 * Bumped by adding or deleting a product, and by a change of price of one of its products.
+	 */
+	@XmlElement
+	public long getVersion() {
+		return version;
+	}
+
+	void version(long version) {
+		this.version = version;
+	}
+
+	@XmlElement
     public long getTotal() {
 		return total;
 	}
 
-	public void setTotal(long total) {
+	void total(long total) {
 		this.total = total;
 	}
 
@@ -79,28 +112,130 @@ public class Order {
         this.description = d;
     }
 
-    public Product getProduct(@PathParam("productId") long productId) {
-        Product p = products.get(new Long(productId));
-        return p;
+    public OrderLine getLine(@PathParam("productId") long productId) {
+        LongMap<OrderLine> l = lines;
+        return l == null ? null : l.get(productId);
     }
     
-	public List<Product> getProducts() {
-		return new ArrayList<Product>(products.values());
+	public List<OrderLine> getLines() {
+		return new ArrayList<OrderLine>(lineValues());
+	}
+
+	/**
+	 * Replaces the lines, for Jackson reading an order with its lines from a request; the XML representation has no
+	 * lines. The total is recomputed. Callers must be the only thread that knows the order.
+	 */
+	@XmlTransient
+	public void setLines(List<OrderLine> list) {
+		LongMap<OrderLine> l = new LongMap<OrderLine>();
+		long sum = 0;
+		for (OrderLine line : list) {
+			l.put(line.getId(), line);
+			sum += line.amount();
+		}
+		lines = l;
+		total = sum;
+	}
+
+	/**
+	 * Returns up to 'limit' lines with a product id greater than 'after', in product id order.
+	 */
+	public List<OrderLine> getLines(long after, int limit) {
+		return Pages.select(lineValues(), after, limit);
+	}
+
+	/**
+	 * Iterates the lines with a product id greater than 'after' in product id order, without collecting them.
+	 */
+	Iterator<OrderLine> linesAfter(long after) {
+		LongMap<OrderLine> l = lines;
+		return l == null ? Collections.<OrderLine>emptyIterator() : l.iterator(after);
 	}
 	
-	public void deleteProduct(long productId) {
-		Product p=products.get(productId);
-		total-=(p.getPrice()*p.getQuantityOrdered());
-		products.remove(productId);			
+	/**
+	 * Removes the line of the product, whatever its quantity. Callers must hold the owning customer's lock in
+	 * EntityStore.
+	 *
+	 * @return the removed line, or null if the order has none for the product
+	 */
+	public OrderLine deleteProduct(long productId) {
+		LongMap<OrderLine> l = lines;
+		OrderLine line = l == null ? null : l.remove(productId);
+		if (line != null) {
+			total -= line.amount();
+			version++;
+		}
+		return line;
 	}
 	
-	public void addProduct(Product product) {
-		if(products.get(product.getId()) == null) {
-			products.put(product.getId(), product);		
+	/**
+	 * Adds one of the product at its current price, to the line the order already has for it or to a new one.
+	 * Callers must hold the owning customer's lock in EntityStore.
+	 *
+	 * @return true if a new line was added
+	 */
+	public boolean addProduct(Product product) {
+		OrderLine line = lines().get(product.getId());
+		boolean added = line == null;
+		if (added) {
+			line = new OrderLine(product.getId(), 0, product.getPrice());
+			lines().put(line.getId(), line);
+		}
+		reprice(line, product.getPrice());
+		line.setQuantity(line.getQuantity() + 1);
+		line.version(line.getVersion() + 1);
+		total += line.getUnitPrice();
+		version++;
+		return added;
+	}
+
+	/**
+	 * Sets the unit price of the line of the product and adjusts the total. Callers must hold the owning customer's
+	 * lock in EntityStore.
+	 *
+	 * @return false if the order has no line for the product or it already has that price
+	 */
+	boolean reprice(long productId, long price) {
+		OrderLine line = getLine(productId);
+		if (line == null || !reprice(line, price)) {
+			return false;
+		}
+		line.version(line.getVersion() + 1);
+		version++;
+		return true;
+	}
+
+	private boolean reprice(OrderLine line, long price) {
+		long old = line.getUnitPrice();
+		if (old == price) {
+			return false;
 		}
-		int quantity=product.getQuantityOrdered();
-		product.setQuantityOrdered(++quantity);
-		total+=product.getPrice();	
+		line.setUnitPrice(price);
+		total += line.getQuantity() * (price - old);
+		return true;
+	}
+
+	/**
+	 * Returns the line map, creating it if needed. Callers must hold the owning customer's lock in EntityStore, or
+	 * be the only thread that knows the order.
+	 */
+	LongMap<OrderLine> lines() {
+		LongMap<OrderLine> l = lines;
+		if (l == null) {
+			l = new LongMap<OrderLine>();
+			lines = l;
+		}
+		return l;
+	}
+
+	Collection<OrderLine> lineValues() {
+		LongMap<OrderLine> l = lines;
+		return l == null ? Collections.<OrderLine>emptyList() : l.values();
+	}
+
+	int lineCount() {
+		LongMap<OrderLine> l = lines;
+		return l == null ? 0 : l.size();
 	}
 
 
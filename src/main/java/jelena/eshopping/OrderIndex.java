@@ -0,0 +1,214 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+/**
+ * The OrderIndex class maps every product to the orders that have a line for it, so that a change of price only
+ * reprices those orders instead of walking the whole store.
+ * <p/>
+ * The orders of a product are kept as (customer id, order id) pairs in an open addressing set of their own, two longs
+ * per entry and no object, so that an index over millions of orders stays small. EntityStore updates the index
+ * under the lock of the customer whose order changes; the set of a product is synchronized on itself, so orders of
+ * different customers can be indexed at the same time. Customer ids are never zero, which marks a free slot.
+ */
+final class OrderIndex {
+
+	private final StripedLongMap<Orders> products;
+
+	OrderIndex(int stripes) {
+		products = new StripedLongMap<Orders>(stripes);
+	}
+
+	/**
+	 * Indexes every line of the order.
+	 */
+	void add(long customerId, Order order) {
+		for (OrderLine line : order.lineValues()) {
+			add(line.getId(), customerId, order.getId());
+		}
+	}
+
+	/**
+	 * Removes every line of the order from the index.
+	 */
+	void remove(long customerId, Order order) {
+		for (OrderLine line : order.lineValues()) {
+			remove(line.getId(), customerId, order.getId());
+		}
+	}
+
+	void add(Customer customer) {
+		for (Order o : customer.orderValues()) {
+			add(customer.getId(), o);
+		}
+	}
+
+	void remove(Customer customer) {
+		for (Order o : customer.orderValues()) {
+			remove(customer.getId(), o);
+		}
+	}
+
+	void add(long productId, long customerId, long orderId) {
+		while (true) {
+			Orders orders = products.get(productId);
+			if (orders == null) {
+				Orders created = new Orders();
+				orders = products.putIfAbsent(productId, created);
+				if (orders == null) {
+					orders = created;
+				}
+			}
+			synchronized (orders) {
+				if (!orders.removed) {
+					orders.add(customerId, orderId);
+					return;
+				}
+			}
+		}
+	}
+
+	void remove(long productId, long customerId, long orderId) {
+		Orders orders = products.get(productId);
+		if (orders == null) {
+			return;
+		}
+		synchronized (orders) {
+			if (orders.remove(customerId, orderId) && orders.size == 0) {
+				orders.removed = true;
+				products.remove(productId);
+			}
+		}
+	}
+
+	/**
+	 * @return the orders with a line for the product, as customer id and order id pairs
+	 */
+	long[] orders(long productId) {
+		Orders orders = products.get(productId);
+		if (orders == null) {
+			return new long[0];
+		}
+		synchronized (orders) {
+			return orders.toArray();
+		}
+	}
+
+	/**
+	 * @return the number of orders with a line for the product
+	 */
+	int count(long productId) {
+		Orders orders = products.get(productId);
+		if (orders == null) {
+			return 0;
+		}
+		synchronized (orders) {
+			return orders.size;
+		}
+	}
+
+	/**
+	 * A set of (customer id, order id) pairs with linear probing. Removal shifts the following entries back instead
+	 * of leaving tombstones, so the table never needs cleaning up.
+	 */
+	private static final class Orders {
+		long[] pairs = new long[4];
+		int size;
+		boolean removed;
+
+		void add(long customerId, long orderId) {
+			if ((size + 1) * 4 > capacity() * 3) {
+				resize(capacity() * 2);
+			}
+			insert(pairs, customerId, orderId);
+		}
+
+		private boolean insert(long[] table, long customerId, long orderId) {
+			int mask = table.length / 2 - 1;
+			for (int i = slot(customerId, orderId, mask);; i = (i + 1) & mask) {
+				if (table[2 * i] == 0) {
+					table[2 * i] = customerId;
+					table[2 * i + 1] = orderId;
+					if (table == pairs) {
+						size++;
+					}
+					return true;
+				}
+				if (table[2 * i] == customerId && table[2 * i + 1] == orderId) {
+					return false;
+				}
+			}
+		}
+
+		boolean remove(long customerId, long orderId) {
+			int mask = capacity() - 1;
+			int i = slot(customerId, orderId, mask);
+			while (true) {
+				if (pairs[2 * i] == 0) {
+					return false;
+				}
+				if (pairs[2 * i] == customerId && pairs[2 * i + 1] == orderId) {
+					break;
+				}
+				i = (i + 1) & mask;
+			}
+			// shift back every following entry that may not stay behind the freed slot
+			int free = i;
+			for (int j = (i + 1) & mask; pairs[2 * j] != 0; j = (j + 1) & mask) {
+				int home = slot(pairs[2 * j], pairs[2 * j + 1], mask);
+				if (((j - home) & mask) >= ((j - free) & mask)) {
+					pairs[2 * free] = pairs[2 * j];
+					pairs[2 * free + 1] = pairs[2 * j + 1];
+					free = j;
+				}
+			}
+			pairs[2 * free] = 0;
+			pairs[2 * free + 1] = 0;
+			size--;
+			return true;
+		}
+
+		long[] toArray() {
+			long[] copy = new long[size * 2];
+			int n = 0;
+			for (int i = 0; i < pairs.length; i += 2) {
+				if (pairs[i] != 0) {
+					copy[n++] = pairs[i];
+					copy[n++] = pairs[i + 1];
+				}
+			}
+			return copy;
+		}
+
+		private int capacity() {
+			return pairs.length / 2;
+		}
+
+		private void resize(int capacity) {
+			long[] table = new long[capacity * 2];
+			for (int i = 0; i < pairs.length; i += 2) {
+				if (pairs[i] != 0) {
+					insert(table, pairs[i], pairs[i + 1]);
+				}
+			}
+			pairs = table;
+		}
+
+		private static int slot(long customerId, long orderId, int mask) {
+			return LongMap.index(customerId * 31 + orderId, mask);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * The OrderLine class is one product on an order: how many of it were ordered and at what unit price. A line has
+ * the id of its product, and an order has at most one line per product.
+ * <p/>
+ * The unit price follows the catalog: when the price of a product changes, EntityStore reprices every line that
+ * refers to it. Lines are changed under the lock of the customer that owns the order.
+ * <p/>
+ * The XML representation of an OrderLine will look like this:
+ * <OrderLine>
+ * <id>323</id>
+ * <quantity>2</quantity>
+ * <unitPrice>1000</unitPrice>
+ * <version>3</version>
+ * </OrderLine>
+ * <p/>
+ * The unit price of a line read from a request is replaced by the price in the catalog, and its version is not read.
+ */
+@XmlRootElement(name = "OrderLine")
+@JsonIgnoreProperties(value = "version", allowGetters = true)
+public class OrderLine implements Entity {
+
+	private long id;
+	private volatile int quantity;
+	private volatile long unitPrice;
+	private volatile long version;
+
+	public OrderLine() {
+	}
+
+	public OrderLine(long productId, int quantity, long unitPrice) {
+		this.id = productId;
+		this.quantity = quantity;
+		this.unitPrice = unitPrice;
+	}
+
+	/**
+	 * The id of the product.
+	 */
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
+
+	public long getUnitPrice() {
+		return unitPrice;
+	}
+
+	public void setUnitPrice(long unitPrice) {
+		this.unitPrice = unitPrice;
+	}
+
+	/**
+	 * Bumped by every change of the quantity or price. It is not journaled, so the tag of a line also mixes in both.
+	 */
+	@XmlElement
+	public long getVersion() {
+		return version;
+	}
+
+	void version(long version) {
+		this.version = version;
+	}
+
+	long amount() {
+		return quantity * unitPrice;
+	}
+}
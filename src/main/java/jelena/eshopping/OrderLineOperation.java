@@ -0,0 +1,75 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The OrderLineOperation class is one entry of an order line batch: it adds a product to an order, or deletes it, just
+ * like a PUT or DELETE of 'customers/{id}/orders/{orderId}/products/{productId}/'.
+ * <p/>
+ * The XML representation of an OrderLineOperation will look like this:
+ * <OrderLineOperation>
+ * <action>ADD</action>
+ * <customerId>123</customerId>
+ * <orderId>223</orderId>
+ * <productId>323</productId>
+ * </OrderLineOperation>
+ */
+@XmlRootElement(name = "OrderLineOperation")
+public class OrderLineOperation {
+
+	public enum Action {
+		ADD, DELETE
+	}
+
+	private Action action = Action.ADD;
+	private long customerId;
+	private long orderId;
+	private long productId;
+
+	public Action getAction() {
+		return action;
+	}
+
+	public void setAction(Action action) {
+		this.action = action;
+	}
+
+	public long getCustomerId() {
+		return customerId;
+	}
+
+	public void setCustomerId(long customerId) {
+		this.customerId = customerId;
+	}
+
+	public long getOrderId() {
+		return orderId;
+	}
+
+	public void setOrderId(long orderId) {
+		this.orderId = orderId;
+	}
+
+	public long getProductId() {
+		return productId;
+	}
+
+	public void setProductId(long productId) {
+		this.productId = productId;
+	}
+}
@@ -0,0 +1,330 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The OrderLinePipeline class applies the order line writes of many requests in batches on a single thread, for the
+ * PUT and DELETE of 'customers/{id}/orders/{orderId}/products/{productId}/' during sales.
+ * <p/>
+ * Request threads append their writes to a ring of 'capacity' slots and return; a write that finds the ring full is
+ * rejected with a RejectedExecutionException, which CustomerService answers with 503/Service Unavailable. The
+ * pipeline thread takes up to batchSize writes at a time, waiting up to lingerMicros for a batch to fill once it has
+ * the first write, and applies them one after the other through the EntityStore, so they never contend with each
+ * other for a lock. A second thread then waits once for the journal to make the whole batch durable and completes
+ * its writes, while the first is already applying the next batch. A request is thus acknowledged once its write is
+ * applied and, with the journal enabled, durable.
+ * <p/>
+ * Lingering only pays off when more writes arrive within lingerMicros than the fsync takes to come round; with
+ * fewer clients than batchSize, each waiting for its answer, a batch never fills and every write waits the full
+ * linger, so it is off by default.
+ * <p/>
+ * The writes are applied in the order they were appended, so two writes of the same order line keep their order.
+ */
+public class OrderLinePipeline {
+	private static final Logger LOG = LoggerFactory.getLogger(OrderLinePipeline.class);
+
+	/**
+	 * Told the outcome of a write once its batch is applied and durable, on the 'ebasket-orderlines-ack' thread that
+	 * waits for the journal while the pipeline thread applies the next batch. Completions resume requests, so they
+	 * must not block that thread.
+	 */
+	public interface Completion {
+
+		/**
+		 * @param applied whether the customer, order and product existed
+		 * @param error the failed precondition or write, or null
+		 */
+		void complete(boolean applied, RuntimeException error);
+	}
+
+	private final EntityStore store;
+	private boolean enabled;
+	private int capacity = 65536;
+	private int batchSize = 256;
+	private long lingerMicros;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition appended = lock.newCondition();
+	private Write[] ring;
+	private int mask;
+	private long head;
+	private long tail;
+	private long wakeAt;
+	private volatile boolean running;
+	private Thread thread;
+	private Thread acknowledger;
+	private BlockingQueue<Batch> applied;
+
+	private final LongAdder writes = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+
+	public OrderLinePipeline(EntityStore store) {
+		this.store = store;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Takes effect at start; rounded up to a power of two.
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets how long a batch that is not full waits for more writes, 0 to apply whatever is there right away.
+	 */
+	public void setLingerMicros(long lingerMicros) {
+		this.lingerMicros = lingerMicros;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return the writes applied since the start
+	 */
+	public long getWrites() {
+		return writes.sum();
+	}
+
+	/**
+	 * @return the batches applied since the start
+	 */
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	public void start() {
+		if (!enabled) {
+			LOG.info("Order line pipeline disabled");
+			return;
+		}
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		ring = new Write[size];
+		mask = size - 1;
+		applied = new ArrayBlockingQueue<Batch>(64);
+		running = true;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "ebasket-orderlines");
+		thread.setDaemon(true);
+		acknowledger = new Thread(new Runnable() {
+			public void run() {
+				acknowledge();
+			}
+		}, "ebasket-orderlines-ack");
+		acknowledger.setDaemon(true);
+		thread.start();
+		acknowledger.start();
+		LOG.info("Order line writes run in batches of up to {}, lingering {} us, with room for {}", batchSize,
+				lingerMicros, size);
+	}
+
+	/**
+	 * Stops taking writes, applies the ones already appended and waits a little for the pipeline thread.
+	 */
+	public void close() throws InterruptedException {
+		Thread t = thread;
+		if (t == null) {
+			return;
+		}
+		lock.lock();
+		try {
+			running = false;
+			appended.signal();
+		} finally {
+			lock.unlock();
+		}
+		for (Thread running : new Thread[] { t, acknowledger }) {
+			running.join(10000);
+			if (running.isAlive()) {
+				LOG.warn("{} still running after 10 seconds, interrupting it", running.getName());
+				running.interrupt();
+			}
+		}
+		thread = null;
+		acknowledger = null;
+	}
+
+	/**
+	 * Appends a write, to be applied after those appended before it.
+	 *
+	 * @param condition the check of the If-Match header, or null
+	 * @throws RejectedExecutionException if the ring is full or the pipeline is not running
+	 */
+	public void submit(OrderLineOperation operation, Precondition condition, Completion completion) {
+		Write w = new Write(operation, condition, completion);
+		lock.lock();
+		try {
+			if (!running) {
+				throw new RejectedExecutionException("The order line pipeline is not running");
+			}
+			if (tail - head == ring.length) {
+				throw new RejectedExecutionException("More than " + ring.length + " order line writes queued");
+			}
+			ring[(int) tail & mask] = w;
+			tail++;
+			if (wakeAt > 0 && tail - head >= wakeAt) {
+				wakeAt = 0;
+				appended.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void drain() {
+		EntityStore.deferDurability(true);
+		try {
+			Write[] batch;
+			while ((batch = take()) != null) {
+				apply(batch);
+				applied.put(new Batch(batch, EntityStore.takeDeferredDurability()));
+			}
+			applied.put(new Batch(null, 0));
+		} catch (InterruptedException e) {
+			LOG.warn("Order line pipeline interrupted");
+		}
+	}
+
+	private void acknowledge() {
+		try {
+			Batch b;
+			while ((b = applied.take()).writes != null) {
+				complete(b);
+			}
+		} catch (InterruptedException e) {
+			LOG.warn("Order line acknowledgements interrupted");
+		}
+	}
+
+	/**
+	 * Waits for the next batch and moves it out of the ring.
+	 *
+	 * @return the writes taken, null once the pipeline is closed and empty
+	 */
+	private Write[] take() throws InterruptedException {
+		int size = Math.max(1, batchSize);
+		lock.lock();
+		try {
+			while (tail == head) {
+				if (!running) {
+					return null;
+				}
+				wakeAt = 1;
+				appended.await(100, TimeUnit.MILLISECONDS);
+			}
+			long linger = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+			while (tail - head < size && linger > 0 && running) {
+				wakeAt = size;
+				linger = appended.awaitNanos(linger);
+			}
+			wakeAt = 0;
+			Write[] batch = new Write[(int) Math.min(size, tail - head)];
+			for (int i = 0; i < batch.length; i++) {
+				int slot = (int) head & mask;
+				batch[i] = ring[slot];
+				ring[slot] = null;
+				head++;
+			}
+			return batch;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void apply(Write[] batch) {
+		for (Write w : batch) {
+			OrderLineOperation op = w.operation;
+			try {
+				if (op.getAction() == OrderLineOperation.Action.DELETE) {
+					w.applied = store.deleteOrderProduct(op.getCustomerId(), op.getOrderId(), op.getProductId());
+				} else {
+					w.applied = store.addOrderProduct(op.getCustomerId(), op.getOrderId(), op.getProductId(),
+							w.condition);
+				}
+			} catch (RuntimeException e) {
+				w.error = e;
+			}
+		}
+	}
+
+	/**
+	 * Waits for the journal to make a batch durable and completes its writes.
+	 */
+	private void complete(Batch batch) {
+		RuntimeException failed = null;
+		try {
+			store.awaitDurable(batch.lsn);
+		} catch (RuntimeException e) {
+			failed = e;
+		}
+		writes.add(batch.writes.length);
+		batches.increment();
+		for (Write w : batch.writes) {
+			try {
+				w.completion.complete(w.applied, w.error != null ? w.error : failed);
+			} catch (RuntimeException e) {
+				LOG.error("Completing an order line write failed", e);
+			}
+		}
+	}
+
+	private static final class Batch {
+		final Write[] writes;
+		final long lsn;
+
+		Batch(Write[] writes, long lsn) {
+			this.writes = writes;
+			this.lsn = lsn;
+		}
+	}
+
+	private static final class Write {
+		final OrderLineOperation operation;
+		final Precondition condition;
+		final Completion completion;
+		boolean applied;
+		RuntimeException error;
+
+		Write(OrderLineOperation operation, Precondition condition, Completion completion) {
+			this.operation = operation;
+			this.condition = condition;
+			this.completion = completion;
+		}
+	}
+}
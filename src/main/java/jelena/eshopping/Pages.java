@@ -0,0 +1,134 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Cursor based paging helpers. A page holds the entities with an id greater than the 'after' cursor, in id order.
+ */
+final class Pages {
+
+	static final Comparator<Entity> BY_ID = new Comparator<Entity>() {
+		public int compare(Entity a, Entity b) {
+			return a.getId() < b.getId() ? -1 : a.getId() == b.getId() ? 0 : 1;
+		}
+	};
+
+	private Pages() {
+	}
+
+	/**
+	 * Selects a page from an unordered collection. Only 'limit' entities are held at a time, so the memory needed
+	 * does not depend on the size of the collection. A limit of zero or less selects every entity after the cursor,
+	 * which are all collected and sorted; an iterator in id order, such as LongMap hands out, avoids that.
+	 */
+	static <T extends Entity> List<T> select(Iterable<T> values, long after, int limit) {
+		if (limit <= 0) {
+			List<T> all = new ArrayList<T>();
+			for (T value : values) {
+				if (value.getId() > after) {
+					all.add(value);
+				}
+			}
+			Collections.sort(all, BY_ID);
+			return all;
+		}
+		PriorityQueue<T> largestFirst = new PriorityQueue<T>(limit, Collections.reverseOrder(BY_ID));
+		for (T value : values) {
+			if (value.getId() <= after) {
+				continue;
+			}
+			if (largestFirst.size() < limit) {
+				largestFirst.add(value);
+			} else if (value.getId() < largestFirst.peek().getId()) {
+				largestFirst.poll();
+				largestFirst.add(value);
+			}
+		}
+		List<T> page = new ArrayList<T>(largestFirst);
+		Collections.sort(page, BY_ID);
+		return page;
+	}
+
+	/**
+	 * Takes up to 'limit' entities from an iterator that is already in id order.
+	 */
+	static <T> List<T> take(Iterator<T> iterator, int limit) {
+		List<T> page = new ArrayList<T>(limit > 0 ? Math.min(limit, 1024) : 16);
+		while (iterator.hasNext() && (limit <= 0 || page.size() < limit)) {
+			page.add(iterator.next());
+		}
+		return page;
+	}
+
+	/**
+	 * Walks a map keyed by ids handed out from a counter in id order, without copying or sorting it. The walk stops
+	 * at the highest id allocated when it was created.
+	 */
+	static <T> Iterator<T> idRange(final StripedLongMap<T> map, long after, long last) {
+		return new IdRange<T>(after, last) {
+			T lookup(long id) {
+				return map.get(id);
+			}
+		};
+	}
+
+	/**
+	 * Iterates the ids greater than 'after' and at most 'last' in order, handing out what lookup finds for them.
+	 */
+	abstract static class IdRange<T> implements Iterator<T> {
+		private final long last;
+		private long id;
+		private T next;
+
+		IdRange(long after, long last) {
+			this.id = after;
+			this.last = last;
+		}
+
+		/**
+		 * @return the value of the id, or null to skip it
+		 */
+		abstract T lookup(long id);
+
+		public boolean hasNext() {
+			while (next == null && id < last) {
+				next = lookup(++id);
+			}
+			return next != null;
+		}
+
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T value = next;
+			next = null;
+			return value;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,30 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+/**
+ * A condition on the current state of an entity, checked by EntityStore under the lock of the entity before it
+ * changes it, so that no other write can get in between. CustomerService makes one from the If-Match header.
+ */
+public interface Precondition {
+
+	/**
+	 * Throws an unchecked exception to veto the change, which then propagates out of EntityStore.
+	 *
+	 * @param tag the current entity tag, see ETags
+	 */
+	void check(String tag);
+}
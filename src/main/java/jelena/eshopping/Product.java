@@ -15,8 +15,11 @@
  */
 package jelena.eshopping;
 
+import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
 /**
  * The Product class is just a plain old java object, with a few properties and getters and setters.
  * <p/>
@@ -28,12 +31,16 @@ import javax.xml.bind.annotation.XmlRootElement;
  * <id>10010</id>
  * <description>Armadillo</description>
  * </Product>
+ * <p/>
+ * The version is written but never read from a request; EntityStore hands it out.
  */
 @XmlRootElement(name = "Product")
-public class Product {
+@JsonIgnoreProperties(value = "version", allowGetters = true)
+public class Product implements Entity {
     private long id;
     private long price;
-    private int quantityOrdered;
+    private volatile int quantityOrdered;
+    private volatile long version;
 
 
     public int getQuantityOrdered() {
@@ -44,6 +51,26 @@ public class Product {
 		this.quantityOrdered = quantityOrdered;
 	}
 
+	/**
+	 * Counts one more unit ordered, over the orders of all customers; deleting a line does not take units back.
+	 */
+	synchronized void incrementQuantityOrdered() {
+		quantityOrdered++;
+		version++;
+	}
+
+	/**
+	 * Bumped by every change of the product; EntityStore sets it on the product that replaces this one.
+	 */
+	@XmlElement
+	public long getVersion() {
+		return version;
+	}
+
+	void version(long version) {
+		this.version = version;
+	}
+
 	public long getId() {
         return id;
     }
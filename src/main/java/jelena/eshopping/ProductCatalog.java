@@ -0,0 +1,64 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * The ProductCatalog interface is where EntityStore keeps its products. HeapProductCatalog keeps the Product objects
+ * themselves; OffHeapProductCatalog keeps their fields in direct memory and hands out copies.
+ * <p/>
+ * Callers must therefore not rely on the identity of the products returned: a product changed after get has to be
+ * written back with replace. Reads may run concurrently with writes; EntityStore serializes the writes of a product
+ * with its product lock.
+ */
+public interface ProductCatalog {
+
+	/**
+	 * @return the product with the given id, or null
+	 */
+	Product get(long id);
+
+	/**
+	 * Adds the product, or replaces the product with the same id.
+	 */
+	void put(Product product);
+
+	/**
+	 * Replaces the product with the same id, if there is one.
+	 *
+	 * @return whether there was a product to replace
+	 */
+	boolean replace(Product product);
+
+	/**
+	 * @return whether there was a product to remove
+	 */
+	boolean remove(long id);
+
+	boolean isEmpty();
+
+	/**
+	 * Returns a weakly consistent view of all products.
+	 */
+	Collection<Product> values();
+
+	/**
+	 * Iterates the products with an id greater than 'after' and at most 'last', in id order.
+	 */
+	Iterator<Product> iterator(long after, long last);
+}
@@ -0,0 +1,39 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+/**
+ * Creates the ProductCatalog named by the 'catalog.type' setting in blueprint.
+ */
+public final class ProductCatalogs {
+
+	public static final String HEAP = "heap";
+	public static final String OFF_HEAP = "offheap";
+
+	private ProductCatalogs() {
+	}
+
+	public static ProductCatalog create(String type) {
+		if (HEAP.equalsIgnoreCase(type)) {
+			return new HeapProductCatalog();
+		}
+		if (OFF_HEAP.equalsIgnoreCase(type)) {
+			return new OffHeapProductCatalog();
+		}
+		throw new IllegalArgumentException("Unknown product catalog type '" + type + "', use " + HEAP + " or "
+				+ OFF_HEAP);
+	}
+}
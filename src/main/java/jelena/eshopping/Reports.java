@@ -0,0 +1,317 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The Reports class computes the sales figures of the whole store: revenue and units sold per product, the best
+ * sellers, and the distributions of order totals and of units per order.
+ * <p/>
+ * The customers are split into ranges of CHUNK ids that are folded in parallel on a fork/join pool, each into a
+ * Partial of its own that no other thread touches, and the partials are merged as the tasks are joined. A customer is
+ * read while its lock is held, so every customer counts as it was at one moment, but the customers are not read at
+ * the same moment: writes go on while the report is computed, and each of them waits for the visit of at most one
+ * customer. A report is kept and handed out again until it is older than maxAgeSeconds; while one is computed, other
+ * requests wait for it rather than computing their own.
+ */
+public class Reports {
+
+	private static final int CHUNK = 1024;
+
+	private final EntityStore store;
+	private volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+	private volatile long maxAgeMillis = 60000;
+	private volatile Report latest;
+
+	public Reports(EntityStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Sets the number of threads that compute a report, or zero to use the common pool.
+	 */
+	public void setParallelism(int parallelism) {
+		pool = parallelism > 0 ? new ForkJoinPool(parallelism) : ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Sets how old a report may get before it is computed again, zero computing it for every request.
+	 */
+	public void setMaxAgeSeconds(long seconds) {
+		maxAgeMillis = seconds * 1000;
+	}
+
+	public long getMaxAgeSeconds() {
+		return maxAgeMillis / 1000;
+	}
+
+	/**
+	 * @param maxAgeMillis how old a kept report may be, at most the configured age is used
+	 * @return a report no older than the given age
+	 */
+	public Report getReport(long maxAgeMillis) {
+		long maxAge = Math.min(maxAgeMillis, this.maxAgeMillis);
+		Report r = latest;
+		if (r != null && System.currentTimeMillis() - r.computedAt <= maxAge) {
+			return r;
+		}
+		synchronized (this) {
+			r = latest;
+			if (r != null && System.currentTimeMillis() - r.computedAt <= maxAge) {
+				return r;
+			}
+			r = compute();
+			latest = r;
+			return r;
+		}
+	}
+
+	/**
+	 * Computes a report without looking at the kept one.
+	 */
+	public Report compute() {
+		long started = System.nanoTime();
+		long computedAt = System.currentTimeMillis();
+		Partial all = pool.invoke(new Traversal(1, store.getCurrentId()));
+		return new Report(all, computedAt, (System.nanoTime() - started) / 1000000);
+	}
+
+	/**
+	 * The figures of one product.
+	 */
+	public static final class Sales {
+		final long productId;
+		long units;
+		long revenue;
+		long orders;
+
+		Sales(long productId) {
+			this.productId = productId;
+		}
+
+		public long getProductId() {
+			return productId;
+		}
+
+		public long getUnits() {
+			return units;
+		}
+
+		public long getRevenue() {
+			return revenue;
+		}
+
+		public long getOrders() {
+			return orders;
+		}
+	}
+
+	/**
+	 * A computed report. The products are sorted once, by revenue and by units, so that requests only take the first
+	 * of them.
+	 */
+	public static final class Report {
+		final long computedAt;
+		final long elapsedMillis;
+		final long customers;
+		final long orders;
+		final long revenue;
+		final long units;
+		final List<Sales> byRevenue;
+		final List<Sales> byUnits;
+		final Histogram orderTotals;
+		final Histogram orderUnits;
+
+		Report(Partial all, long computedAt, long elapsedMillis) {
+			this.computedAt = computedAt;
+			this.elapsedMillis = elapsedMillis;
+			customers = all.customers;
+			orders = all.orders;
+			revenue = all.revenue;
+			units = all.units;
+			orderTotals = all.orderTotals;
+			orderUnits = all.orderUnits;
+			byRevenue = new ArrayList<Sales>(all.products.values());
+			Collections.sort(byRevenue, new Comparator<Sales>() {
+				public int compare(Sales a, Sales b) {
+					int c = Long.compare(b.revenue, a.revenue);
+					return c != 0 ? c : Long.compare(a.productId, b.productId);
+				}
+			});
+			byUnits = new ArrayList<Sales>(byRevenue);
+			Collections.sort(byUnits, new Comparator<Sales>() {
+				public int compare(Sales a, Sales b) {
+					int c = Long.compare(b.units, a.units);
+					return c != 0 ? c : Long.compare(a.productId, b.productId);
+				}
+			});
+		}
+
+		public long getComputedAt() {
+			return computedAt;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		public long getCustomers() {
+			return customers;
+		}
+
+		public long getOrders() {
+			return orders;
+		}
+
+		public long getRevenue() {
+			return revenue;
+		}
+
+		public long getUnits() {
+			return units;
+		}
+
+		/**
+		 * @return the products by descending revenue
+		 */
+		public List<Sales> getByRevenue() {
+			return Collections.unmodifiableList(byRevenue);
+		}
+
+		/**
+		 * @return the products by descending units sold
+		 */
+		public List<Sales> getByUnits() {
+			return Collections.unmodifiableList(byUnits);
+		}
+
+		public Histogram getOrderTotals() {
+			return orderTotals;
+		}
+
+		public Histogram getOrderUnits() {
+			return orderUnits;
+		}
+	}
+
+	/**
+	 * The figures of the customers of one range, filled by one thread.
+	 */
+	static final class Partial implements EntityStore.Visitor {
+		final LongMap<Sales> products = new LongMap<Sales>();
+		final Histogram orderTotals = new Histogram();
+		final Histogram orderUnits = new Histogram();
+		long customers;
+		long orders;
+		long revenue;
+		long units;
+
+		public void visit(Product product) {
+		}
+
+		public void visit(Customer customer) {
+			customers++;
+			for (Order o : customer.orderValues()) {
+				long orderUnits = 0;
+				for (OrderLine line : o.lineValues()) {
+					Sales s = sales(line.getId());
+					s.units += line.getQuantity();
+					s.revenue += line.amount();
+					s.orders++;
+					orderUnits += line.getQuantity();
+				}
+				orders++;
+				revenue += o.getTotal();
+				units += orderUnits;
+				this.orderTotals.record(o.getTotal());
+				this.orderUnits.record(orderUnits);
+			}
+		}
+
+		void add(Partial other) {
+			for (Sales o : other.products.values()) {
+				Sales s = sales(o.productId);
+				s.units += o.units;
+				s.revenue += o.revenue;
+				s.orders += o.orders;
+			}
+			orderTotals.add(other.orderTotals);
+			orderUnits.add(other.orderUnits);
+			customers += other.customers;
+			orders += other.orders;
+			revenue += other.revenue;
+			units += other.units;
+		}
+
+		private Sales sales(long productId) {
+			Sales s = products.get(productId);
+			if (s == null) {
+				s = new Sales(productId);
+				products.put(productId, s);
+			}
+			return s;
+		}
+	}
+
+	/**
+	 * Folds the customers with ids from first to last inclusive, splitting the range until it holds at most CHUNK
+	 * ids. The larger partial of two is kept and the smaller one merged into it.
+	 */
+	private final class Traversal extends RecursiveTask<Partial> {
+		private static final long serialVersionUID = 1L;
+
+		private final long first;
+		private final long last;
+
+		Traversal(long first, long last) {
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected Partial compute() {
+			if (last - first >= CHUNK) {
+				long middle = (first + last) >>> 1;
+				Traversal left = new Traversal(first, middle);
+				left.fork();
+				Partial right = new Traversal(middle + 1, last).compute();
+				Partial merged = left.join();
+				if (merged.products.size() < right.products.size()) {
+					Partial swap = merged;
+					merged = right;
+					right = swap;
+				}
+				merged.add(right);
+				return merged;
+			}
+			Partial partial = new Partial();
+			try {
+				store.visitCustomers(first, last, partial);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return partial;
+		}
+	}
+}
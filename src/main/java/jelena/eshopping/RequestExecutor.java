@@ -0,0 +1,341 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The RequestExecutor class runs the writes of CustomerService once the request has been suspended, so that the
+ * transport thread is free again while a write waits for the journal. The 'executor.*' settings in blueprint choose
+ * how:
+ * <pre>
+ * inline   on the transport thread, as a synchronous resource method would
+ * virtual  on a new virtual thread per write, at most maxConcurrency at once; needs Java 21 and falls back to pool
+ * pool     on a pool of 'threads' platform threads with a queue of 'queueSize' writes
+ * sharded  writes of a customer on the one of 'shards' threads it hashes to, each with a queue of 'queueSize' writes
+ * </pre>
+ * A write that finds the executor full is rejected with a RejectedExecutionException, which CustomerService
+ * answers with 503/Service Unavailable.
+ * <p/>
+ * In sharded mode a customer's writes, given to execute(long, Runnable) with the customer id, always run on the same
+ * thread, one after the other, so hot customers no longer make threads queue up on their lock stripe; the stripe is
+ * only ever taken by its shard, by repricing and by the writes that are not keyed. Those, adding customers and the
+ * product and batch writes, run on the transport thread. A shard takes whatever its queue holds, up to BATCH writes,
+ * applies them and then waits once for the journal to make the whole batch durable, so its writes are group
+ * committed rather than waiting for an fsync each. Whatever a write hands to whenDurable, as the resumption of its
+ * request, runs after that wait.
+ */
+public class RequestExecutor implements Executor {
+	private static final Logger LOG = LoggerFactory.getLogger(RequestExecutor.class);
+
+	public static final String INLINE = "inline";
+	public static final String VIRTUAL = "virtual";
+	public static final String POOL = "pool";
+	public static final String SHARDED = "sharded";
+
+	/**
+	 * What to do once the writes before it are durable, see whenDurable.
+	 */
+	public interface Completion {
+
+		/**
+		 * @param failure why the writes could not be made durable, or null if they are
+		 */
+		void complete(RuntimeException failure);
+	}
+
+	/**
+	 * The most writes a shard applies before waiting for the journal.
+	 */
+	static final int BATCH = 256;
+
+	private String type = INLINE;
+	private int threads = 200;
+	private int queueSize = 10000;
+	private int maxConcurrency = 10000;
+	private int shards;
+	private EntityStore store;
+
+	private volatile ExecutorService executor;
+	private volatile Semaphore permits;
+	private volatile Shard[] shardThreads;
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	public void setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	/**
+	 * Sets the number of writer threads in sharded mode, 0 for one per processor.
+	 */
+	public void setShards(int shards) {
+		this.shards = shards;
+	}
+
+	/**
+	 * Sets the store whose journal the shards wait for. Without one, shards do not wait.
+	 */
+	public void setEntityStore(EntityStore store) {
+		this.store = store;
+	}
+
+	public void start() {
+		if (SHARDED.equalsIgnoreCase(type)) {
+			int count = shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+			Shard[] started = new Shard[count];
+			for (int i = 0; i < count; i++) {
+				started[i] = new Shard(i + 1);
+				started[i].start();
+			}
+			shardThreads = started;
+			LOG.info("Writes of a customer run on one of {} shards with a queue of {} each", count, queueSize);
+			return;
+		}
+		if (VIRTUAL.equalsIgnoreCase(type)) {
+			ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+			if (virtual != null) {
+				permits = new Semaphore(maxConcurrency);
+				executor = virtual;
+				LOG.info("Writes run on virtual threads, at most {} at once", maxConcurrency);
+				return;
+			}
+			LOG.warn("Virtual threads need Java 21, running writes on a pool of {} threads instead", threads);
+		} else if (!POOL.equalsIgnoreCase(type)) {
+			if (!INLINE.equalsIgnoreCase(type)) {
+				throw new IllegalArgumentException("Unknown executor type '" + type + "', use " + INLINE + ", "
+						+ VIRTUAL + ", " + POOL + " or " + SHARDED);
+			}
+			LOG.info("Writes run on the transport threads");
+			return;
+		}
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "ebasket-request-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		LOG.info("Writes run on a pool of {} threads with a queue of {}", threads, queueSize);
+	}
+
+	/**
+	 * Stops taking writes and waits a little for the running ones.
+	 */
+	public void close() throws InterruptedException {
+		Shard[] s = shardThreads;
+		shardThreads = null;
+		if (s != null) {
+			for (Shard shard : s) {
+				shard.running = false;
+			}
+			for (Shard shard : s) {
+				shard.join(10000);
+				if (shard.isAlive()) {
+					LOG.warn("Shard {} still running after 10 seconds, interrupting it", shard.getName());
+					shard.interrupt();
+				}
+			}
+		}
+		ExecutorService e = executor;
+		executor = null;
+		if (e != null) {
+			e.shutdown();
+			if (!e.awaitTermination(10, TimeUnit.SECONDS)) {
+				LOG.warn("Writes still running after 10 seconds, interrupting them");
+				e.shutdownNow();
+			}
+		}
+	}
+
+	public void execute(final Runnable task) {
+		ExecutorService e = executor;
+		if (e == null) {
+			task.run();
+			return;
+		}
+		final Semaphore p = permits;
+		if (p == null) {
+			e.execute(task);
+			return;
+		}
+		if (!p.tryAcquire()) {
+			throw new RejectedExecutionException("More than " + maxConcurrency + " writes in progress");
+		}
+		try {
+			e.execute(new Runnable() {
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						p.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			p.release();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Runs a write of the given customer. In sharded mode it runs on the customer's shard, after the writes queued
+	 * before it; otherwise this is execute(Runnable).
+	 */
+	public void execute(long customerId, Runnable task) {
+		Shard[] s = shardThreads;
+		if (s == null) {
+			execute(task);
+			return;
+		}
+		long h = customerId * 0x9E3779B97F4A7C15L;
+		Shard shard = s[(int) ((h >>> 33) % s.length)];
+		if (!shard.queue.offer(task)) {
+			throw new RejectedExecutionException("More than " + queueSize + " writes queued on " + shard.getName());
+		}
+	}
+
+	/**
+	 * Runs the action once the writes the current thread applied so far are durable: right away, as the writes
+	 * already waited for the journal, except on a shard, which runs it after waiting for its batch and hands it the
+	 * failure if that wait failed.
+	 */
+	public static void whenDurable(Completion action) {
+		Thread t = Thread.currentThread();
+		if (t instanceof Shard) {
+			((Shard) t).pending.add(action);
+		} else {
+			action.complete(null);
+		}
+	}
+
+	/**
+	 * A single writer thread. EntityStore leaves the journal wait of a write applied on a shard to the shard, which
+	 * waits once per batch.
+	 */
+	final class Shard extends Thread {
+		final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(queueSize);
+		final List<Completion> pending = new ArrayList<Completion>();
+		private final List<Runnable> batch = new ArrayList<Runnable>(BATCH);
+		volatile boolean running = true;
+
+		Shard(int number) {
+			super("ebasket-shard-" + number);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			EntityStore.deferDurability(true);
+			while (running || !queue.isEmpty()) {
+				Runnable first;
+				try {
+					first = running ? queue.poll(100, TimeUnit.MILLISECONDS) : queue.poll();
+				} catch (InterruptedException e) {
+					LOG.warn("{} interrupted with {} writes queued", getName(), Integer.valueOf(queue.size()));
+					running = false;
+					continue;
+				}
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, BATCH - 1);
+				for (Runnable task : batch) {
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						LOG.error("Write failed on " + getName(), e);
+					}
+				}
+				batch.clear();
+				complete(EntityStore.takeDeferredDurability());
+			}
+		}
+
+		/**
+		 * Waits for the journal up to the given position and completes the writes of the batch, with the failure of
+		 * the wait if there is one, so that no request is answered as durable when it is not.
+		 */
+		private void complete(long lsn) {
+			RuntimeException failed = null;
+			try {
+				EntityStore s = store;
+				if (s != null) {
+					s.awaitDurable(lsn);
+				}
+			} catch (RuntimeException e) {
+				LOG.error("Waiting for the journal failed on " + getName(), e);
+				failed = e;
+			}
+			for (Completion action : pending) {
+				try {
+					action.complete(failed);
+				} catch (RuntimeException e) {
+					LOG.error("Completing a write failed on " + getName(), e);
+				}
+			}
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Looked up by reflection, as the bundle is built for Java 8.
+	 *
+	 * @return the executor, or null if this Java has no virtual threads
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			// Java 19 and 20 have virtual threads as a preview feature only
+			return null;
+		}
+	}
+}
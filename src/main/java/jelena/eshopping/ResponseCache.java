@@ -0,0 +1,250 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.ws.rs.core.MediaType;
+
+/**
+ * The ResponseCache class keeps the serialized bodies of single customers, orders and products, per media type, so
+ * that a GET of an unchanged entity writes the bytes without marshalling it again.
+ * <p/>
+ * Every body is stored with the entity tag it was serialized at and is only handed out while the entity still has
+ * that tag. Since the tags follow the versions that Customer.addOrder, Order.addProduct and the other mutations bump,
+ * and those of orders and customers include the tags of their lines, an entry goes stale exactly when its
+ * representation changes, including when a change of price reprices the lines of an order. CustomerService also removes the entries of the entities it changes, so stale bodies do not take up
+ * space until they are evicted.
+ * <p/>
+ * Memory is bounded by maxBytes, counting the body and a fixed overhead per entry. The cache is split into segments,
+ * each an LRU LinkedHashMap with its own lock and an equal share of the bytes, so readers of different entities
+ * rarely wait for each other. All bodies of an entity are in the same segment. XML, JSON, CBOR and Smile bodies are
+ * cached.
+ */
+public class ResponseCache {
+
+	/**
+	 * The bytes counted for an entry besides its body: the key, the entry and the map node.
+	 */
+	static final int ENTRY_OVERHEAD = 128;
+
+	public static final int CUSTOMER = 0;
+	public static final int ORDER = 1;
+	public static final int PRODUCT = 2;
+
+	private static final MediaType[] TYPES = { MediaType.APPLICATION_XML_TYPE, MediaType.APPLICATION_JSON_TYPE,
+			EntityStream.CBOR_TYPE, EntityStream.SMILE_TYPE };
+
+	private final Segment[] segments;
+	private final long maxBytes;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public ResponseCache(long maxBytes) {
+		this(maxBytes, 4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	public ResponseCache(long maxBytes, int segments) {
+		int size = Integer.highestOneBit(Math.max(1, segments - 1)) << 1;
+		this.maxBytes = maxBytes;
+		this.segments = new Segment[size];
+		for (int i = 0; i < size; i++) {
+			this.segments[i] = new Segment(maxBytes / size);
+		}
+	}
+
+	/**
+	 * @param owner the customer id of an order, zero otherwise
+	 * @return the body serialized at the given tag, or null
+	 */
+	public byte[] get(int kind, long owner, long id, MediaType type, String tag) {
+		int t = indexOf(type);
+		Entry e = t < 0 ? null : segmentFor(kind, owner, id).get(new Key(kind, owner, id, t));
+		if (e != null && e.tag.equals(tag)) {
+			hits.increment();
+			return e.body;
+		}
+		misses.increment();
+		return null;
+	}
+
+	public void put(int kind, long owner, long id, MediaType type, String tag, byte[] body) {
+		int t = indexOf(type);
+		if (t >= 0) {
+			segmentFor(kind, owner, id).put(new Key(kind, owner, id, t), new Entry(tag, body));
+		}
+	}
+
+	/**
+	 * Removes the bodies of an entity in all media types.
+	 */
+	public void invalidate(int kind, long owner, long id) {
+		Segment s = segmentFor(kind, owner, id);
+		for (int t = 0; t < TYPES.length; t++) {
+			s.remove(new Key(kind, owner, id, t));
+		}
+	}
+
+	public void clear() {
+		for (Segment s : segments) {
+			s.clear();
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public long getBytes() {
+		long bytes = 0;
+		for (Segment s : segments) {
+			bytes += s.bytes();
+		}
+		return bytes;
+	}
+
+	public int getEntries() {
+		int entries = 0;
+		for (Segment s : segments) {
+			entries += s.size();
+		}
+		return entries;
+	}
+
+	private Segment segmentFor(int kind, long owner, long id) {
+		long h = ((id * 31 + owner) * 31 + kind) * 0x9E3779B97F4A7C15L;
+		return segments[(int) (h >>> 32) & (segments.length - 1)];
+	}
+
+	private static int indexOf(MediaType type) {
+		for (int i = 0; i < TYPES.length; i++) {
+			if (TYPES[i].isCompatible(type) && !type.isWildcardType() && !type.isWildcardSubtype()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private final class Segment {
+		private final long maxBytes;
+		private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+		private long bytes;
+
+		Segment(long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		synchronized Entry get(Key key) {
+			return entries.get(key);
+		}
+
+		synchronized void put(Key key, Entry entry) {
+			long size = entry.size();
+			if (size > maxBytes) {
+				return;
+			}
+			Entry old = entries.put(key, entry);
+			if (old != null) {
+				bytes -= old.size();
+			}
+			bytes += size;
+			Iterator<Entry> eldest = entries.values().iterator();
+			while (bytes > maxBytes) {
+				bytes -= eldest.next().size();
+				eldest.remove();
+				evictions.increment();
+			}
+		}
+
+		synchronized void remove(Key key) {
+			Entry old = entries.remove(key);
+			if (old != null) {
+				bytes -= old.size();
+			}
+		}
+
+		synchronized void clear() {
+			entries.clear();
+			bytes = 0;
+		}
+
+		synchronized long bytes() {
+			return bytes;
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+	}
+
+	private static final class Key {
+		final int kind;
+		final long owner;
+		final long id;
+		final int type;
+
+		Key(int kind, long owner, long id, int type) {
+			this.kind = kind;
+			this.owner = owner;
+			this.id = id;
+			this.type = type;
+		}
+
+		@Override
+		public int hashCode() {
+			long h = ((id * 31 + owner) * 31 + kind) * 31 + type;
+			return (int) (h ^ (h >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return kind == k.kind && owner == k.owner && id == k.id && type == k.type;
+		}
+	}
+
+	private static final class Entry {
+		final String tag;
+		final byte[] body;
+
+		Entry(String tag, byte[] body) {
+			this.tag = tag;
+			this.body = body;
+		}
+
+		long size() {
+			return body.length + ENTRY_OVERHEAD;
+		}
+	}
+}
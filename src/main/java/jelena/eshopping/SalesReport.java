@@ -0,0 +1,224 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The SalesReport class has the sales figures of a Reports report: the totals of the store, the products with the
+ * highest revenue and those that sold the most units, and the distributions of order totals and of units per order.
+ * <p/>
+ * The JSON representation of a SalesReport will look like this:
+ * {"computedAt":1760000000000,"elapsedMillis":3,"customers":2,"orders":3,"revenue":4250,"units":5,
+ * "products":[{"id":323,"units":3,"revenue":3000,"orders":2},...],
+ * "bestSellers":[{"id":323,"units":3,"revenue":3000,"orders":2},...],
+ * "orderTotals":{"count":3,"sum":4250,"p50":1000,"p99":2000,"p999":2000,"max":2000},
+ * "orderUnits":{"count":3,"sum":5,"p50":2,"p99":2,"p999":2,"max":2}}
+ */
+@XmlRootElement(name = "SalesReport")
+public class SalesReport {
+
+	private long computedAt;
+	private long elapsedMillis;
+	private long customers;
+	private long orders;
+	private long revenue;
+	private long units;
+	private List<ProductSales> products;
+	private List<ProductSales> bestSellers;
+	private MetricsReport.Distribution orderTotals;
+	private MetricsReport.Distribution orderUnits;
+
+	public SalesReport() {
+		products = new ArrayList<ProductSales>();
+		bestSellers = new ArrayList<ProductSales>();
+	}
+
+	/**
+	 * @param limit the most products to list by revenue and by units, zero for all
+	 */
+	public SalesReport(Reports.Report report, int limit) {
+		computedAt = report.getComputedAt();
+		elapsedMillis = report.getElapsedMillis();
+		customers = report.getCustomers();
+		orders = report.getOrders();
+		revenue = report.getRevenue();
+		units = report.getUnits();
+		products = list(report.getByRevenue(), limit);
+		bestSellers = list(report.getByUnits(), limit);
+		orderTotals = new MetricsReport.Distribution(report.getOrderTotals(), 1);
+		orderUnits = new MetricsReport.Distribution(report.getOrderUnits(), 1);
+	}
+
+	private static List<ProductSales> list(List<Reports.Sales> sales, int limit) {
+		int n = limit > 0 ? Math.min(limit, sales.size()) : sales.size();
+		List<ProductSales> list = new ArrayList<ProductSales>(n);
+		for (int i = 0; i < n; i++) {
+			list.add(new ProductSales(sales.get(i)));
+		}
+		return list;
+	}
+
+	/**
+	 * When the report was computed, in milliseconds since the epoch.
+	 */
+	public long getComputedAt() {
+		return computedAt;
+	}
+
+	public void setComputedAt(long computedAt) {
+		this.computedAt = computedAt;
+	}
+
+	/**
+	 * How long computing the report took.
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public long getCustomers() {
+		return customers;
+	}
+
+	public void setCustomers(long customers) {
+		this.customers = customers;
+	}
+
+	public long getOrders() {
+		return orders;
+	}
+
+	public void setOrders(long orders) {
+		this.orders = orders;
+	}
+
+	public long getRevenue() {
+		return revenue;
+	}
+
+	public void setRevenue(long revenue) {
+		this.revenue = revenue;
+	}
+
+	public long getUnits() {
+		return units;
+	}
+
+	public void setUnits(long units) {
+		this.units = units;
+	}
+
+	/**
+	 * The products by descending revenue.
+	 */
+	@XmlElement(name = "product")
+	public List<ProductSales> getProducts() {
+		return products;
+	}
+
+	public void setProducts(List<ProductSales> products) {
+		this.products = products;
+	}
+
+	/**
+	 * The products by descending units sold.
+	 */
+	@XmlElement(name = "bestSeller")
+	public List<ProductSales> getBestSellers() {
+		return bestSellers;
+	}
+
+	public void setBestSellers(List<ProductSales> bestSellers) {
+		this.bestSellers = bestSellers;
+	}
+
+	public MetricsReport.Distribution getOrderTotals() {
+		return orderTotals;
+	}
+
+	public void setOrderTotals(MetricsReport.Distribution orderTotals) {
+		this.orderTotals = orderTotals;
+	}
+
+	public MetricsReport.Distribution getOrderUnits() {
+		return orderUnits;
+	}
+
+	public void setOrderUnits(MetricsReport.Distribution orderUnits) {
+		this.orderUnits = orderUnits;
+	}
+
+	public static class ProductSales {
+		private long id;
+		private long units;
+		private long revenue;
+		private long orders;
+
+		public ProductSales() {
+		}
+
+		ProductSales(Reports.Sales sales) {
+			id = sales.getProductId();
+			units = sales.getUnits();
+			revenue = sales.getRevenue();
+			orders = sales.getOrders();
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+
+		public long getUnits() {
+			return units;
+		}
+
+		public void setUnits(long units) {
+			this.units = units;
+		}
+
+		public long getRevenue() {
+			return revenue;
+		}
+
+		public void setRevenue(long revenue) {
+			this.revenue = revenue;
+		}
+
+		/**
+		 * The number of orders with a line for the product.
+		 */
+		public long getOrders() {
+			return orders;
+		}
+
+		public void setOrders(long orders) {
+			this.orders = orders;
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The StorageStats class reports the counters of the CustomerStorage since the service started: those of its cache,
+ * if there is one, and those of its file.
+ * <p/>
+ * The XML representation of a StorageStats will look like this:
+ * <StorageStats>
+ * <bytesRead>1048576</bytesRead><bytesWritten>4194304</bytesWritten><cacheBytes>262144</cacheBytes>
+ * <cacheEntries>512</cacheEntries><compactions>0</compactions><evictions>9488</evictions><fileBytes>4194304</fileBytes>
+ * <hitRate>0.8</hitRate><hits>40000</hits><liveBytes>4194304</liveBytes><maxCacheBytes>268435456</maxCacheBytes>
+ * <misses>10000</misses><type>file</type>
+ * </StorageStats>
+ */
+@XmlRootElement(name = "StorageStats")
+public class StorageStats {
+
+	private String type;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private int cacheEntries;
+	private long cacheBytes;
+	private long maxCacheBytes;
+	private long fileBytes;
+	private long liveBytes;
+	private long bytesRead;
+	private long bytesWritten;
+	private long compactions;
+
+	public StorageStats() {
+	}
+
+	public StorageStats(CustomerStorage storage) {
+		if (storage instanceof CachedCustomerStorage) {
+			CachedCustomerStorage cached = (CachedCustomerStorage) storage;
+			hits = cached.getHits();
+			misses = cached.getMisses();
+			evictions = cached.getEvictions();
+			cacheEntries = cached.getEntries();
+			cacheBytes = cached.getBytes();
+			maxCacheBytes = cached.getMaxBytes();
+			storage = cached.getStorage();
+		}
+		if (storage instanceof FileCustomerStorage) {
+			FileCustomerStorage file = (FileCustomerStorage) storage;
+			type = "file";
+			fileBytes = file.getFileBytes();
+			liveBytes = file.getLiveBytes();
+			bytesRead = file.getBytesRead();
+			bytesWritten = file.getBytesWritten();
+			compactions = file.getCompactions();
+		} else {
+			type = "heap";
+		}
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+
+	/**
+	 * The share of reads answered from the cache, zero before the first read or without a cache.
+	 */
+	public double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : hits / (double) lookups;
+	}
+
+	public void setHitRate(double hitRate) {
+		// derived from hits and misses
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public void setEvictions(long evictions) {
+		this.evictions = evictions;
+	}
+
+	public int getCacheEntries() {
+		return cacheEntries;
+	}
+
+	public void setCacheEntries(int cacheEntries) {
+		this.cacheEntries = cacheEntries;
+	}
+
+	public long getCacheBytes() {
+		return cacheBytes;
+	}
+
+	public void setCacheBytes(long cacheBytes) {
+		this.cacheBytes = cacheBytes;
+	}
+
+	public long getMaxCacheBytes() {
+		return maxCacheBytes;
+	}
+
+	public void setMaxCacheBytes(long maxCacheBytes) {
+		this.maxCacheBytes = maxCacheBytes;
+	}
+
+	public long getFileBytes() {
+		return fileBytes;
+	}
+
+	public void setFileBytes(long fileBytes) {
+		this.fileBytes = fileBytes;
+	}
+
+	public long getLiveBytes() {
+		return liveBytes;
+	}
+
+	public void setLiveBytes(long liveBytes) {
+		this.liveBytes = liveBytes;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public void setBytesRead(long bytesRead) {
+		this.bytesRead = bytesRead;
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public void setBytesWritten(long bytesWritten) {
+		this.bytesWritten = bytesWritten;
+	}
+
+	public long getCompactions() {
+		return compactions;
+	}
+
+	public void setCompactions(long compactions) {
+		this.compactions = compactions;
+	}
+}
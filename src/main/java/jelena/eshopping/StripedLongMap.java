@@ -0,0 +1,124 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The StripedLongMap class spreads the entries over a fixed number of LongMaps, so that writers of different stripes
+ * do not wait for each other and a rehash only copies one stripe. It holds the top level maps of EntityStore.
+ */
+final class StripedLongMap<V> {
+
+	private final LongMap<V>[] stripes;
+	private final int shift;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	StripedLongMap(int stripes) {
+		int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+		this.stripes = new LongMap[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new LongMap<V>();
+		}
+		shift = 64 - Integer.numberOfTrailingZeros(size);
+	}
+
+	/**
+	 * Picks the stripe from the high bits of the hash, LongMap picks the slot from the low ones.
+	 */
+	private LongMap<V> stripe(long key) {
+		return shift == 64 ? stripes[0] : stripes[(int) ((key * 0x9E3779B97F4A7C15L) >>> shift)];
+	}
+
+	V get(long key) {
+		return stripe(key).get(key);
+	}
+
+	V put(long key, V value) {
+		return stripe(key).put(key, value);
+	}
+
+	V putIfAbsent(long key, V value) {
+		return stripe(key).putIfAbsent(key, value);
+	}
+
+	V replace(long key, V value) {
+		return stripe(key).replace(key, value);
+	}
+
+	V remove(long key) {
+		return stripe(key).remove(key);
+	}
+
+	int size() {
+		int size = 0;
+		for (LongMap<V> stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	boolean isEmpty() {
+		for (LongMap<V> stripe : stripes) {
+			if (!stripe.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a weakly consistent view of the values, stripe by stripe.
+	 */
+	Collection<V> values() {
+		return new AbstractCollection<V>() {
+			public Iterator<V> iterator() {
+				return new Iterator<V>() {
+					private int stripe;
+					private Iterator<V> current = stripes[0].values().iterator();
+
+					public boolean hasNext() {
+						while (!current.hasNext()) {
+							if (stripe + 1 == stripes.length) {
+								return false;
+							}
+							current = stripes[++stripe].values().iterator();
+						}
+						return true;
+					}
+
+					public V next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						return current.next();
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			public int size() {
+				return StripedLongMap.this.size();
+			}
+		};
+	}
+}
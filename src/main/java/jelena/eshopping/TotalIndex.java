@@ -0,0 +1,147 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The TotalIndex class keeps an amount for every id sorted by amount, so that the ids within a range of amounts, or
+ * those with the highest amounts, are found in logarithmic time plus one step per id returned.
+ * <p/>
+ * The entries are (amount, id) keys in a skip list ordered by amount and then by id, next to a map from every id to
+ * its current key, through which a changed amount replaces the key it had. EntityStore keeps one index of the totals
+ * of the orders and one of the spend of the customers, both updated under the lock of the customer concerned, so the
+ * entries of one id are never changed by two threads at once. Readers take no lock: while an amount changes, a
+ * reader may see the id under both amounts or under neither.
+ */
+final class TotalIndex {
+
+	private final ConcurrentSkipListSet<Key> sorted = new ConcurrentSkipListSet<Key>();
+	private final StripedLongMap<Key> keys;
+
+	TotalIndex(int stripes) {
+		keys = new StripedLongMap<Key>(stripes);
+	}
+
+	/**
+	 * Sets the amount of the id, adding the id if it is not indexed yet.
+	 */
+	void put(long id, long amount) {
+		Key current = keys.get(id);
+		if (current != null && current.amount == amount) {
+			return;
+		}
+		Key key = new Key(amount, id);
+		sorted.add(key);
+		keys.put(id, key);
+		if (current != null) {
+			sorted.remove(current);
+		}
+	}
+
+	/**
+	 * Adds the difference to the amount of the id, which starts from zero if the id is not indexed yet.
+	 */
+	void add(long id, long difference) {
+		Key current = keys.get(id);
+		put(id, current == null ? difference : current.amount + difference);
+	}
+
+	void remove(long id) {
+		Key current = keys.remove(id);
+		if (current != null) {
+			sorted.remove(current);
+		}
+	}
+
+	/**
+	 * @return whether the id is indexed
+	 */
+	boolean contains(long id) {
+		return keys.get(id) != null;
+	}
+
+	/**
+	 * @return the amount of the id, zero if it is not indexed
+	 */
+	long get(long id) {
+		Key current = keys.get(id);
+		return current == null ? 0 : current.amount;
+	}
+
+	int size() {
+		return keys.size();
+	}
+
+	/**
+	 * @return the ids with an amount from min to max inclusive, at most limit of them unless limit is zero, by
+	 *         ascending amount or, if descending, by descending amount, as id and amount pairs
+	 */
+	long[] range(long min, long max, int limit, boolean descending) {
+		if (min > max) {
+			return new long[0];
+		}
+		NavigableSet<Key> range = sorted.subSet(new Key(min, Long.MIN_VALUE), true, new Key(max, Long.MAX_VALUE),
+				true);
+		return pairs(descending ? range.descendingIterator() : range.iterator(), limit);
+	}
+
+	/**
+	 * @return the ids with the highest amounts, at most limit of them unless limit is zero, by descending amount, as
+	 *         id and amount pairs
+	 */
+	long[] top(int limit) {
+		return pairs(sorted.descendingIterator(), limit);
+	}
+
+	private static long[] pairs(Iterator<Key> keys, int limit) {
+		List<Key> taken = Pages.take(keys, limit);
+		long[] pairs = new long[taken.size() * 2];
+		for (int i = 0; i < taken.size(); i++) {
+			pairs[2 * i] = taken.get(i).id;
+			pairs[2 * i + 1] = taken.get(i).amount;
+		}
+		return pairs;
+	}
+
+	private static final class Key implements Comparable<Key> {
+		final long amount;
+		final long id;
+
+		Key(long amount, long id) {
+			this.amount = amount;
+			this.id = id;
+		}
+
+		public int compareTo(Key other) {
+			int c = Long.compare(amount, other.amount);
+			return c != 0 ? c : Long.compare(id, other.id);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && compareTo((Key) other) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(amount) * 31 + Long.hashCode(id);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.journal;
+
+/**
+ * When the Journal forces appended records to disk, and how long a mutation waits for that.
+ */
+public enum FsyncPolicy {
+
+	/**
+	 * Every record is forced before its append returns. Nothing acknowledged is ever lost, at the cost of one fsync
+	 * per mutation.
+	 */
+	ALWAYS,
+
+	/**
+	 * A background thread forces everything appended so far while mutations wait, so concurrent mutations share one
+	 * fsync. Nothing acknowledged is ever lost.
+	 */
+	GROUP,
+
+	/**
+	 * A background thread forces the journal every fsyncIntervalMillis and mutations do not wait. A crash loses at
+	 * most the last interval.
+	 */
+	PERIODIC
+}
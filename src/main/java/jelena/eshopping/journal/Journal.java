@@ -0,0 +1,958 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jelena.eshopping.Customer;
+import jelena.eshopping.EntityCodec;
+import jelena.eshopping.EntityStore;
+import jelena.eshopping.Order;
+import jelena.eshopping.Product;
+
+/**
+ * The Journal class makes an EntityStore survive restarts. Every mutation of the store is appended to a log of
+ * memory-mapped segment files, and snapshots of the whole store are written from time to time so that only the log
+ * written since the last snapshot has to be replayed on startup.
+ * <p/>
+ * A record holds the state a mutation leaves behind, so the store appends it right after applying the mutation,
+ * under the same lock. Before applying it, the store has the journal prepare for the record: prepare fails for a
+ * record that could never fit into a segment, and makes sure the segment to roll over to already exists. The append
+ * that follows then neither runs out of room nor has to create a file, so a mutation the journal cannot take fails
+ * before anything has changed, instead of staying visible and being lost on restart. Only a second roll-over between
+ * the two, i.e. a whole segment written by other threads meanwhile, has to create a segment after all.
+ * <p/>
+ * A record holds the state of the entities a mutation left behind, not the mutation itself, so replaying a record
+ * twice does no harm. That is what allows snapshots to be taken while writers keep going: a snapshot starts at the
+ * current log position and visits one entity at a time, and replaying the log from that position brings every
+ * entity up to date, whether the snapshot caught it before or after its latest change.
+ * <p/>
+ * The orders repriced after a change of price are not journaled one by one, only the product is: once recovered, the
+ * store reprices every order line to the price of its product, just as it did when the price changed.
+ * <p/>
+ * Customer and order records carry the order id counter of the store, which recovery raises the counter to.
+ * <p/>
+ * On disk a record is its payload length, the CRC32 of the payload and the payload, whose first byte is the record
+ * type. The length is written last, so a record cut short by a crash reads as the end of the log. The position of a
+ * record in the log (its LSN) is the start of its segment plus its offset in the segment. The format of records and
+ * snapshots is written to a file next to them when the journal is created; open refuses a journal of another format
+ * rather than converting it.
+ */
+public class Journal {
+	private static final Logger LOG = LoggerFactory.getLogger(Journal.class);
+
+	static final byte CUSTOMER = 1;
+	static final byte CUSTOMER_DELETED = 2;
+	static final byte ORDER = 3;
+	static final byte ORDER_DELETED = 4;
+	static final byte ORDER_LINE = 5;
+	static final byte PRODUCT = 6;
+	static final byte PRODUCT_DELETED = 7;
+
+	/**
+	 * The format of the records and snapshots, kept in FORMAT_FILE. A directory written in another format is refused.
+	 */
+	static final int FORMAT = 2;
+
+	private static final int HEADER = 8;
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".bin";
+	private static final String FORMAT_FILE = "format";
+	private static final long SNAPSHOT_MAGIC = 0x45425350534e4132L;
+	private static final byte SNAPSHOT_END = 0;
+
+	private final EntityStore store;
+	private boolean enabled = true;
+	private String directory = "data/ebasket";
+	private FsyncPolicy fsyncPolicy = FsyncPolicy.GROUP;
+	private long fsyncIntervalMillis = 1000;
+	private int segmentSize = 64 << 20;
+	private long snapshotIntervalSeconds = 60;
+	private long snapshotThresholdBytes = 256L << 20;
+
+	private final ReentrantLock appendLock = new ReentrantLock();
+	private final CRC32 crc = new CRC32();
+	private final Deque<Segment> segments = new ArrayDeque<Segment>();
+	private Segment current;
+	private Segment spare;
+	private int recordStart;
+	private long position;
+	private volatile long durable;
+	private final ReentrantLock durableLock = new ReentrantLock();
+	private final Condition durableAdvanced = durableLock.newCondition();
+	private final Condition flushWanted = durableLock.newCondition();
+	private boolean flushRequested;
+	private final Object snapshotLock = new Object();
+	private volatile long lastSnapshot = -1;
+	private volatile boolean running;
+	private File dir;
+	private Thread flusher;
+	private ScheduledExecutorService snapshotter;
+
+	public Journal(EntityStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Recovers the store from the latest snapshot and the log written after it, then attaches the journal to the
+	 * store and starts the background threads. Does nothing if the journal is disabled.
+	 */
+	public void open() throws IOException {
+		if (!enabled) {
+			LOG.info("Journal is disabled, data is kept in memory only");
+			return;
+		}
+		dir = new File(directory);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create journal directory " + dir.getAbsolutePath());
+		}
+		checkFormat();
+		long started = System.nanoTime();
+		long from = loadSnapshot();
+		replay(from);
+		spare = Segment.create(dir, current.end(), segmentSize);
+		store.repriceAll();
+		durable = position;
+		running = true;
+		store.setJournal(this);
+
+		if (fsyncPolicy != FsyncPolicy.ALWAYS) {
+			flusher = new Thread(new Runnable() {
+				public void run() {
+					flushLoop();
+				}
+			}, "ebasket-journal-flusher");
+			flusher.setDaemon(true);
+			flusher.start();
+		}
+		if (snapshotIntervalSeconds > 0) {
+			snapshotter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ebasket-journal-snapshot");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			snapshotter.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					snapshotIfNeeded();
+				}
+			}, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+		}
+		LOG.info("Journal opened in {}, recovered up to position {} in {} ms", dir.getAbsolutePath(), position,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+	}
+
+	/**
+	 * Detaches the journal from the store, forces what has been appended and closes the segment files.
+	 */
+	public void close() {
+		if (!running) {
+			return;
+		}
+		store.setJournal(null);
+		running = false;
+		if (snapshotter != null) {
+			snapshotter.shutdownNow();
+		}
+		if (flusher != null) {
+			flusher.interrupt();
+		}
+		appendLock.lock();
+		try {
+			current.buffer.force();
+			durable = position;
+			for (Segment s : segments) {
+				s.close();
+			}
+			segments.clear();
+			if (spare != null) {
+				spare.close();
+				spare = null;
+			}
+		} finally {
+			appendLock.unlock();
+		}
+		durableLock.lock();
+		try {
+			durableAdvanced.signalAll();
+		} finally {
+			durableLock.unlock();
+		}
+		LOG.info("Journal closed at position {}", position);
+	}
+
+	/**
+	 * Makes sure that a record of an entity of the given size, as EntityCodec computes it, can be appended, and
+	 * creates the segment to roll over to if it does not exist yet. The store calls it before applying a mutation.
+	 *
+	 * @throws IllegalArgumentException if the record does not fit into a segment
+	 * @throws UncheckedIOException if the next segment cannot be created
+	 */
+	public void prepare(int size) {
+		int needed = HEADER + 1 + size;
+		appendLock.lock();
+		try {
+			if (needed > current.buffer.remaining() && needed > segmentSize) {
+				throw new IllegalArgumentException("A journal record of " + (1 + size)
+						+ " bytes does not fit into a segment of " + segmentSize + " bytes");
+			}
+			if (spare == null) {
+				spare = createSegment(current.end());
+			}
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	public long appendCustomer(Customer customer) {
+		int size = 1 + EntityCodec.sizeOf(customer);
+		appendLock.lock();
+		try {
+			ByteBuffer b = reserve(size);
+			try {
+				b.put(CUSTOMER);
+				EntityCodec.put(b, customer, store.getCurrentOrderId());
+				return commit(size);
+			} catch (RuntimeException e) {
+				b.position(recordStart);
+				throw e;
+			}
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	public long appendCustomerDeleted(long customerId) {
+		int size = 1 + 8;
+		appendLock.lock();
+		try {
+			ByteBuffer b = reserve(size);
+			b.put(CUSTOMER_DELETED);
+			b.putLong(customerId);
+			return commit(size);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	public long appendOrder(Customer customer, Order order) {
+		int size = 1 + EntityCodec.sizeOf(customer, order);
+		appendLock.lock();
+		try {
+			ByteBuffer b = reserve(size);
+			try {
+				b.put(ORDER);
+				EntityCodec.put(b, customer, order, store.getCurrentOrderId());
+				return commit(size);
+			} catch (RuntimeException e) {
+				b.position(recordStart);
+				throw e;
+			}
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	public long appendOrderDeleted(long customerId, long orderId) {
+		int size = 1 + 8 + 8;
+		appendLock.lock();
+		try {
+			ByteBuffer b = reserve(size);
+			b.put(ORDER_DELETED);
+			b.putLong(customerId);
+			b.putLong(orderId);
+			return commit(size);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Appends the order a product was added to together with the product, whose quantity ordered changed too.
+	 */
+	public long appendOrderLine(Customer customer, Order order, Product product) {
+		int size = 1 + EntityCodec.sizeOf(customer, order) + EntityCodec.sizeOf(product);
+		appendLock.lock();
+		try {
+			ByteBuffer b = reserve(size);
+			try {
+				b.put(ORDER_LINE);
+				EntityCodec.put(b, customer, order, store.getCurrentOrderId());
+				EntityCodec.put(b, product);
+				return commit(size);
+			} catch (RuntimeException e) {
+				b.position(recordStart);
+				throw e;
+			}
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	public long appendProduct(Product product) {
+		int size = 1 + EntityCodec.sizeOf(product);
+		appendLock.lock();
+		try {
+			ByteBuffer b = reserve(size);
+			b.put(PRODUCT);
+			EntityCodec.put(b, product);
+			return commit(size);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	public long appendProductDeleted(long productId) {
+		int size = 1 + 8;
+		appendLock.lock();
+		try {
+			ByteBuffer b = reserve(size);
+			b.put(PRODUCT_DELETED);
+			b.putLong(productId);
+			return commit(size);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until everything up to the given position is on disk, as far as the fsync policy asks for it. With
+	 * ALWAYS the append already forced it and with PERIODIC nobody waits.
+	 */
+	public void awaitDurable(long lsn) {
+		if (fsyncPolicy != FsyncPolicy.GROUP || lsn <= durable) {
+			return;
+		}
+		durableLock.lock();
+		try {
+			flushRequested = true;
+			flushWanted.signal();
+			while (durable < lsn && running) {
+				durableAdvanced.await();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the journal", e);
+		} finally {
+			durableLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the store and deletes the snapshots and log segments it makes obsolete. Writers are only
+	 * held up for the entity being written.
+	 */
+	public void snapshot() throws IOException {
+		synchronized (snapshotLock) {
+			long start;
+			appendLock.lock();
+			try {
+				start = position;
+			} finally {
+				appendLock.unlock();
+			}
+			long started = System.nanoTime();
+			File tmp = new File(dir, SNAPSHOT_PREFIX + "tmp");
+			FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			long entities;
+			try {
+				SnapshotWriter writer = new SnapshotWriter(channel);
+				writer.header(start, store.getCurrentId(), store.getCurrentProductId(), store.getCurrentOrderId());
+				store.visit(writer);
+				entities = writer.finish();
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+			File target = new File(dir, name(SNAPSHOT_PREFIX, start, SNAPSHOT_SUFFIX));
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			lastSnapshot = start;
+
+			for (File f : list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+				if (startOf(f, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < start && !f.delete()) {
+					LOG.warn("Cannot delete old snapshot {}", f);
+				}
+			}
+			appendLock.lock();
+			try {
+				while (segments.size() > 1 && segments.peekFirst().end() <= start) {
+					Segment s = segments.pollFirst();
+					s.close();
+					if (!s.file.delete()) {
+						LOG.warn("Cannot delete old journal segment {}", s.file);
+					}
+				}
+			} finally {
+				appendLock.unlock();
+			}
+			LOG.info("Snapshot of {} entities at position {} written in {} ms", entities, start,
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+		}
+	}
+
+	private void snapshotIfNeeded() {
+		try {
+			if (running && position - Math.max(lastSnapshot, 0) >= snapshotThresholdBytes) {
+				snapshot();
+			}
+		} catch (Exception e) {
+			LOG.error("Snapshot failed, the journal keeps growing until the next one succeeds", e);
+		}
+	}
+
+	/**
+	 * Moves the buffer of the current segment past the record header, rolling over to a new segment if the record
+	 * does not fit. Called with the append lock held.
+	 */
+	private ByteBuffer reserve(int size) {
+		int needed = HEADER + size;
+		if (current.buffer.remaining() < needed) {
+			roll();
+			if (current.buffer.remaining() < needed) {
+				throw new IllegalArgumentException("A journal record of " + size
+						+ " bytes does not fit into a segment of " + current.buffer.capacity() + " bytes");
+			}
+		}
+		ByteBuffer b = current.buffer;
+		recordStart = b.position();
+		b.position(recordStart + HEADER);
+		return b;
+	}
+
+	/**
+	 * Completes the record started by reserve. Called with the append lock held.
+	 *
+	 * @return the position right after the record
+	 */
+	private long commit(int size) {
+		ByteBuffer b = current.buffer;
+		ByteBuffer payload = b.duplicate();
+		payload.position(recordStart + HEADER);
+		payload.limit(recordStart + HEADER + size);
+		crc.reset();
+		crc.update(payload);
+		b.putInt(recordStart + 4, (int) crc.getValue());
+		b.putInt(recordStart, size);
+		position = current.start + b.position();
+		if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+			current.buffer.force();
+			durable = position;
+		}
+		return position;
+	}
+
+	/**
+	 * Moves on to the spare segment, or to a new one if there is none, and creates the next spare. A spare that
+	 * cannot be created is left to prepare, which fails the next mutation before it is applied.
+	 */
+	private void roll() {
+		Segment old = current;
+		old.buffer.force();
+		current = spare != null ? spare : createSegment(old.end());
+		spare = null;
+		segments.addLast(current);
+		advanceDurable(position);
+		position = current.start;
+		try {
+			spare = Segment.create(dir, current.end(), segmentSize);
+		} catch (IOException e) {
+			LOG.warn("Cannot create the next journal segment yet", e);
+		}
+	}
+
+	private Segment createSegment(long start) {
+		try {
+			return Segment.create(dir, start, segmentSize);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot create journal segment", e);
+		}
+	}
+
+	private void flushLoop() {
+		while (running) {
+			try {
+				if (fsyncPolicy == FsyncPolicy.PERIODIC) {
+					Thread.sleep(fsyncIntervalMillis);
+				} else {
+					durableLock.lock();
+					try {
+						while (running && !flushRequested) {
+							flushWanted.await();
+						}
+						flushRequested = false;
+					} finally {
+						durableLock.unlock();
+					}
+				}
+				flush();
+			} catch (InterruptedException e) {
+				// close() interrupts to stop the loop
+			} catch (RuntimeException e) {
+				LOG.error("Forcing the journal failed", e);
+			}
+		}
+	}
+
+	private void flush() {
+		Segment segment;
+		long target;
+		appendLock.lock();
+		try {
+			segment = current;
+			target = position;
+		} finally {
+			appendLock.unlock();
+		}
+		if (target <= durable) {
+			return;
+		}
+		segment.buffer.force();
+		advanceDurable(target);
+	}
+
+	/**
+	 * Wakes the writers waiting in awaitDurable. A lock and conditions rather than a monitor, so that writers running
+	 * on virtual threads release their carrier thread while they wait.
+	 */
+	private void advanceDurable(long target) {
+		durableLock.lock();
+		try {
+			durable = Math.max(durable, target);
+			durableAdvanced.signalAll();
+		} finally {
+			durableLock.unlock();
+		}
+	}
+
+	/**
+	 * Checks that the directory holds a journal of the current format, and marks a new one as such. A journal without
+	 * the mark was written before the format had one.
+	 */
+	private void checkFormat() throws IOException {
+		File f = new File(dir, FORMAT_FILE);
+		if (f.exists()) {
+			String format = new String(Files.readAllBytes(f.toPath()), StandardCharsets.US_ASCII).trim();
+			if (!format.equals(String.valueOf(FORMAT))) {
+				throw new IOException("The journal in " + dir.getAbsolutePath() + " has format " + format
+						+ ", this version reads format " + FORMAT);
+			}
+			return;
+		}
+		if (!list(SEGMENT_PREFIX, SEGMENT_SUFFIX).isEmpty() || !list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).isEmpty()) {
+			throw new IOException("The journal in " + dir.getAbsolutePath()
+					+ " was written in an older format, which this version does not read");
+		}
+		Files.write(f.toPath(), String.valueOf(FORMAT).getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Loads the latest snapshot into the store.
+	 *
+	 * @return the log position the snapshot was started at, i.e. where replay has to start
+	 */
+	private long loadSnapshot() throws IOException {
+		List<File> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		if (snapshots.isEmpty()) {
+			return 0;
+		}
+		File f = snapshots.get(snapshots.size() - 1);
+		FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			SnapshotReader reader = new SnapshotReader(channel);
+			long start = reader.read(store);
+			lastSnapshot = start;
+			LOG.info("Loaded {} entities from snapshot {}", reader.entities, f);
+			return start;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Replays the log from the given position and leaves the journal positioned after the last intact record. Any
+	 * bytes after it, e.g. of a record cut short by a crash, are cleared.
+	 */
+	private void replay(long from) throws IOException {
+		long records = 0;
+		boolean torn = false;
+		for (File f : list(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+			if (torn) {
+				LOG.warn("Discarding journal segment {} after a damaged record", f);
+				if (!f.delete()) {
+					throw new IOException("Cannot delete journal segment " + f);
+				}
+				continue;
+			}
+			Segment s = Segment.open(f, startOf(f, SEGMENT_PREFIX, SEGMENT_SUFFIX));
+			segments.addLast(s);
+			current = s;
+			ByteBuffer b = s.buffer;
+			b.position(from > s.start ? (int) Math.min(from - s.start, b.capacity()) : 0);
+			while (b.remaining() >= HEADER) {
+				int start = b.position();
+				int size = b.getInt(start);
+				if (size == 0) {
+					break;
+				}
+				if (size < 0 || size > b.remaining() - HEADER || !intact(b, start, size)) {
+					LOG.warn("Damaged journal record at position {}, the log ends there", s.start + start);
+					torn = true;
+					break;
+				}
+				b.position(start + HEADER);
+				apply(b);
+				b.position(start + HEADER + size);
+				records++;
+			}
+		}
+		if (current == null) {
+			current = Segment.create(dir, from, segmentSize);
+			segments.addLast(current);
+		}
+		ByteBuffer b = current.buffer;
+		for (int i = b.position(); i < b.capacity(); i++) {
+			if (b.get(i) != 0) {
+				b.put(i, (byte) 0);
+			}
+		}
+		position = current.start + b.position();
+		LOG.info("Replayed {} journal records from position {}", records, from);
+	}
+
+	private boolean intact(ByteBuffer b, int start, int size) {
+		ByteBuffer payload = b.duplicate();
+		payload.position(start + HEADER);
+		payload.limit(start + HEADER + size);
+		crc.reset();
+		crc.update(payload);
+		return (int) crc.getValue() == b.getInt(start + 4);
+	}
+
+	private void apply(ByteBuffer b) throws IOException {
+		byte type = b.get();
+		switch (type) {
+		case CUSTOMER:
+			EntityCodec.restoreCustomer(b, store);
+			break;
+		case CUSTOMER_DELETED:
+			store.deleteCustomer(b.getLong());
+			break;
+		case ORDER:
+			EntityCodec.restoreOrder(b, store);
+			break;
+		case ORDER_DELETED:
+			long customerId = b.getLong();
+			store.deleteOrder(customerId, b.getLong());
+			break;
+		case ORDER_LINE:
+			EntityCodec.restoreOrder(b, store);
+			store.restoreProduct(EntityCodec.getProduct(b));
+			break;
+		case PRODUCT:
+			store.restoreProduct(EntityCodec.getProduct(b));
+			break;
+		case PRODUCT_DELETED:
+			store.deleteProduct(b.getLong());
+			break;
+		default:
+			throw new IOException("Unknown journal record type " + type);
+		}
+	}
+
+	private List<File> list(final String prefix, final String suffix) {
+		File[] files = dir.listFiles();
+		List<File> matching = new ArrayList<File>();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File f : files) {
+				if (f.getName().startsWith(prefix) && f.getName().endsWith(suffix)) {
+					matching.add(f);
+				}
+			}
+		}
+		return matching;
+	}
+
+	private static String name(String prefix, long start, String suffix) {
+		return String.format("%s%020d%s", prefix, start, suffix);
+	}
+
+	private static long startOf(File f, String prefix, String suffix) {
+		String name = f.getName();
+		return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public void setDirectory(String directory) {
+		this.directory = directory;
+	}
+
+	public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+		this.fsyncPolicy = fsyncPolicy;
+	}
+
+	public void setFsyncIntervalMillis(long fsyncIntervalMillis) {
+		this.fsyncIntervalMillis = fsyncIntervalMillis;
+	}
+
+	public void setSegmentSize(int segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	public void setSnapshotIntervalSeconds(long snapshotIntervalSeconds) {
+		this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+	}
+
+	public void setSnapshotThresholdBytes(long snapshotThresholdBytes) {
+		this.snapshotThresholdBytes = snapshotThresholdBytes;
+	}
+
+	/**
+	 * One memory-mapped log file, named after the log position it starts at.
+	 */
+	static final class Segment {
+		final long start;
+		final File file;
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+
+		private Segment(long start, File file, FileChannel channel, int size) throws IOException {
+			this.start = start;
+			this.file = file;
+			this.channel = channel;
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		static Segment create(File dir, long start, int size) throws IOException {
+			File file = new File(dir, name(SEGMENT_PREFIX, start, SEGMENT_SUFFIX));
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			return new Segment(start, file, channel, size);
+		}
+
+		static Segment open(File file, long start) throws IOException {
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			return new Segment(start, file, channel, (int) channel.size());
+		}
+
+		long end() {
+			return start + buffer.capacity();
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOG.warn("Cannot close journal segment {}", file, e);
+			}
+		}
+	}
+
+	/**
+	 * Writes a snapshot: a header, one record per entity, an end marker with the entity count and the CRC32 of
+	 * everything before it.
+	 */
+	private static final class SnapshotWriter implements EntityStore.Visitor {
+		private final FileChannel channel;
+		private final CRC32 crc = new CRC32();
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+		private long entities;
+		private long currentOrderId;
+
+		SnapshotWriter(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * The order id counter is not part of the header; it is written with every customer, as in the log.
+		 */
+		void header(long start, long currentId, long currentProductId, long currentOrderId) throws IOException {
+			this.currentOrderId = currentOrderId;
+			ensure(32);
+			buffer.putLong(SNAPSHOT_MAGIC);
+			buffer.putLong(start);
+			buffer.putLong(currentId);
+			buffer.putLong(currentProductId);
+		}
+
+		public void visit(Product product) throws IOException {
+			int size = EntityCodec.sizeOf(product);
+			ensure(5 + size);
+			buffer.put(PRODUCT);
+			buffer.putInt(size);
+			EntityCodec.put(buffer, product);
+			entities++;
+		}
+
+		public void visit(Customer customer) throws IOException {
+			int size = EntityCodec.sizeOf(customer);
+			ensure(5 + size);
+			buffer.put(CUSTOMER);
+			buffer.putInt(size);
+			EntityCodec.put(buffer, customer, currentOrderId);
+			entities++;
+		}
+
+		long finish() throws IOException {
+			ensure(9);
+			buffer.put(SNAPSHOT_END);
+			buffer.putLong(entities);
+			drain();
+			buffer.putLong(crc.getValue());
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			return entities;
+		}
+
+		private void ensure(int size) throws IOException {
+			if (buffer.remaining() < size) {
+				drain();
+				if (buffer.capacity() < size) {
+					buffer = ByteBuffer.allocateDirect(size);
+				}
+			}
+		}
+
+		private void drain() throws IOException {
+			buffer.flip();
+			crc.update(buffer.duplicate());
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Reads a snapshot written by SnapshotWriter into a store, checking the CRC on the way.
+	 */
+	private static final class SnapshotReader {
+		private final FileChannel channel;
+		private final CRC32 crc = new CRC32();
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+		private long entities;
+
+		SnapshotReader(FileChannel channel) {
+			this.channel = channel;
+			buffer.limit(0);
+		}
+
+		long read(EntityStore store) throws IOException {
+			ensure(32);
+			if (buffer.getLong() != SNAPSHOT_MAGIC) {
+				throw new IOException("Not a snapshot file");
+			}
+			long start = buffer.getLong();
+			long currentId = buffer.getLong();
+			long currentProductId = buffer.getLong();
+			while (true) {
+				ensure(1);
+				byte type = buffer.get();
+				if (type == SNAPSHOT_END) {
+					ensure(8);
+					long count = buffer.getLong();
+					long expected = checksum();
+					ensure(8);
+					if (count != entities || buffer.getLong() != expected) {
+						throw new IOException("Snapshot is damaged");
+					}
+					break;
+				}
+				ensure(4);
+				int size = buffer.getInt();
+				ensure(size);
+				int end = buffer.position() + size;
+				if (type == PRODUCT) {
+					store.restoreProduct(EntityCodec.getProduct(buffer));
+				} else if (type == CUSTOMER) {
+					EntityCodec.restoreCustomer(buffer, store);
+				} else {
+					throw new IOException("Unknown snapshot record type " + type);
+				}
+				buffer.position(end);
+				entities++;
+			}
+			store.restoreIds(currentId, currentProductId);
+			return start;
+		}
+
+		/**
+		 * Returns the CRC of everything consumed so far.
+		 */
+		private long checksum() {
+			ByteBuffer consumed = buffer.duplicate();
+			consumed.flip();
+			crc.update(consumed);
+			buffer.compact();
+			buffer.flip();
+			return crc.getValue();
+		}
+
+		private void ensure(int size) throws IOException {
+			if (buffer.remaining() >= size) {
+				return;
+			}
+			ByteBuffer consumed = buffer.duplicate();
+			consumed.flip();
+			crc.update(consumed);
+			buffer.compact();
+			if (buffer.capacity() < size) {
+				buffer.flip();
+				buffer = ByteBuffer.allocateDirect(size).put(buffer);
+			}
+			while (buffer.position() < size) {
+				if (channel.read(buffer) < 0) {
+					throw new IOException("Snapshot ends unexpectedly");
+				}
+			}
+			buffer.flip();
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs order line writes from many threads at once against an EntityStore and checks that every order total is the
+ * sum of its lines, that the quantity ordered of every product counts every unit added, and that the spend index
+ * agrees with the orders, once all threads are done.
+ */
+public class EntityStoreConcurrencyTest {
+
+	private static final int THREADS = 8;
+	private static final int CUSTOMERS = 16;
+	private static final int ORDERS_PER_CUSTOMER = 4;
+	private static final int PRODUCTS = 24;
+	private static final int OPERATIONS = 20000;
+
+	private EntityStore store;
+	private ExecutorService threads;
+	private long[] customerIds;
+	private long[][] orderIds;
+	private long[] productIds;
+
+	@Before
+	public void setUp() {
+		store = new EntityStore(THREADS);
+		threads = Executors.newFixedThreadPool(THREADS);
+		productIds = new long[PRODUCTS];
+		for (int i = 0; i < PRODUCTS; i++) {
+			Product p = new Product();
+			p.setPrice(100 + 25 * i);
+			productIds[i] = store.addProduct(p).getId();
+		}
+		customerIds = new long[CUSTOMERS];
+		orderIds = new long[CUSTOMERS][ORDERS_PER_CUSTOMER];
+		for (int i = 0; i < CUSTOMERS; i++) {
+			Customer c = new Customer();
+			c.setName("Customer " + i);
+			customerIds[i] = store.addCustomer(c).getId();
+			for (int j = 0; j < ORDERS_PER_CUSTOMER; j++) {
+				Order o = new Order();
+				o.setDescription("Order " + j);
+				orderIds[i][j] = store.addOrder(customerIds[i], o).getId();
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		threads.shutdownNow();
+	}
+
+	@Test
+	public void addAndDeleteOrderProducts() throws Exception {
+		final AtomicLongArray added = new AtomicLongArray(PRODUCTS);
+		run(new Writer() {
+			public void write(Random random, int customer, long orderId, int product) {
+				if (random.nextInt(10) < 7) {
+					if (store.addOrderProduct(customerIds[customer], orderId, productIds[product])) {
+						added.incrementAndGet(product);
+					}
+				} else {
+					store.deleteOrderProduct(customerIds[customer], orderId, productIds[product]);
+				}
+			}
+		});
+
+		assertTotals();
+		for (int i = 0; i < PRODUCTS; i++) {
+			assertEquals("units ordered of product " + productIds[i], added.get(i),
+					store.getProduct(productIds[i]).getQuantityOrdered());
+		}
+	}
+
+	@Test
+	public void batchesAndChangesOfPrice() throws Exception {
+		run(new Writer() {
+			public void write(Random random, int customer, long orderId, int product) {
+				int dice = random.nextInt(100);
+				if (dice < 2) {
+					Product p = new Product();
+					p.setId(productIds[product]);
+					p.setPrice(100 + random.nextInt(1000));
+					store.updateProduct(p);
+				} else if (dice < 10) {
+					List<OrderLineOperation> batch = new ArrayList<OrderLineOperation>();
+					for (int i = 0; i < 8; i++) {
+						OrderLineOperation op = new OrderLineOperation();
+						op.setAction(random.nextBoolean() ? OrderLineOperation.Action.ADD
+								: OrderLineOperation.Action.DELETE);
+						op.setCustomerId(customerIds[customer]);
+						op.setOrderId(orderId);
+						op.setProductId(productIds[random.nextInt(PRODUCTS)]);
+						batch.add(op);
+					}
+					store.applyOrderLines(batch);
+				} else if (dice < 70) {
+					store.addOrderProduct(customerIds[customer], orderId, productIds[product]);
+				} else {
+					store.deleteOrderProduct(customerIds[customer], orderId, productIds[product]);
+				}
+			}
+		});
+
+		assertTotals();
+		for (long customerId : customerIds) {
+			for (Order o : store.getCustomer(customerId).orderValues()) {
+				for (OrderLine line : o.lineValues()) {
+					assertEquals("price of product " + line.getId() + " on order " + o.getId(),
+							store.getProduct(line.getId()).getPrice(), line.getUnitPrice());
+				}
+			}
+		}
+	}
+
+	/**
+	 * One write of a worker thread, on a random order of a random customer and a random product.
+	 */
+	private interface Writer {
+
+		void write(Random random, int customer, long orderId, int product);
+	}
+
+	private void run(final Writer writer) throws Exception {
+		List<Future<Void>> done = new ArrayList<Future<Void>>();
+		for (int t = 0; t < THREADS; t++) {
+			final long seed = t;
+			done.add(threads.submit(new Callable<Void>() {
+				public Void call() {
+					Random random = new Random(seed);
+					for (int i = 0; i < OPERATIONS; i++) {
+						int customer = random.nextInt(CUSTOMERS);
+						writer.write(random, customer, orderIds[customer][random.nextInt(ORDERS_PER_CUSTOMER)],
+								random.nextInt(PRODUCTS));
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> f : done) {
+			f.get();
+		}
+	}
+
+	private void assertTotals() {
+		List<CustomerSpend> spend = store.getTopCustomers(0);
+		assertEquals(CUSTOMERS, spend.size());
+		for (CustomerSpend s : spend) {
+			Customer c = store.getCustomer(s.getId());
+			assertEquals(ORDERS_PER_CUSTOMER, c.orderCount());
+			long sum = 0;
+			for (Order o : c.orderValues()) {
+				long lines = 0;
+				for (OrderLine line : o.lineValues()) {
+					assertTrue("quantity of product " + line.getId() + " on order " + o.getId(),
+							line.getQuantity() > 0);
+					lines += line.amount();
+				}
+				assertEquals("total of order " + o.getId(), lines, o.getTotal());
+				sum += o.getTotal();
+			}
+			assertEquals("spend of customer " + c.getId(), sum, s.getSpend());
+		}
+	}
+}
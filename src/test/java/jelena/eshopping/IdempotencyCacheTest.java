@@ -0,0 +1,77 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Test;
+
+/**
+ * Checks that the IdempotencyCache keeps pending claims under byte pressure, releases the keys of answers it cannot
+ * store and expires every entry at its own deadline.
+ */
+public class IdempotencyCacheTest {
+
+	private static final int ONE_SEGMENT = 1;
+
+	@Test
+	public void keepsPendingClaimsWhenFull() {
+		IdempotencyCache cache = new IdempotencyCache(4 * IdempotencyCache.ENTRY_OVERHEAD, 60, ONE_SEGMENT);
+		for (int i = 0; i < 10; i++) {
+			assertNull(cache.claim("key" + i));
+		}
+		for (int i = 0; i < 10; i++) {
+			IdempotencyCache.Entry e = cache.claim("key" + i);
+			assertNotNull("claim of key" + i, e);
+			assertTrue(e.isPending());
+		}
+		assertEquals(0, cache.getEvictions());
+
+		cache.complete("key0", 201, MediaType.APPLICATION_JSON_TYPE, new byte[16]);
+		assertNull("the answer is evicted rather than a claim", cache.claim("new"));
+		assertEquals(1, cache.getEvictions());
+		assertTrue(cache.claim("key1").isPending());
+	}
+
+	@Test
+	public void releasesTheKeyOfAnOversizedAnswer() {
+		IdempotencyCache cache = new IdempotencyCache(1024, 60, ONE_SEGMENT);
+		assertNull(cache.claim("key"));
+		cache.complete("key", 201, MediaType.APPLICATION_JSON_TYPE, new byte[4096]);
+		assertEquals(1, cache.getOversized());
+		assertNull("a retry runs again", cache.claim("key"));
+	}
+
+	@Test
+	public void expiresAnswersAtTheirOwnDeadline() throws InterruptedException {
+		IdempotencyCache cache = new IdempotencyCache(1 << 20, 1, ONE_SEGMENT);
+		assertNull(cache.claim("first"));
+		Thread.sleep(600);
+		assertNull(cache.claim("second"));
+		cache.complete("first", 201, MediaType.APPLICATION_JSON_TYPE, new byte[16]);
+		Thread.sleep(600);
+		assertNotNull("answered less than the ttl ago", cache.claim("first"));
+		Thread.sleep(600);
+		assertNull("pending longer than the ttl", cache.claim("second"));
+		assertNull("answered longer than the ttl ago", cache.claim("first"));
+		assertEquals(2, cache.getExpirations());
+	}
+}
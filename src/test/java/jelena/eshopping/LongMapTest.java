@@ -0,0 +1,63 @@
+/**
+ *  Copyright 2005-2015 Red Hat, Inc.
+ *
+ *  Red Hat licenses this file to you under the Apache License, version
+ *  2.0 (the "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied.  See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package jelena.eshopping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * Checks the iteration of a LongMap in key order against a TreeMap, across several chunks and with removed keys.
+ */
+public class LongMapTest {
+
+	@Test
+	public void iteratesInKeyOrder() {
+		LongMap<String> map = new LongMap<String>();
+		TreeMap<Long, String> expected = new TreeMap<Long, String>();
+		Random random = new Random(1);
+		for (int i = 0; i < 5000; i++) {
+			long key = random.nextInt(100000) - 1000;
+			map.put(key, "v" + key);
+			expected.put(Long.valueOf(key), "v" + key);
+		}
+		for (int i = 0; i < 1000; i++) {
+			long key = random.nextInt(100000) - 1000;
+			map.remove(key);
+			expected.remove(Long.valueOf(key));
+		}
+		for (long after : new long[] { Long.MIN_VALUE, -1, 0, 50000, 98999, 99000 }) {
+			List<String> values = new ArrayList<String>();
+			for (Iterator<String> i = map.iterator(after); i.hasNext();) {
+				values.add(i.next());
+			}
+			assertEquals("after " + after, new ArrayList<String>(expected.tailMap(Long.valueOf(after), false)
+					.values()), values);
+		}
+	}
+
+	@Test
+	public void iteratesAnEmptyMap() {
+		assertFalse(new LongMap<String>().iterator(0).hasNext());
+	}
+}